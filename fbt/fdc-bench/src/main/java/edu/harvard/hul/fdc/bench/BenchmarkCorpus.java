@@ -0,0 +1,57 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import edu.harvard.hul.fdc.generator.CorpusGenerator;
+import edu.harvard.hul.fdc.generator.FitsOutput;
+
+/**
+ * Writes the fits.xml documents and folders the benchmarks run against, with
+ * the corpus generator and a fixed seed. About every tenth candidate of a
+ * folder differs from its source, in the ways the resolvers report: new,
+ * updated and missing tools and mismatching values.
+ */
+public class BenchmarkCorpus {
+
+  private static final long SEED = 42;
+
+  private static final double RATE = 0.025;
+
+  /**
+   * Renders a single document. A changed candidate has a new, an updated and
+   * a missing tool and a mismatching value.
+   */
+  public static String document( int index, boolean changed, int metadataElements ) {
+    CorpusGenerator generator = createGenerator( metadataElements, changed ? 1.0 : 0.0 );
+    FitsOutput output = generator.createOutput( index );
+    StringWriter out = new StringWriter();
+    try {
+      generator.writeDocument( out, output, changed );
+    } catch (IOException e) {
+      throw new IllegalStateException( e );
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes a source and a candidate folder with the given number of pairs.
+   */
+  public static void write( File folder, int files, int metadataElements ) throws IOException {
+    CorpusGenerator generator = createGenerator( metadataElements, RATE );
+    generator.setFiles( files );
+    generator.generate( folder );
+  }
+
+  private static CorpusGenerator createGenerator( int metadataElements, double rate ) {
+    CorpusGenerator generator = new CorpusGenerator();
+    generator.setSeed( SEED );
+    generator.setMetadataElements( metadataElements );
+    generator.setNewToolRate( rate );
+    generator.setUpdatedToolRate( rate );
+    generator.setMissingToolRate( rate );
+    generator.setMismatchRate( rate );
+    return generator;
+  }
+}
@@ -0,0 +1,75 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.hul.fdc.FitsXMLComparator;
+
+/**
+ * Compares a single pair with both comparator engines.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 3 )
+@State( Scope.Thread )
+public class ComparatorBenchmark {
+
+  @Param( { "10", "500" } )
+  public int metadataElements;
+
+  @Param( { "false", "true" } )
+  public boolean changed;
+
+  private String mSource;
+
+  private String mCandidate;
+
+  private byte[] mSourceBytes;
+
+  private byte[] mCandidateBytes;
+
+  private FitsXMLComparator mComparator;
+
+  @Setup( Level.Trial )
+  public void createDocuments() {
+    Console.silence();
+    mSource = BenchmarkCorpus.document( 1, false, metadataElements );
+    mCandidate = BenchmarkCorpus.document( 1, changed, metadataElements );
+    mSourceBytes = mSource.getBytes( Charset.forName( "UTF-8" ) );
+    mCandidateBytes = mCandidate.getBytes( Charset.forName( "UTF-8" ) );
+  }
+
+  @Setup( Level.Iteration )
+  public void createComparator() {
+    mComparator = new FitsXMLComparator();
+  }
+
+  @Benchmark
+  public FitsXMLComparator compareWithDom4J() {
+    mComparator.compareWithDom4J( "file1.tif.fits.xml", mSource, mCandidate );
+    return mComparator;
+  }
+
+  @Benchmark
+  public FitsXMLComparator compareWithStAX() {
+    mComparator.compareWithStAX( "file1.tif.fits.xml", new ByteArrayInputStream( mSourceBytes ),
+        new ByteArrayInputStream( mCandidateBytes ) );
+    return mComparator;
+  }
+}
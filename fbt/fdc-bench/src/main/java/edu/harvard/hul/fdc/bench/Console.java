@@ -0,0 +1,16 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.io.PrintStream;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+public class Console {
+
+  /**
+   * The comparator reports to stdout, which would otherwise end up in the
+   * benchmark output and be measured along with it.
+   */
+  public static void silence() {
+    System.setOut( new PrintStream( NullOutputStream.NULL_OUTPUT_STREAM ) );
+  }
+}
@@ -0,0 +1,75 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.hul.fdc.Controller;
+import edu.harvard.hul.fdc.ControllerState;
+import edu.harvard.hul.fdc.FitsXMLComparator;
+import edu.harvard.hul.fdc.LogWriter;
+import edu.harvard.hul.fdc.cli.CLI;
+
+/**
+ * A complete run of the comparator over a generated corpus, as App does it.
+ * threads=4 can only be faster with as many cores. On a single core the
+ * workers take turns and add the overhead of handing out pairs, forking and
+ * merging the comparators. The gc profiler only counts the allocations of
+ * the benchmark thread, which for threads=4 leaves out those of the workers.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 3 )
+@State( Scope.Benchmark )
+public class ControllerBenchmark {
+
+  @Param( { "1000", "10000", "100000" } )
+  public int files;
+
+  @Param( { "1", "4" } )
+  public int threads;
+
+  private File mFolder;
+
+  @Setup( Level.Trial )
+  public void writeCorpus() throws IOException {
+    Console.silence();
+    mFolder = Files.createTempDirectory( "fdc-bench" ).toFile();
+    // keeps the log file the LogWriter appends to out of the real temp folder
+    System.setProperty( "java.io.tmpdir", mFolder.getAbsolutePath() );
+    BenchmarkCorpus.write( mFolder, files, 20 );
+  }
+
+  @TearDown( Level.Trial )
+  public void deleteCorpus() throws IOException {
+    FileUtils.deleteDirectory( mFolder );
+  }
+
+  @Benchmark
+  public int run() {
+    Controller controller = new Controller( new CLI(), new ControllerState(), new FitsXMLComparator(),
+        new LogWriter() );
+    controller.setInput( "-s", new File( mFolder, "source" ).getPath(), "-c",
+        new File( mFolder, "candidate" ).getPath(), "-k", "bench", "--threads", String.valueOf( threads ) );
+    controller.run();
+    return controller.getState().getExitCode();
+  }
+}
@@ -0,0 +1,88 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.hul.fdc.report.TextReportWriter;
+import edu.harvard.hul.fdc.resolver.DiffResolver;
+import edu.harvard.hul.fdc.resolver.FileDictionary;
+import edu.harvard.hul.fdc.resolver.IdentificationResolver;
+
+/**
+ * Merges and reports the results of several workers that each resolved a
+ * share of the files, as a parallel run does at its end.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 3 )
+@State( Scope.Thread )
+public class MergeBenchmark {
+
+  @Param( { "1000", "10000" } )
+  public int files;
+
+  @Param( { "4" } )
+  public int workers;
+
+  private FileDictionary mFiles;
+
+  private DiffResolver[] mWorkers;
+
+  private DiffResolver mMerged;
+
+  @Setup( Level.Trial )
+  public void resolveFiles() throws DocumentException {
+    Console.silence();
+    mFiles = new FileDictionary();
+    mWorkers = new DiffResolver[workers];
+    for (int w = 0; w < workers; w++) {
+      mWorkers[w] = new IdentificationResolver();
+      mWorkers[w].setFileDictionary( mFiles );
+    }
+
+    for (int i = 0; i < files; i++) {
+      Element source = DocumentHelper.parseText( BenchmarkCorpus.document( i, false, 0 ) ).getRootElement();
+      Element candidate = DocumentHelper.parseText( BenchmarkCorpus.document( i, i % 10 == 0, 0 ) )
+          .getRootElement();
+      mWorkers[i % workers].resolve( "file" + i + ".tif.fits.xml", source.element( "identification" ),
+          candidate.element( "identification" ) );
+    }
+
+    mMerged = merge();
+  }
+
+  @Benchmark
+  public DiffResolver merge() {
+    DiffResolver merged = new IdentificationResolver();
+    merged.setFileDictionary( mFiles );
+    for (DiffResolver worker : mWorkers) {
+      merged.merge( worker );
+    }
+    return merged;
+  }
+
+  @Benchmark
+  public List<Integer> report() throws IOException {
+    return mMerged.report( new TextReportWriter( new NullWriter() ) );
+  }
+}
@@ -0,0 +1,60 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.hul.fdc.Dom4JParser;
+
+/**
+ * Parses a single document into a dom4j tree, with a new parser per document
+ * from a decoded String as DocumentHelper does, and with a reused parser from
+ * the bytes.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 3 )
+@State( Scope.Thread )
+public class ParserBenchmark {
+
+  @Param( { "10", "500" } )
+  public int metadataElements;
+
+  private byte[] mBytes;
+
+  private Dom4JParser mParser;
+
+  @Setup( Level.Trial )
+  public void createDocument() {
+    mBytes = BenchmarkCorpus.document( 1, false, metadataElements ).getBytes( Charset.forName( "UTF-8" ) );
+    mParser = new Dom4JParser();
+  }
+
+  @Benchmark
+  public Document parseText() throws DocumentException {
+    // the read the comparator used to do before parsing
+    return DocumentHelper.parseText( new String( mBytes, Charset.defaultCharset() ) );
+  }
+
+  @Benchmark
+  public Document reusedParser() throws DocumentException {
+    return mParser.parse( mBytes );
+  }
+}
@@ -0,0 +1,163 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compares the CSV results of a benchmark run (-rf csv) with the baseline
+ * results and lists every score that got worse by more than the threshold.
+ * A change only counts as a regression if the confidence intervals of the
+ * two scores (Score Error) do not overlap either, so noisy results are not
+ * reported. Exits with 1 if there is any regression, so it can be used in
+ * scripts.
+ *
+ * Usage: RegressionCheck baseline.csv results.csv [threshold percent]
+ */
+public class RegressionCheck {
+
+  public static void main( String[] args ) throws IOException {
+    if (args.length < 2) {
+      System.err.println( "Usage: RegressionCheck <baseline.csv> <results.csv> [threshold percent, default 10]" );
+      System.exit( 2 );
+    }
+
+    double threshold = args.length > 2 ? Double.parseDouble( args[2] ) / 100.0 : 0.1;
+    Map<String, Score> baseline = read( new File( args[0] ) );
+    Map<String, Score> results = read( new File( args[1] ) );
+
+    int regressions = 0;
+    for (String key : results.keySet()) {
+      Score before = baseline.get( key );
+      Score after = results.get( key );
+      if (before == null || !after.isChecked()) {
+        continue;
+      }
+
+      double change = (after.mValue - before.mValue) / before.mValue;
+      boolean worse = after.isHigherBetter() ? change < -threshold : change > threshold;
+      boolean separate = after.isHigherBetter() ? after.upper() < before.lower() : after.lower() > before.upper();
+      if (worse && separate) {
+        regressions++;
+        System.out.println( String.format( "REGRESSION %s: %.3f +- %.3f -> %.3f +- %.3f %s (%+.1f%%)", key,
+            before.mValue, before.mError, after.mValue, after.mError, after.mUnit, change * 100 ) );
+      } else if (worse) {
+        System.out.println( String.format( "within error %s: %.3f +- %.3f -> %.3f +- %.3f %s (%+.1f%%)", key,
+            before.mValue, before.mError, after.mValue, after.mError, after.mUnit, change * 100 ) );
+      }
+    }
+
+    System.out.println( String.format( "%d regression(s) in %d result(s)", regressions, results.size() ) );
+    System.exit( regressions > 0 ? 1 : 0 );
+  }
+
+  private static Map<String, Score> read( File file ) throws IOException {
+    Map<String, Score> scores = new LinkedHashMap<String, Score>();
+    List<String> lines = FileUtils.readLines( file, Charset.forName( "UTF-8" ) );
+    if (lines.isEmpty()) {
+      return scores;
+    }
+
+    List<String> header = split( lines.get( 0 ) );
+    int score = header.indexOf( "Score" );
+    int error = score + 1;
+    int unit = header.indexOf( "Unit" );
+    int mode = header.indexOf( "Mode" );
+    for (String line : lines.subList( 1, lines.size() )) {
+      List<String> fields = split( line );
+      if (fields.size() != header.size()) {
+        continue;
+      }
+
+      // the benchmark name and every parameter identify a result
+      StringBuilder key = new StringBuilder( fields.get( 0 ) );
+      for (int i = unit + 1; i < fields.size(); i++) {
+        key.append( ' ' ).append( header.get( i ) ).append( '=' ).append( fields.get( i ) );
+      }
+
+      scores.put( key.toString(), new Score( fields.get( 0 ), fields.get( mode ),
+          Double.parseDouble( fields.get( score ) ), parseError( fields.get( error ) ), fields.get( unit ) ) );
+    }
+
+    return scores;
+  }
+
+  /**
+   * Returns the half width of the confidence interval, 0 if JMH could not
+   * compute one, e.g. for a single sample.
+   */
+  private static double parseError( String error ) {
+    try {
+      double value = Double.parseDouble( error );
+      return Double.isNaN( value ) ? 0 : value;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static List<String> split( String line ) {
+    List<String> fields = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (char c : line.toCharArray()) {
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == ',' && !quoted) {
+        fields.add( field.toString() );
+        field.setLength( 0 );
+      } else {
+        field.append( c );
+      }
+    }
+    fields.add( field.toString() );
+    return fields;
+  }
+
+  private static class Score {
+
+    private String mBenchmark;
+
+    private String mMode;
+
+    private double mValue;
+
+    private double mError;
+
+    private String mUnit;
+
+    public Score( String benchmark, String mode, double value, double error, String unit ) {
+      mBenchmark = benchmark;
+      mMode = mode;
+      mValue = value;
+      mError = error;
+      mUnit = unit;
+    }
+
+    public double lower() {
+      return mValue - mError;
+    }
+
+    public double upper() {
+      return mValue + mError;
+    }
+
+    private boolean isSecondary() {
+      return mBenchmark.contains( ":" );
+    }
+
+    // of the profiler results only the normalized ones are stable enough to compare
+    public boolean isChecked() {
+      return !isSecondary() || mBenchmark.endsWith( "gc.alloc.rate.norm" ) || mBenchmark.endsWith( "heap.peak" );
+    }
+
+    public boolean isHigherBetter() {
+      return !isSecondary() && "thrpt".equals( mMode );
+    }
+  }
+}
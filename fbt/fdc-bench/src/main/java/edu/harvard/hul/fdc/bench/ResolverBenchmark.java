@@ -0,0 +1,85 @@
+package edu.harvard.hul.fdc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.harvard.hul.fdc.resolver.DiffResolver;
+import edu.harvard.hul.fdc.resolver.FileInfoResolver;
+import edu.harvard.hul.fdc.resolver.IdentificationResolver;
+import edu.harvard.hul.fdc.resolver.MetadataResolver;
+
+/**
+ * Resolves single sections of an already parsed pair.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 3 )
+@State( Scope.Thread )
+public class ResolverBenchmark {
+
+  @Param( { "10", "500" } )
+  public int metadataElements;
+
+  @Param( { "false", "true" } )
+  public boolean changed;
+
+  private Element mSource;
+
+  private Element mCandidate;
+
+  private DiffResolver mIdentification;
+
+  private DiffResolver mFileInfo;
+
+  private DiffResolver mMetadata;
+
+  @Setup( Level.Trial )
+  public void parseDocuments() throws DocumentException {
+    Console.silence();
+    mSource = DocumentHelper.parseText( BenchmarkCorpus.document( 1, false, metadataElements ) ).getRootElement();
+    mCandidate = DocumentHelper.parseText( BenchmarkCorpus.document( 1, changed, metadataElements ) )
+        .getRootElement();
+  }
+
+  @Setup( Level.Iteration )
+  public void createResolvers() {
+    mIdentification = new IdentificationResolver();
+    mFileInfo = new FileInfoResolver();
+    mMetadata = new MetadataResolver();
+  }
+
+  @Benchmark
+  public DiffResolver identification() {
+    mIdentification.resolve( "file1", mSource.element( "identification" ), mCandidate.element( "identification" ) );
+    return mIdentification;
+  }
+
+  @Benchmark
+  public DiffResolver fileInfo() {
+    mFileInfo.resolve( "file1", mSource.element( "fileinfo" ), mCandidate.element( "fileinfo" ) );
+    return mFileInfo;
+  }
+
+  @Benchmark
+  public DiffResolver metadata() {
+    mMetadata.resolve( "file1", mSource.element( "metadata" ), mCandidate.element( "metadata" ) );
+    return mMetadata;
+  }
+}
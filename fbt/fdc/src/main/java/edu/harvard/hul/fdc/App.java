@@ -10,17 +10,17 @@ public class App {
     LogWriter log = new LogWriter();
     Controller controller = new Controller( cli, state, comp, log );
     controller.setInput( args );
-    controller.run();
 
     int exitCode = 1;
 
     try {
 
+      controller.run();
       exitCode = controller.getState().getExitCode();
 
     } catch ( Exception e ) {
 
-      System.err.println( e.getMessage() );
+      e.printStackTrace( log.getErrors() );
       exitCode = ControllerState.SYSTEM_ERROR;
 
     } finally {
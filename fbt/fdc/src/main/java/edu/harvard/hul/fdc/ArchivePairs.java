@@ -0,0 +1,206 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import edu.harvard.hul.fdc.archive.Archive;
+import edu.harvard.hul.fdc.archive.RandomAccessArchive;
+import edu.harvard.hul.fdc.metrics.Metrics;
+
+/**
+ * Reads the matched pairs of a run with an archive on either side. Folders
+ * and zip archives are read by path. A tar archive can only be streamed, so
+ * the pairs come in the order of its entries, and with tar archives on both
+ * sides their streams are merged: an entry waits in memory until the other
+ * side reaches it. Archives written in the same order, e.g. with tar
+ * --sort=name, are merged without holding more than a pair.
+ */
+class ArchivePairs implements Iterator<ReadAhead.Pair> {
+
+  /**
+   * A folder or an archive, the source side has neither for a snapshot.
+   */
+  static class Side {
+
+    private File mFolder;
+
+    private Archive mArchive;
+
+    // the archive if it is read by path
+    private RandomAccessArchive mRandomAccess;
+
+    private Archive.Entries mEntries;
+
+    private Map<String, byte[]> mWaiting;
+
+    private boolean mEnded;
+
+    Side( File folder, Archive archive ) {
+      mFolder = folder;
+      mArchive = archive;
+      mRandomAccess = archive instanceof RandomAccessArchive ? (RandomAccessArchive) archive : null;
+      mWaiting = new HashMap<String, byte[]>();
+    }
+
+    private boolean isStreamed() {
+      return mArchive != null && mRandomAccess == null;
+    }
+
+    private byte[] read( String path ) throws IOException {
+      if (mRandomAccess != null) {
+        return mRandomAccess.read( path );
+      }
+      return mFolder == null ? null : ReadAhead.read( new File( mFolder, path ) );
+    }
+  }
+
+  private Set<String> mRemaining;
+
+  private Iterator<String> mPaths;
+
+  private Side mSource;
+
+  private Side mCandidate;
+
+  private ReadAhead.Pair mNext;
+
+  private boolean mFailed;
+
+  private Metrics.Phase mRead;
+
+  ArchivePairs( Iterable<String> paths, Side source, Side candidate, Metrics metrics ) throws IOException {
+    mSource = source;
+    mCandidate = candidate;
+    mRead = metrics.phase( Metrics.PHASE_READ );
+    if (source.isStreamed() || candidate.isStreamed()) {
+      mRemaining = new LinkedHashSet<String>();
+      for (String path : paths) {
+        mRemaining.add( path );
+      }
+      if (source.isStreamed()) {
+        source.mEntries = source.mArchive.entries();
+      }
+      if (candidate.isStreamed()) {
+        candidate.mEntries = candidate.mArchive.entries();
+      }
+    } else {
+      mPaths = paths.iterator();
+    }
+  }
+
+  public boolean hasNext() {
+    if (mNext == null && !mFailed) {
+      long start = System.nanoTime();
+      mNext = mPaths != null ? readByPath() : readStreamed();
+      mRead.since( start );
+    }
+    return mNext != null;
+  }
+
+  public ReadAhead.Pair next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    ReadAhead.Pair next = mNext;
+    mNext = null;
+    return next;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  public void close() {
+    for (Side side : new Side[] { mSource, mCandidate }) {
+      if (side.mEntries != null) {
+        side.mEntries.close();
+      }
+    }
+  }
+
+  private ReadAhead.Pair readByPath() {
+    if (!mPaths.hasNext()) {
+      return null;
+    }
+
+    String path = mPaths.next();
+    try {
+      return new ReadAhead.Pair( path, mSource.read( path ), mCandidate.read( path ) );
+    } catch (IOException e) {
+      return new ReadAhead.Pair( path, e );
+    }
+  }
+
+  /**
+   * Advances the streamed sides in turns until a pair is complete.
+   */
+  private ReadAhead.Pair readStreamed() {
+    try {
+      while (!mRemaining.isEmpty()) {
+        boolean advanced = false;
+        for (Side side : new Side[] { mSource, mCandidate }) {
+          if (!side.isStreamed() || side.mEnded) {
+            continue;
+          }
+
+          String path = side.mEntries.next();
+          if (path == null) {
+            side.mEnded = true;
+            continue;
+          }
+          advanced = true;
+          if (!mRemaining.contains( path ) || side.mWaiting.containsKey( path )) {
+            // unmatched, or a later duplicate of an entry
+            continue;
+          }
+
+          byte[] data = side.mEntries.read();
+          Side other = side == mSource ? mCandidate : mSource;
+          if (!other.isStreamed()) {
+            return pair( path, side, data, other );
+          } else if (other.mWaiting.containsKey( path )) {
+            return pair( path, side, data, other.mWaiting.remove( path ) );
+          }
+          side.mWaiting.put( path, data );
+        }
+
+        if (!advanced) {
+          // both sides listed the path, so the streams cannot end before it
+          throw new IOException( "An archive changed since it was listed, " + mRemaining.size()
+              + " pair(s) not found" );
+        }
+      }
+      return null;
+
+    } catch (IOException e) {
+      // a stream cannot go on after an error, the run ends with it
+      mFailed = true;
+      String path = mRemaining.isEmpty() ? "" : mRemaining.iterator().next();
+      return new ReadAhead.Pair( path, e );
+    }
+  }
+
+  private ReadAhead.Pair pair( String path, Side side, byte[] data, byte[] other ) {
+    mRemaining.remove( path );
+    return side == mSource ? new ReadAhead.Pair( path, data, other ) : new ReadAhead.Pair( path, other, data );
+  }
+
+  /**
+   * Pairs the streamed entry with the file of the side read by path, only
+   * this pair fails if that cannot be read.
+   */
+  private ReadAhead.Pair pair( String path, Side side, byte[] data, Side other ) {
+    try {
+      return pair( path, side, data, other.read( path ) );
+    } catch (IOException e) {
+      mRemaining.remove( path );
+      return new ReadAhead.Pair( path, e );
+    }
+  }
+}
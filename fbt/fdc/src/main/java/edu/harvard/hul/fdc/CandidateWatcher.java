@@ -0,0 +1,260 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a candidate folder while FITS is still writing to it and hands out
+ * each fits.xml file once it is complete, i.e. its size and modification time
+ * did not change for a while. New files are noticed through a WatchService,
+ * or by listing the folder again if the file system does not support one.
+ * The run is done once the marker file exists, or without a marker, once no
+ * file appeared or changed for the quiet period.
+ */
+public class CandidateWatcher {
+
+  // how long a file has to stay unchanged to be taken as completely written
+  private static final long SETTLE_MILLIS = 2000;
+
+  private static final long POLL_MILLIS = 500;
+
+  private File mFolder;
+
+  private File mMarker;
+
+  private long mQuietPeriod;
+
+  private FitsFileScanner mScanner;
+
+  private WatchService mWatchService;
+
+  private Map<WatchKey, Path> mWatchedFolders;
+
+  private boolean mPolling;
+
+  // path -> size, modification time and the time of the last seen change
+  private Map<String, long[]> mPending;
+
+  private Set<String> mSeen;
+
+  private long mLastActivity;
+
+  private boolean mDone;
+
+  public CandidateWatcher( File folder, File marker, long quietPeriod ) {
+    mFolder = folder;
+    mMarker = marker;
+    mQuietPeriod = quietPeriod;
+    mScanner = new FitsFileScanner();
+    mWatchedFolders = new HashMap<WatchKey, Path>();
+    mPending = new HashMap<String, long[]>();
+    mSeen = new HashSet<String>();
+  }
+
+  /**
+   * Starts watching, falls back to polling if no WatchService is available.
+   */
+  public void start() {
+    mLastActivity = System.currentTimeMillis();
+    try {
+      mWatchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException e) {
+      mPolling = true;
+    } catch (UnsupportedOperationException e) {
+      mPolling = true;
+    }
+  }
+
+  public boolean isPolling() {
+    return mPolling;
+  }
+
+  /**
+   * Blocks until files are complete and returns their relative paths, or
+   * returns null once the run is done. All files that are still pending when
+   * the marker appears are returned as complete.
+   */
+  public List<String> next() throws IOException, InterruptedException {
+    List<String> complete = new ArrayList<String>();
+    while (!mDone) {
+      boolean markerFound = mMarker != null && mMarker.exists();
+      discover( markerFound );
+      check( complete, markerFound );
+
+      long now = System.currentTimeMillis();
+      if (markerFound || (mMarker == null && mPending.isEmpty() && now - mLastActivity >= mQuietPeriod)) {
+        mDone = true;
+      }
+
+      if (!complete.isEmpty()) {
+        return complete;
+      }
+      if (!mDone) {
+        waitForChanges();
+      }
+    }
+    return null;
+  }
+
+  public void close() {
+    if (mWatchService != null) {
+      try {
+        mWatchService.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+    }
+  }
+
+  /**
+   * Finds new files, by the events of the watch service or by listing the
+   * whole folder when polling, after the events overflowed or once the marker
+   * appeared, as events may arrive late.
+   */
+  private void discover( boolean all ) throws IOException {
+    if (!mFolder.isDirectory()) {
+      return;
+    }
+
+    if (mPolling || all) {
+      addAll( mScanner.scan( mFolder ) );
+      return;
+    }
+
+    if (mWatchedFolders.isEmpty()) {
+      // registers before listing, so that no file falls between the two
+      register( mFolder.toPath() );
+      addAll( mScanner.scan( mFolder ) );
+    }
+
+    WatchKey key;
+    while ((key = mWatchService.poll()) != null) {
+      handle( key );
+    }
+  }
+
+  private void handle( WatchKey key ) throws IOException {
+    Path folder = mWatchedFolders.get( key );
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        addAll( mScanner.scan( mFolder ) );
+      } else if (folder != null) {
+        Path path = folder.resolve( (Path) event.context() );
+        if (Files.isDirectory( path )) {
+          // FITS creates the nested folders of a recursive run as it goes
+          register( path );
+          addAll( scan( path ) );
+        } else if (path.getFileName().toString().endsWith( FitsFileScanner.FITS_SUFFIX )) {
+          add( toRelativePath( path ) );
+        }
+      }
+    }
+    if (!key.reset()) {
+      mWatchedFolders.remove( key );
+    }
+  }
+
+  private List<String> scan( Path folder ) throws IOException {
+    List<String> paths = new ArrayList<String>();
+    for (String path : mScanner.scan( folder.toFile() )) {
+      paths.add( toRelativePath( folder.resolve( path ) ) );
+    }
+    return paths;
+  }
+
+  private void register( Path folder ) throws IOException {
+    Files.walkFileTree( folder, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs ) throws IOException {
+        WatchKey key = dir.register( mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY );
+        mWatchedFolders.put( key, dir );
+        return FileVisitResult.CONTINUE;
+      }
+    } );
+  }
+
+  private String toRelativePath( Path path ) {
+    Path relative = mFolder.toPath().relativize( path );
+    StringBuilder builder = new StringBuilder();
+    for (Path segment : relative) {
+      if (builder.length() > 0) {
+        builder.append( '/' );
+      }
+      builder.append( segment.toString() );
+    }
+    return builder.toString();
+  }
+
+  private void addAll( List<String> paths ) {
+    for (String path : paths) {
+      add( path );
+    }
+  }
+
+  private void add( String path ) {
+    if (mSeen.add( path )) {
+      File file = new File( mFolder, path );
+      // a file written before the watch started counts from its own timestamp
+      mPending.put( path, new long[] { file.length(), file.lastModified(), file.lastModified() } );
+      mLastActivity = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Moves the pending files that did not change for a while to the complete
+   * ones, or all of them once the run is done.
+   */
+  private void check( List<String> complete, boolean done ) {
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<String, long[]>> entries = mPending.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<String, long[]> entry = entries.next();
+      File file = new File( mFolder, entry.getKey() );
+      long[] state = entry.getValue();
+      long size = file.length();
+      long modified = file.lastModified();
+      if (size != state[0] || modified != state[1]) {
+        state[0] = size;
+        state[1] = modified;
+        state[2] = now;
+        mLastActivity = now;
+      }
+
+      if (done || (size > 0 && now - state[2] >= SETTLE_MILLIS)) {
+        complete.add( entry.getKey() );
+        entries.remove();
+      }
+    }
+  }
+
+  private void waitForChanges() throws IOException, InterruptedException {
+    if (mPolling || mWatchedFolders.isEmpty()) {
+      Thread.sleep( POLL_MILLIS );
+      return;
+    }
+
+    WatchKey key = mWatchService.poll( POLL_MILLIS, TimeUnit.MILLISECONDS );
+    if (key != null) {
+      handle( key );
+    }
+  }
+}
@@ -0,0 +1,330 @@
+package edu.harvard.hul.fdc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.output.NullWriter;
+import org.dom4j.Element;
+
+import edu.harvard.hul.fdc.cli.CLI;
+import edu.harvard.hul.fdc.metrics.Metrics;
+import edu.harvard.hul.fdc.report.ReportWriter;
+
+/**
+ * Compares the source files with several candidates in one pass. Each source
+ * file is read and parsed once and compared with the file of every candidate
+ * that has it. Each candidate gets its own report and state, the exit code
+ * combines their states.
+ */
+class CandidatesRunner {
+
+  private Controller mController;
+
+  private CLI mCLI;
+
+  private LogWriter mLogger;
+
+  private Metrics mMetrics;
+
+  private List<Candidate> mCandidates;
+
+  CandidatesRunner( Controller controller ) {
+    mController = controller;
+    mCLI = controller.getCLI();
+    mLogger = controller.getLogger();
+    mMetrics = controller.getMetrics();
+  }
+
+  /**
+   * Lists the files of the candidate folders given on the command line.
+   */
+  void list( FitsFileScanner scanner ) throws IOException {
+    mCandidates = new ArrayList<Candidate>();
+    List<String> folders = mCLI.getCandidateFolderPaths();
+    List<String> reportFiles = mCLI.getReportFilePaths();
+    for (int i = 0; i < folders.size(); i++) {
+      Candidate candidate = new Candidate( mCLI.getComparisonKeys().get( i ), new File( folders.get( i ) ),
+          reportFiles.isEmpty() ? null : reportFiles.get( i ) );
+      candidate.mFiles = scanner.scan( candidate.mFolder );
+      mCandidates.add( candidate );
+    }
+  }
+
+  boolean hasEmptyCandidate() {
+    for (Candidate candidate : mCandidates) {
+      if (candidate.mFiles.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void run() {
+    compare( mCandidates );
+    if (mController.isStopped()) {
+      mLogger.submitLog( "Stopped at the first failure, not all files were compared (--fail-fast)" );
+    }
+    for (Candidate candidate : mCandidates) {
+      mController.writeSummary( candidate.mKey, candidate.mReportFile, candidate.mComparator, candidate.mState );
+      candidate.mComparator.close();
+      mLogger.submitLog( "Exit code of " + candidate.mKey + ": " + candidate.mState.getExitCode() );
+      mController.handleState( candidate.mState.getExitCode() );
+    }
+  }
+
+  /**
+   * Compares the folder with the source until the first difference and
+   * returns its exit code, without logging or reporting anything. A folder
+   * without files cannot be compared.
+   */
+  int probe( File folder ) throws IOException {
+    Candidate candidate = listCandidate( folder, null );
+    if (candidate.mFiles.isEmpty()) {
+      return ControllerState.TEST_NOT_EXECUTABLE;
+    }
+
+    candidate.mProbe = true;
+    mController.setStopped( false );
+    compare( Collections.singletonList( candidate ) );
+    try {
+      ReportWriter writer = ReportWriter.create( ReportWriter.FORMAT_TEXT, new NullWriter() );
+      for (Integer status : candidate.mComparator.writeComparisonSummary( writer, !mController.isStopped() )) {
+        candidate.mState.assignState( status );
+      }
+    } finally {
+      candidate.mComparator.close();
+    }
+    return candidate.mState.getExitCode();
+  }
+
+  /**
+   * Compares the folder with the source in full, with the folder name as
+   * its key, and writes its report.
+   */
+  void runFolder( File folder, String reportFile ) throws IOException {
+    Candidate candidate = listCandidate( folder, reportFile );
+    mController.setStopped( false );
+    compare( Collections.singletonList( candidate ) );
+    if (mController.isStopped()) {
+      mLogger.submitLog( "Stopped at the first failure, not all files were compared (--fail-fast)" );
+    }
+    mController.writeSummary( candidate.mKey, candidate.mReportFile, candidate.mComparator, candidate.mState );
+    candidate.mComparator.close();
+    mController.handleState( candidate.mState.getExitCode() );
+  }
+
+  private Candidate listCandidate( File folder, String reportFile ) throws IOException {
+    Candidate candidate = new Candidate( folder.getName(), folder, reportFile );
+    candidate.mFiles = new FitsFileScanner().scan( folder );
+    return candidate;
+  }
+
+  /**
+   * Pairs the source files with the listed files of the candidates and
+   * compares them, leaving the results in the comparator of each candidate.
+   */
+  private void compare( List<Candidate> candidates ) {
+    mCandidates = candidates;
+    FitsXMLComparator[] comparators = new FitsXMLComparator[mCandidates.size()];
+    for (int i = 0; i < comparators.length; i++) {
+      Candidate candidate = mCandidates.get( i );
+      candidate.mLogger = candidate.mProbe ? null : mLogger.forCandidate( candidate.mKey );
+      candidate.mComparator = new FitsXMLComparator();
+      candidate.mComparator.setMetrics( mMetrics );
+      candidate.mComparator.setLogWriter( candidate.mLogger );
+      candidate.mComparator.setMemoryBudget( mCLI.getMemoryBudget() / comparators.length );
+      comparators[i] = candidate.mComparator;
+      pairCandidate( candidate );
+    }
+
+    // the source files with at least one candidate, in the listing order
+    List<String> matchedFiles = new ArrayList<String>();
+    for (String sf : mController.getSourceFiles()) {
+      for (Candidate candidate : mCandidates) {
+        if (candidate.mPaths.contains( sf )) {
+          matchedFiles.add( sf );
+          break;
+        }
+      }
+    }
+
+    if (!shouldStop( comparators )) {
+      if (mCLI.getThreads() > 1) {
+        mController.compareInParallel( matchedFiles.iterator(), comparators,
+            new Controller.Comparison<String>() {
+              public void compare( FitsXMLComparator[] workers, String path ) {
+                compareSource( workers, path );
+                shouldStop( workers );
+              }
+            } );
+      } else {
+        for (String path : matchedFiles) {
+          compareSource( comparators, path );
+          if (shouldStop( comparators )) {
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Pairs the files of the candidate with the source files by their relative
+   * path, the same as the controller does for a single candidate.
+   */
+  private void pairCandidate( Candidate candidate ) {
+    LinkedHashSet<String> candidateFiles = new LinkedHashSet<String>( candidate.mFiles );
+    candidate.mFiles = null;
+    candidate.mPaths = new HashSet<String>();
+    for (String sf : mController.getSourceFiles()) {
+      if (candidateFiles.remove( sf )) {
+        candidate.mPaths.add( sf );
+      } else if (!mController.isSystemFile( sf )) {
+        if (candidate.mLogger != null) {
+          candidate.mLogger.submitEvent( LogWriter.EVENT_MISSING_CANDIDATE, sf, null );
+        }
+        candidate.mState.assignState( ControllerState.FILE_MISSING_CANDIDATE );
+      }
+    }
+
+    for (String cf : candidateFiles) {
+      if (!mController.isSystemFile( cf )) {
+        if (candidate.mLogger != null) {
+          candidate.mLogger.submitEvent( LogWriter.EVENT_MISSING_SOURCE, cf, null );
+        }
+        candidate.mState.assignState( ControllerState.FILE_MISSING_SOURCE );
+      }
+    }
+  }
+
+  /**
+   * Reads the source file once and compares it with the file of each
+   * candidate that has it, with the comparator of that candidate. The
+   * sections of the source are only parsed if a candidate is not resolved by
+   * the fast path.
+   */
+  private void compareSource( FitsXMLComparator[] comparators, String path ) {
+    long start = System.nanoTime();
+    long bytes = 0;
+    try {
+      Snapshot.Entry source;
+      try {
+        long read = System.nanoTime();
+        Snapshot snapshot = mController.getSnapshot();
+        if (snapshot != null) {
+          source = snapshot.get( path );
+          mMetrics.phase( Metrics.PHASE_PARSE ).since( read );
+        } else {
+          byte[] data = ReadAhead.read( new File( mController.getSourceFolder(), path ) );
+          mMetrics.phase( Metrics.PHASE_READ ).since( read );
+          bytes += data.length;
+          source = comparators[0].readSource( data, mCLI.isFastPath() );
+        }
+      } catch (IOException e) {
+        e.printStackTrace( mLogger.getErrors() );
+        for (Candidate candidate : mCandidates) {
+          if (candidate.mPaths.contains( path )) {
+            candidate.mState.assignState( ControllerState.SYSTEM_ERROR );
+          }
+        }
+        return;
+      }
+
+      for (int i = 0; i < comparators.length; i++) {
+        Candidate candidate = mCandidates.get( i );
+        if (candidate.mPaths.contains( path )) {
+          bytes += compareCandidate( comparators[i], candidate, source, path );
+        }
+      }
+    } finally {
+      mMetrics.pair( path, System.nanoTime() - start, bytes );
+    }
+  }
+
+  /**
+   * Compares the file of the candidate with the read source, returns the
+   * bytes read.
+   */
+  private long compareCandidate( FitsXMLComparator comparator, Candidate candidate, Snapshot.Entry source,
+      String path ) {
+    try {
+      long start = System.nanoTime();
+      byte[] data = ReadAhead.read( new File( candidate.mFolder, path ) );
+      mMetrics.phase( Metrics.PHASE_READ ).since( start );
+      if (mCLI.isFastPath() && comparator.resolveIfUnchanged( source, data )) {
+        return data.length;
+      }
+
+      start = System.nanoTime();
+      List<Element> sections = source.getSections();
+      mMetrics.phase( Metrics.PHASE_PARSE ).since( start );
+      if (FitsXMLComparator.ENGINE_DOM4J.equals( mCLI.getEngine() )) {
+        comparator.compareWithSectionsDom4J( path, sections, new ByteArrayInputStream( data ) );
+      } else {
+        comparator.compareWithSections( path, sections, new ByteArrayInputStream( data ) );
+      }
+      return data.length;
+
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      candidate.mState.assignState( ControllerState.SYSTEM_ERROR );
+      return 0;
+    }
+  }
+
+  /**
+   * Stops a fail-fast run with several candidates, or a probe, as soon as one
+   * of them can no longer exit with OK.
+   */
+  private boolean shouldStop( FitsXMLComparator[] comparators ) {
+    for (int i = 0; i < comparators.length; i++) {
+      Candidate candidate = mCandidates.get( i );
+      if ((mCLI.isFailFast() || candidate.mProbe)
+          && (candidate.mState.getExitCode() != ControllerState.OK || comparators[i].hasValueMismatches())) {
+        mController.setStopped( true );
+      }
+    }
+    return mController.isStopped();
+  }
+
+  /**
+   * One of several candidates that are compared against the same source
+   * files, with its own comparator, log events, report and state.
+   */
+  private static class Candidate {
+
+    private String mKey;
+
+    private File mFolder;
+
+    private String mReportFile;
+
+    private List<String> mFiles;
+
+    // the paths that have a source file
+    private Set<String> mPaths;
+
+    private FitsXMLComparator mComparator;
+
+    private LogWriter mLogger;
+
+    private ControllerState mState;
+
+    // only decides whether the candidate differs, stops at the first difference and logs nothing
+    private boolean mProbe;
+
+    private Candidate( String key, File folder, String reportFile ) {
+      mKey = key;
+      mFolder = folder;
+      mReportFile = reportFile;
+      mState = new ControllerState();
+    }
+  }
+}
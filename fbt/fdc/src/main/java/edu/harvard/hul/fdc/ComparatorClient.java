@@ -0,0 +1,70 @@
+package edu.harvard.hul.fdc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Sends the arguments of a run to a {@link ComparatorServer} on the local
+ * machine, with the token the server wrote for its user, and prints its
+ * console output and errors. The run has the same output and exit code as if
+ * it was run in this JVM.
+ */
+public class ComparatorClient {
+
+  private int mPort;
+
+  public ComparatorClient( int port ) {
+    mPort = port;
+  }
+
+  /**
+   * Runs the comparison on the server and returns its exit code.
+   */
+  public int run( String[] args, PrintStream console, PrintStream errors ) throws IOException {
+    byte[] token = ComparatorServer.readToken( mPort );
+    Socket socket = new Socket( InetAddress.getLoopbackAddress(), mPort );
+    try {
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+      out.writeInt( ComparatorServer.MAGIC );
+      out.writeShort( token.length );
+      out.write( token );
+      // relative paths are resolved against the directory of the client
+      out.writeUTF( new File( "" ).getAbsolutePath() );
+      out.writeInt( args.length );
+      for (String arg : args) {
+        out.writeUTF( arg );
+      }
+      out.flush();
+
+      DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+      byte[] buffer = new byte[8192];
+      int marker;
+      while ((marker = in.readInt()) != ComparatorServer.END_OF_OUTPUT) {
+        PrintStream stream = console;
+        int length = marker;
+        if (marker == ComparatorServer.ERROR_OUTPUT) {
+          stream = errors;
+          length = in.readInt();
+        }
+        if (buffer.length < length) {
+          buffer = new byte[length];
+        }
+        in.readFully( buffer, 0, length );
+        stream.write( buffer, 0, length );
+      }
+      console.flush();
+      errors.flush();
+      return in.readInt();
+
+    } finally {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package edu.harvard.hul.fdc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.harvard.hul.fdc.cli.CLI;
+
+/**
+ * Runs comparisons for {@link ComparatorClient}s in a long-running JVM, so
+ * that repeated runs, e.g. the steps of git bisect, neither start a new JVM
+ * nor compare without the warmed up parsers. Listens on a loopback port only,
+ * and only runs requests with the token the server wrote to a file in the
+ * home folder that only its user can read. Each request is run by its own
+ * controller, with the client's arguments and working directory, and its
+ * console output, errors and exit code are sent back.
+ */
+public class ComparatorServer {
+
+  static final int MAGIC = 0x46425452;
+
+  // marks the end of the console output, followed by the exit code
+  static final int END_OF_OUTPUT = -1;
+
+  // marks a chunk of the error output, followed by its length and bytes
+  static final int ERROR_OUTPUT = -2;
+
+  private static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+  private static final int TOKEN_BYTES = 32;
+
+  private static final int WARM_UP_ROUNDS = 200;
+
+  private static final String WARM_UP_FILE = "<fits><identification><identity format=\"Plain text\" "
+      + "mimetype=\"text/plain\"><tool toolname=\"Jhove\" toolversion=\"1.5\"/></identity></identification>"
+      + "<fileinfo><size toolname=\"Jhove\" toolversion=\"1.5\">42</size></fileinfo><metadata><text>"
+      + "<charset toolname=\"Jhove\" toolversion=\"1.5\">US-ASCII</charset></text></metadata></fits>";
+
+  private int mPort;
+
+  private FitsXMLComparator mTemplate;
+
+  private byte[] mToken;
+
+  // the default logs in use, so that concurrent requests do not share one
+  private BitSet mLogSlots;
+
+  public ComparatorServer( int port, FitsXMLComparator template ) {
+    mPort = port;
+    mTemplate = template;
+    mLogSlots = new BitSet();
+  }
+
+  /**
+   * Returns the file the token of the server on the port is kept in.
+   */
+  static File getTokenFile( int port ) {
+    return new File( System.getProperty( "user.home" ), ".fbt-server-" + port + ".token" );
+  }
+
+  /**
+   * Reads the token of the server on the port.
+   */
+  static byte[] readToken( int port ) throws IOException {
+    File file = getTokenFile( port );
+    if (!file.isFile()) {
+      throw new IOException( "No token in " + file.getAbsolutePath() + ", is the server running?" );
+    }
+    return Files.readAllBytes( file.toPath() );
+  }
+
+  /**
+   * Serves requests until the JVM is stopped.
+   */
+  public void serve() throws IOException {
+    warmUp();
+    ServerSocket server = new ServerSocket( mPort, 50, InetAddress.getLoopbackAddress() );
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      mPort = server.getLocalPort();
+      writeToken( getTokenFile( mPort ) );
+      System.out.println( "Comparator server listening on port " + mPort );
+      while (true) {
+        final Socket socket = server.accept();
+        executor.execute( new Runnable() {
+          public void run() {
+            handle( socket );
+          }
+        } );
+      }
+    } finally {
+      executor.shutdown();
+      server.close();
+    }
+  }
+
+  /**
+   * Compares a small pair with both engines, so that the first request does
+   * not run on cold code.
+   */
+  private void warmUp() throws IOException {
+    byte[] file = WARM_UP_FILE.getBytes( ASCII );
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      mTemplate.resolveIfUnchanged( file, file );
+      mTemplate.compareWithStAX( "warm-up", new ByteArrayInputStream( file ), new ByteArrayInputStream( file ) );
+      mTemplate.compareWithDom4J( "warm-up", new ByteArrayInputStream( file ), new ByteArrayInputStream( file ) );
+      mTemplate.clear();
+    }
+  }
+
+  /**
+   * Writes a new random token to the file, readable by the user only.
+   */
+  private void writeToken( File file ) throws IOException {
+    mToken = new byte[TOKEN_BYTES * 2];
+    byte[] random = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes( random );
+    for (int i = 0; i < random.length; i++) {
+      String hex = String.format( "%02x", random[i] & 0xff );
+      mToken[2 * i] = (byte) hex.charAt( 0 );
+      mToken[2 * i + 1] = (byte) hex.charAt( 1 );
+    }
+
+    Path path = file.toPath();
+    Files.deleteIfExists( path );
+    try {
+      Files.createFile( path, PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rw-------" ) ) );
+    } catch (UnsupportedOperationException e) {
+      // not a POSIX file system, restricted as far as it allows
+      Files.createFile( path );
+      file.setReadable( false, false );
+      file.setWritable( false, false );
+      file.setReadable( true, true );
+      file.setWritable( true, true );
+    }
+    Files.write( path, mToken );
+    file.deleteOnExit();
+  }
+
+  private void handle( Socket socket ) {
+    try {
+      DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+      if (in.readInt() != MAGIC) {
+        return;
+      }
+
+      PrintStream console = new PrintStream( new OutputFrames( out, 0 ), true );
+      PrintStream errors = new PrintStream( new OutputFrames( out, ERROR_OUTPUT ), true );
+      byte[] token = new byte[in.readUnsignedShort()];
+      in.readFully( token );
+      int exitCode;
+      if (MessageDigest.isEqual( mToken, token )) {
+        File workingDirectory = new File( in.readUTF() );
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+          args[i] = in.readUTF();
+        }
+        exitCode = run( workingDirectory, args, console, errors );
+      } else {
+        errors.println( "The token does not match the one of the comparator server in "
+            + getTokenFile( mPort ).getAbsolutePath() );
+        exitCode = ControllerState.TEST_NOT_EXECUTABLE;
+      }
+      console.flush();
+      errors.flush();
+
+      out.writeInt( END_OF_OUTPUT );
+      out.writeInt( exitCode );
+      out.flush();
+
+    } catch (IOException e) {
+      // the client is gone, nothing to report to
+      System.err.println( "Lost a client of the comparator server: " + e.getMessage() );
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+    }
+  }
+
+  private int run( File workingDirectory, String[] args, PrintStream console, PrintStream errors ) {
+    CLI cli = new CLI();
+    cli.setClientDirectory( workingDirectory );
+    ControllerState state = new ControllerState();
+    FitsXMLComparator comparator = mTemplate.forkRun();
+    LogWriter log = new LogWriter( console, errors );
+    int slot = acquireLogSlot();
+    log.setLogFile( new File( log.getLogFile().getParentFile(), "server-" + slot + File.separator + "log.txt" ) );
+    Controller controller = new Controller( cli, state, comparator, log );
+    controller.setInput( args );
+    try {
+      controller.run();
+      return controller.getState().getExitCode();
+    } catch (RuntimeException e) {
+      // fails the request, not the server
+      e.printStackTrace( errors );
+      return ControllerState.SYSTEM_ERROR;
+    } finally {
+      comparator.getMetrics().unregister();
+      releaseLogSlot( slot );
+    }
+  }
+
+  /**
+   * Returns the lowest default log no other running request writes to.
+   */
+  private synchronized int acquireLogSlot() {
+    int slot = mLogSlots.nextClearBit( 0 );
+    mLogSlots.set( slot );
+    return slot;
+  }
+
+  private synchronized void releaseLogSlot( int slot ) {
+    mLogSlots.clear( slot );
+  }
+
+  /**
+   * Sends everything written to it as length prefixed chunks, after the
+   * marker of the stream if it has one.
+   */
+  private static class OutputFrames extends OutputStream {
+
+    private DataOutputStream mOut;
+
+    private int mMarker;
+
+    private OutputFrames( DataOutputStream out, int marker ) {
+      mOut = out;
+      mMarker = marker;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      write( new byte[] { (byte) b }, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] buffer, int offset, int length ) throws IOException {
+      if (length > 0) {
+        // both streams of a request share the connection
+        synchronized (mOut) {
+          if (mMarker != 0) {
+            mOut.writeInt( mMarker );
+          }
+          mOut.writeInt( length );
+          mOut.write( buffer, offset, length );
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (mOut) {
+        mOut.flush();
+      }
+    }
+  }
+}
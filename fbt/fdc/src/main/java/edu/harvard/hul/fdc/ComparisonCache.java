@@ -0,0 +1,210 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An on-disk cache of the resolver results of single pairs, keyed by the
+ * content of both files and the comparator version. Entries are written to a
+ * temporary file and moved into place, so several processes can share the
+ * cache folder. The least recently used entries are evicted once the cache
+ * grows beyond its size limit.
+ */
+public class ComparisonCache {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final String ENTRY_SUFFIX = ".bin";
+
+  private Path mFolder;
+
+  private long mMaxBytes;
+
+  public ComparisonCache( File folder, long maxBytes ) throws IOException {
+    mFolder = folder.toPath();
+    mMaxBytes = maxBytes;
+    Files.createDirectories( mFolder );
+  }
+
+  public String key( File source, File candidate, String version ) throws IOException {
+    return key( hash( source ), candidate, version );
+  }
+
+  /**
+   * Returns the key for a source that is only known by its hash, e.g. from a
+   * {@link Snapshot}.
+   */
+  public String key( String sourceHash, File candidate, String version ) throws IOException {
+    return key( sourceHash, hash( candidate ), version );
+  }
+
+  /**
+   * Returns the key for a pair that was already read, the same as for the
+   * files.
+   */
+  public String key( byte[] source, byte[] candidate, String version ) {
+    return key( hash( source ), hash( candidate ), version );
+  }
+
+  public String key( String sourceHash, byte[] candidate, String version ) {
+    return key( sourceHash, hash( candidate ), version );
+  }
+
+  private String key( String sourceHash, String candidateHash, String version ) {
+    MessageDigest digest = newDigest();
+    digest.update( sourceHash.getBytes( UTF8 ) );
+    digest.update( candidateHash.getBytes( UTF8 ) );
+    digest.update( version.getBytes( UTF8 ) );
+    return toHex( digest.digest() );
+  }
+
+  /**
+   * Returns the cached entry or null. A hit marks the entry as recently used.
+   */
+  public byte[] get( String key ) {
+    Path entry = getEntry( key );
+    try {
+      byte[] data = Files.readAllBytes( entry );
+      Files.setLastModifiedTime( entry, FileTime.fromMillis( System.currentTimeMillis() ) );
+      return data;
+    } catch (IOException e) {
+      // missing, or evicted by another process in the meantime
+      return null;
+    }
+  }
+
+  public void put( String key, byte[] data ) throws IOException {
+    Path entry = getEntry( key );
+    Files.createDirectories( entry.getParent() );
+    Path tmp = Files.createTempFile( entry.getParent(), key, ".tmp" );
+    try {
+      Files.write( tmp, data );
+      try {
+        Files.move( tmp, entry, StandardCopyOption.ATOMIC_MOVE );
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move( tmp, entry, StandardCopyOption.REPLACE_EXISTING );
+      }
+    } finally {
+      Files.deleteIfExists( tmp );
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits into its
+   * size limit again.
+   */
+  public void evict() throws IOException {
+    final List<Entry> entries = new ArrayList<Entry>();
+    final long[] total = new long[1];
+
+    Files.walkFileTree( mFolder, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+        if (file.getFileName().toString().endsWith( ENTRY_SUFFIX )) {
+          entries.add( new Entry( file, attrs.size(), attrs.lastModifiedTime() ) );
+          total[0] += attrs.size();
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed( Path file, IOException e ) {
+        return FileVisitResult.CONTINUE;
+      }
+    } );
+
+    if (total[0] <= mMaxBytes) {
+      return;
+    }
+
+    Collections.sort( entries, new Comparator<Entry>() {
+      public int compare( Entry a, Entry b ) {
+        return a.mLastUsed.compareTo( b.mLastUsed );
+      }
+    } );
+
+    long size = total[0];
+    for (Entry entry : entries) {
+      if (size <= mMaxBytes) {
+        break;
+      }
+      try {
+        Files.delete( entry.mPath );
+      } catch (NoSuchFileException e) {
+        // evicted by another process
+      }
+      size -= entry.mSize;
+    }
+  }
+
+  private Path getEntry( String key ) {
+    return mFolder.resolve( key.substring( 0, 2 ) ).resolve( key + ENTRY_SUFFIX );
+  }
+
+  public static String hash( File file ) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream in = Files.newInputStream( file.toPath() );
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read( buffer )) != -1) {
+        digest.update( buffer, 0, read );
+      }
+    } finally {
+      in.close();
+    }
+    return toHex( digest.digest() );
+  }
+
+  public static String hash( byte[] bytes ) {
+    return toHex( newDigest().digest( bytes ) );
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance( "SHA-1" );
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static String toHex( byte[] bytes ) {
+    StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append( String.format( "%02x", b ) );
+    }
+    return builder.toString();
+  }
+
+  private static class Entry {
+
+    private Path mPath;
+
+    private long mSize;
+
+    private FileTime mLastUsed;
+
+    public Entry( Path path, long size, FileTime lastUsed ) {
+      mPath = path;
+      mSize = size;
+      mLastUsed = lastUsed;
+    }
+  }
+}
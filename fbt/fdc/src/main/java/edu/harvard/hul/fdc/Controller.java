@@ -1,19 +1,41 @@
 package edu.harvard.hul.fdc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FilenameFilter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.IOUtils;
 
+import edu.harvard.hul.fdc.archive.Archive;
 import edu.harvard.hul.fdc.cli.CLI;
+import edu.harvard.hul.fdc.metrics.Metrics;
+import edu.harvard.hul.fdc.report.ReportWriter;
 
 public class Controller {
 
@@ -27,11 +49,52 @@ public class Controller {
 
   private String[] mInput;
 
+  private File mSourceFolder;
+
+  private File mCandidateFolder;
+
+  private List<String> mSourceFiles;
+
+  private List<String> mCandidateFiles;
+
+  private ComparisonCache mCache;
+
+  private List<String> mMissingCandidates;
+
+  private List<String> mMissingSources;
+
+  private volatile boolean mStopped;
+
+  private StratifiedSampler mSampler;
+
+  private Snapshot mSnapshot;
+
+  private Archive mSourceArchive;
+
+  private Archive mCandidateArchive;
+
+  private CandidatesRunner mCandidates;
+
+  private Metrics mMetrics;
+
+  /**
+   * Compares an item of the run, e.g. a pair, with the comparators of a
+   * worker, one per candidate.
+   */
+  interface Comparison<T> {
+
+    void compare( FitsXMLComparator[] comparators, T item );
+  }
+
   public Controller( CLI cli, ControllerState state, FitsXMLComparator comp, LogWriter log ) {
     mCLI = cli;
     mState = state;
     mComparator = comp;
     mLogger = log;
+    mComparator.setLogWriter( log );
+    mMetrics = comp.getMetrics();
+    mMissingCandidates = new ArrayList<String>();
+    mMissingSources = new ArrayList<String>();
   }
 
   public void setInput( String... args ) {
@@ -46,11 +109,47 @@ public class Controller {
       return;
     }
 
-    String sfp = mCLI.getSourceFolderPath();
-    String cfp = mCLI.getCandidateFolderPath();
-    String key = mCLI.getComparisonKey();
+    if (mCLI.isServe()) {
+      new ServerRunner( this ).serve();
+      return;
+    } else if (mCLI.isSnapshot()) {
+      new SnapshotRunner( this ).run();
+      return;
+    } else if (mCLI.getServerPort() > 0) {
+      new ServerRunner( this ).runOnServer();
+      return;
+    }
 
-    traverseFiles( sfp, cfp );
+    String key = mCLI.getComparisonKey();
+    File logFile = mCLI.getLogFilePath() == null ? mLogger.getLogFile() : new File( mCLI.getLogFilePath() );
+    mLogger.configure( logFile, mCLI.getLogFormat(), mCLI.getLogMaxSize() );
+    mLogger.start( key );
+    mMetrics.register( key );
+    mComparator.setMemoryBudget( mCLI.getMemoryBudget() );
+
+    if (mCLI.isMerge()) {
+      new MergeRunner( this ).run();
+    } else if (mCLI.isWatch()) {
+      new WatchRunner( this ).run();
+      evictCache();
+    } else if (mCandidates != null) {
+      mCandidates.run();
+    } else if (mCLI.isLocate()) {
+      new LocateRunner( this ).run();
+    } else {
+      traverseFiles();
+      evictCache();
+    }
+    if (mSnapshot != null) {
+      mSnapshot.close();
+    }
+    for (Archive archive : new Archive[] { mSourceArchive, mCandidateArchive }) {
+      if (archive != null) {
+        archive.close();
+      }
+    }
+    mComparator.close();
+    writeMetrics();
     mLogger.flush( key );
   }
 
@@ -58,6 +157,68 @@ public class Controller {
     return mState;
   }
 
+  String[] getInput() {
+    return mInput;
+  }
+
+  CLI getCLI() {
+    return mCLI;
+  }
+
+  FitsXMLComparator getComparator() {
+    return mComparator;
+  }
+
+  LogWriter getLogger() {
+    return mLogger;
+  }
+
+  Metrics getMetrics() {
+    return mMetrics;
+  }
+
+  File getSourceFolder() {
+    return mSourceFolder;
+  }
+
+  File getCandidateFolder() {
+    return mCandidateFolder;
+  }
+
+  /**
+   * Returns the source files of the run, in the listing order.
+   */
+  List<String> getSourceFiles() {
+    return mSourceFiles;
+  }
+
+  /**
+   * Returns the snapshot the source was given as, or null.
+   */
+  Snapshot getSnapshot() {
+    return mSnapshot;
+  }
+
+  void setSnapshot( Snapshot snapshot ) {
+    mSnapshot = snapshot;
+  }
+
+  List<String> getMissingCandidates() {
+    return mMissingCandidates;
+  }
+
+  List<String> getMissingSources() {
+    return mMissingSources;
+  }
+
+  boolean isStopped() {
+    return mStopped;
+  }
+
+  void setStopped( boolean stopped ) {
+    mStopped = stopped;
+  }
+
   private boolean isValidInput() {
 
     if (mInput == null) {
@@ -80,98 +241,623 @@ public class Controller {
       return false;
     }
 
+    if (mCLI.isMerge() || mCLI.isServe() || mCLI.isSnapshot() || mCLI.getServerPort() > 0) {
+      return true;
+    }
+
     boolean valid = true;
-    File sourceFolder = new File( mCLI.getSourceFolderPath() );
-    File candidateFolder = new File( mCLI.getCandidateFolderPath() );
+    mSourceFolder = new File( mCLI.getSourceFolderPath() );
+    // a locate run lists each of its folders once it compares it
+    mCandidateFolder = mCLI.isLocate() ? null : new File( mCLI.getCandidateFolderPath() );
 
-    File[] sourceFiles = sourceFolder.listFiles( new FitsFileFilter() );
-    File[] candidateFiles = candidateFolder.listFiles( new FitsFileFilter() );
+    // the only listing of the folders, traverseFiles() pairs the results
+    FitsFileScanner scanner = new FitsFileScanner();
+    long start = System.nanoTime();
+    try {
+      if (Snapshot.isSnapshot( mSourceFolder )) {
+        // the source files were parsed when the snapshot was created
+        mSnapshot = Snapshot.open( mSourceFolder );
+        mSourceFiles = mSnapshot.getPaths();
+      } else if (Archive.isArchive( mSourceFolder )) {
+        mSourceArchive = Archive.open( mSourceFolder );
+        mSourceFiles = mSourceArchive.getPaths();
+      } else {
+        mSourceFiles = scanner.scan( mSourceFolder );
+      }
+      // a watch run finds the candidate files while FITS writes them
+      if (mCLI.isWatch() || mCLI.isLocate()) {
+        mCandidateFiles = null;
+      } else if (mCLI.isSeveralCandidates()) {
+        mCandidates = new CandidatesRunner( this );
+        mCandidates.list( scanner );
+        mCandidateFiles = null;
+      } else if (Archive.isArchive( mCandidateFolder )) {
+        mCandidateArchive = Archive.open( mCandidateFolder );
+        mCandidateFiles = mCandidateArchive.getPaths();
+      } else {
+        mCandidateFiles = scanner.scan( mCandidateFolder );
+      }
+      // whether an archive of the output folder itself is paired as its content depends on both sides
+      if (mSourceArchive != null) {
+        mSourceArchive.pairWith( mCandidateFiles );
+        mSourceFiles = mSourceArchive.getPaths();
+      }
+      if (mCandidateArchive != null) {
+        mCandidateArchive.pairWith( mSourceFiles );
+        mCandidateFiles = mCandidateArchive.getPaths();
+      }
+      mMetrics.phase( Metrics.PHASE_LIST ).since( start );
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      handleState( ControllerState.SYSTEM_ERROR );
+      return false;
+    }
 
-    if (sourceFiles == null || sourceFiles.length == 0 || candidateFiles == null || candidateFiles.length == 0) {
+    if (mCLI.getCacheFolderPath() != null) {
+      try {
+        mCache = new ComparisonCache( new File( mCLI.getCacheFolderPath() ), mCLI.getCacheSize() );
+      } catch (IOException e) {
+        e.printStackTrace( mLogger.getErrors() );
+        handleState( ControllerState.SYSTEM_ERROR );
+        return false;
+      }
+    }
+
+    if (mSourceFiles.isEmpty() || (mCandidateFiles != null && mCandidateFiles.isEmpty())) {
+      valid = false;
+      handleState( ControllerState.TEST_NOT_EXECUTABLE );
+    }
+    if (mCandidates != null && mCandidates.hasEmptyCandidate()) {
       valid = false;
       handleState( ControllerState.TEST_NOT_EXECUTABLE );
     }
 
+    // a shard may be empty, only the whole corpus has to have files
+    if (valid && mCLI.getShards() > 1) {
+      // a path falls into the same shard on both sides, so pairing within a shard is complete
+      mSourceFiles = selectShard( mSourceFiles );
+      if (mCandidateFiles != null) {
+        mCandidateFiles = selectShard( mCandidateFiles );
+      }
+    }
+
     return valid;
   }
 
+  private List<String> selectShard( List<String> paths ) {
+    List<String> selected = new ArrayList<String>();
+    for (String path : paths) {
+      if (isInShard( path )) {
+        selected.add( path );
+      }
+    }
+    return selected;
+  }
+
+  boolean isInShard( String path ) {
+    return mCLI.getShards() == 1 || PartialResult.shardOf( path, mCLI.getShards() ) == mCLI.getShard();
+  }
+
+  private void evictCache() {
+    if (mCache != null) {
+      try {
+        mCache.evict();
+      } catch (IOException e) {
+        // the results are complete, an oversized cache is not an error
+        e.printStackTrace( mLogger.getErrors() );
+      }
+    }
+  }
+
   private void printHelp() {
     HelpFormatter formatter = new HelpFormatter();
-    formatter.printHelp( "fbt", mCLI.getOptions() );
+    PrintWriter out = new PrintWriter( mLogger.getConsole() );
+    formatter.printHelp( out, formatter.getWidth(), "fbt", null, mCLI.getOptions(), formatter.getLeftPadding(),
+        formatter.getDescPadding(), null );
+    out.flush();
+  }
+
+  private void writeMetrics() {
+    mMetrics.stop();
+    mMetrics.unregister();
+    if (mCLI.getMetricsFilePath() == null) {
+      return;
+    }
+
+    File file = new File( mCLI.getMetricsFilePath() );
+    try {
+      mMetrics.write( file, mCLI.getComparisonKey() );
+      mLogger.submitLog( "Writing metrics to: " + file.getAbsolutePath() );
+    } catch (IOException e) {
+      // the metrics do not change the result of the run
+      e.printStackTrace( mLogger.getErrors() );
+    }
   }
 
-  private void handleState( int state ) {
+  void handleState( int state ) {
     mState.assignState( state );
   }
 
-  private void handleSummary( List<Report> reports ) {
-    for (Report r : reports) {
-      mLogger.submitLog( r.getLog() );
-      handleState( r.getStatus() );
+  private void writePartial() {
+    File file = new File( mCLI.getPartialFilePath() );
+    PartialResult partial = new PartialResult( mCLI.getShard(), mCLI.getShards(), mState.getExitCode() );
+    partial.getMissingCandidates().addAll( mMissingCandidates );
+    partial.getMissingSources().addAll( mMissingSources );
+    try {
+      partial.write( file, mComparator );
+      mLogger.submitLog( "Writing partial result of shard " + mCLI.getShard() + "/" + mCLI.getShards() + " to: "
+          + file.getAbsolutePath() );
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      handleState( ControllerState.SYSTEM_ERROR );
     }
   }
 
-  private void traverseFiles( String sourceFolderPath, String candidateFolderPath ) {
-    FitsFileFilter filter = new FitsFileFilter();
-    File sourceFolder = new File( sourceFolderPath );
-    File candidateFolder = new File( candidateFolderPath );
-    List<File> sourceFiles = new ArrayList<File>( Arrays.asList( sourceFolder.listFiles( filter ) ) );
-    List<File> candidateFiles = new ArrayList<File>( Arrays.asList( candidateFolder.listFiles( filter ) ) );
+  /**
+   * Logs the estimated share of all files with mismatching values per tool,
+   * as seen in the sample.
+   */
+  private void writeEstimates() {
+    Map<String, Set<String>> mismatches = mComparator.getValueMismatches();
+    Map<String, Set<String>> tools = new TreeMap<String, Set<String>>();
+    for (String tool : mComparator.getTools()) {
+      tools.put( String.valueOf( tool ), Collections.<String> emptySet() );
+    }
+    for (String tool : mismatches.keySet()) {
+      tools.put( String.valueOf( tool ), mismatches.get( tool ) );
+    }
 
-    Iterator<File> iter = sourceFiles.iterator();
-    while (iter.hasNext()) {
-      File sf = iter.next();
-      File cf = new File( candidateFolder, sf.getName() );
+    StringBuilder log = new StringBuilder( "Estimated share of files with mismatching values per tool (95% confidence):" );
+    for (String tool : tools.keySet()) {
+      double[] estimate = mSampler.estimate( tools.get( tool ) );
+      log.append( String.format( Locale.ROOT, "\n%s\t%.2f%%\t[%.2f%%, %.2f%%]", tool, estimate[0] * 100,
+          estimate[1] * 100, estimate[2] * 100 ) );
+    }
+    mLogger.submitLog( log.toString() );
+  }
 
-      if (candidateFiles.contains( cf )) {
-        try {
-          String sXML = IOUtils.toString( new FileInputStream( sf ) );
-          String cXML = IOUtils.toString( new FileInputStream( cf ) );
+  void writeSummary() {
+    writeSummary( mCLI.getComparisonKey(), mCLI.getReportFilePath(), mComparator, mState );
+  }
 
-          mComparator.compareWithDom4J( cf.getName(), sXML, cXML );
+  /**
+   * Streams the report to the report file, or to the console and the log file
+   * if there is none, and assigns the status of each section.
+   */
+  void writeSummary( String key, String reportFile, FitsXMLComparator comparator, ControllerState state ) {
+    Writer out = null;
+    long start = System.nanoTime();
+    try {
+      if (reportFile == null) {
+        out = mLogger.getReportWriter();
+      } else {
+        out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( reportFile ), "UTF-8" ) );
+        mLogger.submitLog( "Writing report to: " + new File( reportFile ).getAbsolutePath() );
+      }
 
-        } catch (IOException e) {
-          e.printStackTrace();
-          handleState( ControllerState.SYSTEM_ERROR );
-        }
+      ReportWriter writer = ReportWriter.create( mCLI.getReportFormat(), out );
+      writer.begin( key );
+      List<Integer> statuses = comparator.writeComparisonSummary( writer, !mStopped && mSampler == null );
+      writer.end();
+
+      for (Integer status : statuses) {
+        state.assignState( status );
+      }
 
-        candidateFiles.remove( cf );
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      state.assignState( ControllerState.SYSTEM_ERROR );
+    } finally {
+      IOUtils.closeQuietly( out );
+      mMetrics.phase( Metrics.PHASE_REPORT ).since( start );
+    }
+  }
+
+  /**
+   * Logs the files without a counterpart sorted by path, so that the log does
+   * not depend on the listing order or on how the files were sharded.
+   */
+  void logMissingFiles() {
+    Collections.sort( mMissingCandidates );
+    Collections.sort( mMissingSources );
+    for (String sf : mMissingCandidates) {
+      mLogger.submitEvent( LogWriter.EVENT_MISSING_CANDIDATE, sf, null );
+    }
+    for (String cf : mMissingSources) {
+      mLogger.submitEvent( LogWriter.EVENT_MISSING_SOURCE, cf, null );
+    }
+  }
+
+  private void traverseFiles() {
+    // pairs the files by their relative path, keeping the listing order for the report
+    LinkedHashSet<String> candidateFiles = new LinkedHashSet<String>( mCandidateFiles );
+    List<String> matchedFiles = new ArrayList<String>();
+
+    for (String sf : mSourceFiles) {
+      if (candidateFiles.remove( sf )) {
+        matchedFiles.add( sf );
       } else {
-        if (!isSystemFile( cf.getName() )) {
-          mLogger.submitLog( "Missing candidate file: " + cf.getName() );
+        if (!isSystemFile( sf )) {
+          mMissingCandidates.add( sf );
           handleState( ControllerState.FILE_MISSING_CANDIDATE );
         }
 
       }
+    }
+
+    for (String cf : candidateFiles) {
+      if (!isSystemFile( cf )) {
+        mMissingSources.add( cf );
+        handleState( ControllerState.FILE_MISSING_SOURCE );
+      }
+    }
+    logMissingFiles();
+
+    if (mCLI.getSampleSize() > 0) {
+      int pairs = matchedFiles.size();
+      mSampler = new StratifiedSampler();
+      mSampler.setSnapshot( mSnapshot );
+      matchedFiles = mSampler.sample( mSourceFolder, matchedFiles, mCLI.getSampleSize(), mCLI.getSampleSeed() );
+      mLogger.submitLog( "Comparing a sample of " + matchedFiles.size() + " of " + pairs + " pairs from "
+          + mSampler.getStrata() + " format(s), seed " + mCLI.getSampleSeed() );
+    }
+
+    compareAll( matchedFiles );
+    finishRun();
+  }
+
+  /**
+   * Pairs the paths with the source and candidate and compares them.
+   */
+  void compareAll( Iterable<String> paths ) {
+    if (shouldStop( mComparator )) {
+      // missing files already decide the exit code
+      return;
+    }
+
+    File sourceFolder = mSnapshot == null ? mSourceFolder : null;
+    ArchivePairs archivePairs = null;
+    ReadAhead pairs;
+    if (mSourceArchive == null && mCandidateArchive == null) {
+      pairs = new ReadAhead( paths, sourceFolder, mCandidateFolder, mCLI.getReadAhead(), mCLI.getReadAheadThreads(),
+          mMetrics );
+    } else {
+      try {
+        archivePairs = new ArchivePairs( paths, new ArchivePairs.Side( sourceFolder, mSourceArchive ),
+            new ArchivePairs.Side( mCandidateFolder, mCandidateArchive ), mMetrics );
+      } catch (IOException e) {
+        e.printStackTrace( mLogger.getErrors() );
+        handleState( ControllerState.SYSTEM_ERROR );
+        return;
+      }
+      pairs = new ReadAhead( archivePairs, mCLI.getReadAhead(), mMetrics );
+    }
+    try {
+      if (mCLI.getThreads() > 1) {
+        compareInParallel( pairs, new FitsXMLComparator[] { mComparator }, new Comparison<ReadAhead.Pair>() {
+          public void compare( FitsXMLComparator[] comparators, ReadAhead.Pair pair ) {
+            compareFiles( comparators[0], pair );
+            shouldStop( comparators[0] );
+          }
+        } );
+      } else {
+        while (pairs.hasNext()) {
+          compareFiles( mComparator, pairs.next() );
+          if (shouldStop( mComparator )) {
+            break;
+          }
+        }
+      }
+    } finally {
+      pairs.close();
+      if (archivePairs != null) {
+        archivePairs.close();
+      }
+    }
+  }
+
+  void finishRun() {
+    if (mStopped) {
+      mLogger.submitLog( "Stopped at the first failure, not all files were compared (--fail-fast)" );
+    }
+
+    if (mCLI.getPartialFilePath() != null) {
+      writePartial();
+    } else {
+      writeSummary();
+    }
+
+    if (mSampler != null) {
+      writeEstimates();
+    }
+  }
+
+  /**
+   * Stops a fail-fast run as soon as its exit code can no longer be OK: a
+   * file is missing, an error occurred or a value mismatches.
+   */
+  private boolean shouldStop( FitsXMLComparator comparator ) {
+    if (mCLI.isFailFast() && (mState.getExitCode() != ControllerState.OK || comparator.hasValueMismatches())) {
+      mStopped = true;
+    }
+    return mStopped;
+  }
+
+  private void compareFiles( FitsXMLComparator comparator, ReadAhead.Pair pair ) {
+    long start = System.nanoTime();
+    String path = pair.getPath();
+    File sf = new File( mSourceFolder, path );
+    File cf = new File( mCandidateFolder, path );
+    try {
+      if (mCache == null) {
+        comparePair( comparator, pair, sf, cf );
+      } else {
+        compareCached( comparator, pair, sf, cf );
+      }
+    } finally {
+      long bytes = pair.isRead() ? pair.getSize() : cf.length() + (mSnapshot == null ? sf.length() : 0);
+      mMetrics.pair( path, System.nanoTime() - start, bytes );
+    }
+  }
+
+  /**
+   * Compares the pair into the scratch comparator, or replays its cached
+   * results and log events, and merges them into the comparator.
+   */
+  private void compareCached( FitsXMLComparator comparator, ReadAhead.Pair pair, File sf, File cf ) {
+    Metrics.Phase cache = mMetrics.phase( Metrics.PHASE_CACHE );
+    String path = pair.getPath();
+    LogWriter log = comparator.getLogWriter();
+    LogWriter.Buffer events = log == null ? null : log.buffer();
+    try {
+      long start = System.nanoTime();
+      String key = getCacheKey( pair, sf, cf );
+      FitsXMLComparator scratch = comparator.getScratch();
+      scratch.setLogWriter( events );
+      if (replayCached( scratch, path, key, events )) {
+        cache.since( start );
+        mMetrics.counter( Metrics.COUNTER_CACHE_HITS ).increment();
+      } else {
+        cache.since( start );
+        mMetrics.counter( Metrics.COUNTER_CACHE_MISSES ).increment();
+        scratch.clear();
+        if (comparePair( scratch, pair, sf, cf )) {
+          start = System.nanoTime();
+          mCache.put( key, scratch.exportResults( events ) );
+          cache.add( System.nanoTime() - start );
+        }
+      }
+
+      comparator.merge( scratch );
+
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      handleState( ControllerState.SYSTEM_ERROR );
+    } finally {
+      if (events != null) {
+        events.release();
+      }
+    }
+  }
 
-      iter.remove();
+  private String getCacheKey( ReadAhead.Pair pair, File sf, File cf ) throws IOException {
+    String version = FitsXMLComparator.VERSION + "-" + mCLI.getEngine() + (mCLI.isFastPath() ? "-fast" : "-full");
+    if (mSnapshot != null) {
+      String sourceHash = mSnapshot.getContentHash( pair.getPath() );
+      return pair.isRead() ? mCache.key( sourceHash, pair.getCandidate(), version ) : mCache.key( sourceHash, cf,
+          version );
+    }
+    return pair.isRead() ? mCache.key( pair.getSource(), pair.getCandidate(), version ) : mCache.key( sf, cf,
+        version );
+  }
+
+  private boolean replayCached( FitsXMLComparator scratch, String path, String key, LogWriter.Buffer events ) {
+    byte[] cached = mCache.get( key );
+    if (cached == null) {
+      return false;
+    }
+
+    try {
+      scratch.importResults( path, cached, events );
+      return true;
+    } catch (IOException e) {
+      // a broken entry, compare the pair again and overwrite it
+      return false;
+    }
+  }
 
+  private boolean comparePair( FitsXMLComparator comparator, ReadAhead.Pair pair, File sf, File cf ) {
+    if (mSnapshot != null) {
+      return comparePairWithSnapshot( comparator, pair, cf );
     }
 
-    if (candidateFiles.size() > 0) {
-      for (File f : candidateFiles) {
-        if (!isSystemFile( f.getName() )) {
-          mLogger.submitLog( "Missing source file: " + f.getName() );
-          handleState( ControllerState.FILE_MISSING_SOURCE );
+    String path = pair.getPath();
+    InputStream sIn = null;
+    InputStream cIn = null;
+    try {
+      if (pair.isRead()) {
+        if (mCLI.isFastPath() && comparator.resolveIfUnchanged( pair.getSource(), pair.getCandidate() )) {
+          return true;
+        }
+
+        sIn = new ByteArrayInputStream( pair.getSource() );
+        cIn = new ByteArrayInputStream( pair.getCandidate() );
+      } else {
+        if (mCLI.isFastPath() && comparator.resolveIfUnchanged( sf, cf )) {
+          return true;
         }
+
+        sIn = new BufferedInputStream( new FileInputStream( sf ) );
+        cIn = new BufferedInputStream( new FileInputStream( cf ) );
+      }
+
+      if (FitsXMLComparator.ENGINE_DOM4J.equals( mCLI.getEngine() )) {
+        comparator.compareWithDom4J( path, sIn, cIn );
+      } else {
+        comparator.compareWithStAX( path, sIn, cIn );
       }
+
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      handleState( ControllerState.SYSTEM_ERROR );
+      return false;
+    } finally {
+      IOUtils.closeQuietly( sIn );
+      IOUtils.closeQuietly( cIn );
     }
+  }
+
+  /**
+   * Compares the candidate with the pre-parsed source of the snapshot, with
+   * either engine, so only the candidate is parsed.
+   */
+  private boolean comparePairWithSnapshot( FitsXMLComparator comparator, ReadAhead.Pair pair, File cf ) {
+    String path = pair.getPath();
+    InputStream cIn = null;
+    try {
+      long start = System.nanoTime();
+      Snapshot.Entry source = mSnapshot.get( path );
+      mMetrics.phase( Metrics.PHASE_PARSE ).since( start );
+      if (pair.isRead()) {
+        if (mCLI.isFastPath() && comparator.resolveIfUnchanged( source, pair.getCandidate() )) {
+          return true;
+        }
+        cIn = new ByteArrayInputStream( pair.getCandidate() );
+      } else {
+        if (mCLI.isFastPath() && comparator.resolveIfUnchanged( source, cf )) {
+          return true;
+        }
+        cIn = new BufferedInputStream( new FileInputStream( cf ) );
+      }
 
-    List<Report> summary = mComparator.getComparisonSummary();
-    handleSummary( summary );
+      if (FitsXMLComparator.ENGINE_DOM4J.equals( mCLI.getEngine() )) {
+        comparator.compareWithSectionsDom4J( path, source.getSections(), cIn );
+      } else {
+        comparator.compareWithSections( path, source.getSections(), cIn );
+      }
+      return true;
 
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      handleState( ControllerState.SYSTEM_ERROR );
+      return false;
+    } finally {
+      IOUtils.closeQuietly( cIn );
+    }
   }
 
-  private class FitsFileFilter implements FilenameFilter {
+  /**
+   * Compares the items on the configured executor. Each worker borrows its
+   * own fork of the comparators, so no resolver state is shared between
+   * threads. The forks are merged into the comparators at the end.
+   */
+  <T> void compareInParallel( Iterator<T> items, final FitsXMLComparator[] comparators,
+      final Comparison<T> comparison ) {
+    int threads = mCLI.getThreads();
+    ExecutorService executor = new ExecutorFactory().create( mCLI.getExecutorType(), threads );
+    // bounds the pending tasks and the number of comparators, virtual threads are not pooled
+    final Semaphore permits = new Semaphore( threads );
+    final Queue<FitsXMLComparator[]> idle = new ConcurrentLinkedQueue<FitsXMLComparator[]>();
+    final Queue<FitsXMLComparator[]> workers = new ConcurrentLinkedQueue<FitsXMLComparator[]>();
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    final EventSequence events = new EventSequence();
 
-    public boolean accept( File dir, String name ) {
-      return name.endsWith( "fits.xml" );
+    try {
+      long index = 0;
+      while (items.hasNext()) {
+        final T item = items.next();
+        final long position = index++;
+        permits.acquire();
+        if (mStopped) {
+          permits.release();
+          break;
+        }
+
+        executor.execute( new Runnable() {
+          public void run() {
+            FitsXMLComparator[] worker = idle.poll();
+            if (worker == null) {
+              worker = new FitsXMLComparator[comparators.length];
+              for (int i = 0; i < worker.length; i++) {
+                worker[i] = comparators[i].fork();
+              }
+              workers.add( worker );
+            }
+
+            LogWriter.Buffer[] buffers = new LogWriter.Buffer[worker.length];
+            for (int i = 0; i < worker.length; i++) {
+              LogWriter log = comparators[i].getLogWriter();
+              buffers[i] = log == null ? null : log.buffer();
+              worker[i].setLogWriter( buffers[i] );
+            }
+
+            try {
+              // tasks already submitted when a fail-fast run stops are skipped
+              if (!mStopped) {
+                comparison.compare( worker, item );
+              }
+            } catch (RuntimeException e) {
+              failure.compareAndSet( null, e );
+            } finally {
+              events.complete( position, buffers );
+              idle.add( worker );
+              permits.release();
+            }
+          }
+        } );
+      }
+
+      executor.shutdown();
+      executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      handleState( ControllerState.SYSTEM_ERROR );
+      return;
+    }
+
+    // fail the same way the sequential run does
+    if (failure.get() != null) {
+      throw failure.get();
     }
 
+    for (FitsXMLComparator[] worker : workers) {
+      for (int i = 0; i < worker.length; i++) {
+        comparators[i].merge( worker[i] );
+      }
+    }
+  }
+
+  /**
+   * Logs the events of the items compared in parallel in the order the items
+   * were handed out, the order a sequential run logs them in. The events of
+   * an item wait until all earlier items are done.
+   */
+  private static class EventSequence {
+
+    private long mNext;
+
+    private Map<Long, LogWriter.Buffer[]> mDone = new HashMap<Long, LogWriter.Buffer[]>();
+
+    private synchronized void complete( long position, LogWriter.Buffer[] buffers ) {
+      mDone.put( position, buffers );
+      while ((buffers = mDone.remove( mNext )) != null) {
+        for (LogWriter.Buffer buffer : buffers) {
+          if (buffer != null) {
+            buffer.release();
+          }
+        }
+        mNext++;
+      }
+    }
   }
 
-  private boolean isSystemFile( String name ) {
+  boolean isSystemFile( String path ) {
     boolean systemFile = false;
+    String name = path.substring( path.lastIndexOf( '/' ) + 1 );
     if (name.startsWith( ".DS_Store" )) {
       systemFile = true;
     }
@@ -38,7 +38,7 @@ public class ControllerState {
         CONFLICT_RESOLUTION, CONFLICT_INTRODUCTION, MULTIPLE_PROBLEMS, TEST_NOT_EXECUTABLE };
   }
 
-  public void assignState(int state) {
+  public synchronized void assignState(int state) {
     if (!isValidState(state)) {
       mState = SYSTEM_ERROR;
     } else if (state == SYSTEM_ERROR) {
@@ -51,7 +51,7 @@ public class ControllerState {
 
   }
 
-  public int getExitCode() {
+  public synchronized int getExitCode() {
     return mState;
   }
 
@@ -0,0 +1,71 @@
+package edu.harvard.hul.fdc;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import javax.xml.XMLConstants;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses documents into dom4j trees with one configured SAXReader, instead
+ * of a new parser per document as DocumentHelper.parseText creates. The
+ * documents are parsed from their bytes, so the parser detects their
+ * encoding from the XML declaration. No DTD is loaded, nothing is validated
+ * and external entities are not resolved.
+ * <p>
+ * Not thread-safe, each comparator has its own.
+ */
+public class Dom4JParser {
+
+  private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+  private static final String EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+
+  private static final String EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+
+  private SAXReader mReader;
+
+  public Dom4JParser() {
+    mReader = new SAXReader( false );
+    mReader.setIncludeExternalDTDDeclarations( false );
+    mReader.setIncludeInternalDTDDeclarations( false );
+    // anything that is still referenced resolves to nothing instead of being fetched
+    mReader.setEntityResolver( new EntityResolver() {
+      public InputSource resolveEntity( String publicId, String systemId ) {
+        return new InputSource( new StringReader( "" ) );
+      }
+    } );
+    setFeature( LOAD_EXTERNAL_DTD, false );
+    setFeature( EXTERNAL_GENERAL_ENTITIES, false );
+    setFeature( EXTERNAL_PARAMETER_ENTITIES, false );
+    // bounds the expansion of internal entities
+    setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
+  }
+
+  public Document parse( InputStream in ) throws DocumentException {
+    return mReader.read( in );
+  }
+
+  public Document parse( byte[] bytes ) throws DocumentException {
+    return mReader.read( new ByteArrayInputStream( bytes ) );
+  }
+
+  public Document parse( String text ) throws DocumentException {
+    return mReader.read( new StringReader( text ) );
+  }
+
+  private void setFeature( String name, boolean value ) {
+    try {
+      mReader.setFeature( name, value );
+    } catch (SAXException e) {
+      // not supported by this parser, it is left at its default
+    }
+  }
+}
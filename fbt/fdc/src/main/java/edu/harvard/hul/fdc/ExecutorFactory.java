@@ -0,0 +1,46 @@
+package edu.harvard.hul.fdc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+public class ExecutorFactory {
+
+  public static final String FIXED = "fixed";
+
+  public static final String FORK_JOIN = "forkjoin";
+
+  public static final String VIRTUAL = "virtual";
+
+  public static boolean isValidType( String type ) {
+    return FIXED.equals( type ) || FORK_JOIN.equals( type ) || VIRTUAL.equals( type );
+  }
+
+  public ExecutorService create( String type, int threads ) {
+    if (FORK_JOIN.equals( type )) {
+      return new ForkJoinPool( threads );
+    }
+
+    if (VIRTUAL.equals( type )) {
+      ExecutorService virtual = createVirtual();
+      if (virtual != null) {
+        return virtual;
+      }
+
+      System.err.println( "Virtual threads are not supported by this JVM, falling back to a fixed pool" );
+    }
+
+    return Executors.newFixedThreadPool( threads );
+  }
+
+  // looked up reflectively, virtual threads only exist on Java 21 and later
+  private ExecutorService createVirtual() {
+    try {
+      Method method = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+      return (ExecutorService) method.invoke( null );
+    } catch (Exception e) {
+      return null;
+    }
+  }
+}
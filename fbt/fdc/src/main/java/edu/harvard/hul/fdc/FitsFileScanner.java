@@ -0,0 +1,53 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists the fits.xml files of an output folder, including the nested folders
+ * written by FITS in recursive mode. Files are identified by their path
+ * relative to the folder, always separated by '/', so that the source and
+ * candidate folders can be paired on it.
+ */
+public class FitsFileScanner {
+
+  public static final String FITS_SUFFIX = "fits.xml";
+
+  public List<String> scan( File folder ) throws IOException {
+    final List<String> files = new ArrayList<String>();
+    if (folder == null || !folder.isDirectory()) {
+      return files;
+    }
+
+    final Path root = folder.toPath();
+    Files.walkFileTree( root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+        if (attrs.isRegularFile() && file.getFileName().toString().endsWith( FITS_SUFFIX )) {
+          files.add( toRelativePath( root.relativize( file ) ) );
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    } );
+
+    return files;
+  }
+
+  private String toRelativePath( Path path ) {
+    StringBuilder builder = new StringBuilder();
+    for (Path segment : path) {
+      if (builder.length() > 0) {
+        builder.append( '/' );
+      }
+      builder.append( segment.toString() );
+    }
+    return builder.toString();
+  }
+}
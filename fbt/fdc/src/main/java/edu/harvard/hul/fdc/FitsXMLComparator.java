@@ -1,68 +1,682 @@
 package edu.harvard.hul.fdc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.dom4j.io.STAXEventReader;
 
+import edu.harvard.hul.fdc.metrics.Metrics;
+import edu.harvard.hul.fdc.metrics.Metrics.Phase;
+import edu.harvard.hul.fdc.metrics.TimedInputStream;
+import edu.harvard.hul.fdc.report.ReportWriter;
 import edu.harvard.hul.fdc.resolver.DiffResolver;
+import edu.harvard.hul.fdc.resolver.FileDictionary;
 import edu.harvard.hul.fdc.resolver.FileInfoResolver;
 import edu.harvard.hul.fdc.resolver.IdentificationResolver;
 import edu.harvard.hul.fdc.resolver.MetadataResolver;
+import edu.harvard.hul.fdc.resolver.ToolIndex;
 
 public class FitsXMLComparator {
 
+  public static final String ENGINE_STAX = "stax";
+
+  public static final String ENGINE_DOM4J = "dom4j";
+
+  /**
+   * Identifies the resolver logic and result format for cached results, has to
+   * change whenever either of them changes.
+   */
+  public static final String VERSION = "4";
+
   private Map<String, DiffResolver> mResolvers;
 
+  private XMLInputFactory mInputFactory;
+
+  private STAXEventReader mElementReader;
+
+  private Dom4JParser mDom4JParser;
+
+  private UnchangedOutputCheck mUnchangedCheck;
+
+  private FitsXMLComparator mScratch;
+
+  private LogWriter mLogWriter;
+
+  private FileDictionary mFiles;
+
+  private Metrics mMetrics;
+
+  private Phase mRead;
+
+  private Phase mParse;
+
+  private Phase mLookup;
+
+  private Phase mUnchangedCheckPhase;
+
+  private Map<String, Phase> mResolvePhases;
+
   public FitsXMLComparator() {
+    this( new FileDictionary() );
+  }
+
+  private FitsXMLComparator( FileDictionary files ) {
+    mFiles = files;
     mResolvers = new HashMap<String, DiffResolver>();
     mResolvers.put( "identification", new IdentificationResolver() );
     mResolvers.put( "fileinfo", new FileInfoResolver() );
     mResolvers.put( "metadata", new MetadataResolver() );
+    for (DiffResolver resolver : mResolvers.values()) {
+      resolver.setFileDictionary( files );
+    }
+
+    mInputFactory = XMLInputFactory.newInstance();
+    mInputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    mInputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    mElementReader = new STAXEventReader();
+    mDom4JParser = new Dom4JParser();
+    mUnchangedCheck = new UnchangedOutputCheck();
+    setMetrics( new Metrics() );
+  }
+
+  /**
+   * Sets the metrics the phases of each comparison are timed into.
+   */
+  public void setMetrics( Metrics metrics ) {
+    mMetrics = metrics;
+    mRead = metrics.phase( Metrics.PHASE_READ );
+    mParse = metrics.phase( Metrics.PHASE_PARSE );
+    mLookup = metrics.phase( Metrics.PHASE_LOOKUP );
+    mResolvePhases = new HashMap<String, Phase>();
+    for (String section : new TreeSet<String>( mResolvers.keySet() )) {
+      mResolvePhases.put( section, metrics.phase( Metrics.PHASE_RESOLVE + section ) );
+    }
+    mUnchangedCheckPhase = metrics.phase( Metrics.PHASE_UNCHANGED_CHECK );
+  }
+
+  public Metrics getMetrics() {
+    return mMetrics;
+  }
+
+  /**
+   * Sets the bytes the file names may take up in memory, see
+   * {@link FileDictionary#setMemoryBudget}.
+   */
+  public void setMemoryBudget( long bytes ) {
+    mFiles.setMemoryBudget( bytes );
+  }
+
+  /**
+   * Deletes the temporary files of the run once its report is written.
+   */
+  public void close() {
+    mFiles.close();
+  }
+
+  /**
+   * Sets the writer that the resolvers report the details of single files to,
+   * e.g. mismatching values. Without one the details are not reported.
+   */
+  public void setLogWriter( LogWriter logWriter ) {
+    mLogWriter = logWriter;
+    mFiles.setLogWriter( logWriter );
+    for (DiffResolver resolver : mResolvers.values()) {
+      resolver.setLogWriter( logWriter );
+    }
+    if (mScratch != null) {
+      mScratch.setLogWriter( logWriter );
+    }
+  }
+
+  public LogWriter getLogWriter() {
+    return mLogWriter;
+  }
+
+  private PrintStream getErrors() {
+    return mLogWriter == null ? System.err : mLogWriter.getErrors();
+  }
+
+  public static boolean isValidEngine( String engine ) {
+    return ENGINE_STAX.equals( engine ) || ENGINE_DOM4J.equals( engine );
   }
 
   public void compareWithDom4J( String fileName, String source, String candidate ) {
     try {
-      Document sDoc = DocumentHelper.parseText( source );
-      Document cDoc = DocumentHelper.parseText( candidate );
-
-      Element element = sDoc.getRootElement();
-      List<Element> elements = element.elements();
-      for (Element e : elements) {
-        String nodeName = e.getName();
-        if (nodeName != null) {
-          DiffResolver diffResolver = mResolvers.get( nodeName );
-          if (diffResolver != null) {
-            String xPath = e.getPath();
-            Element candidateNode = (Element) cDoc.selectSingleNode( xPath );
-            diffResolver.resolve( fileName, e, candidateNode );
-          }
+      long start = System.nanoTime();
+      Document sDoc = mDom4JParser.parse( source );
+      Document cDoc = mDom4JParser.parse( candidate );
+      mParse.since( start );
+
+      compareDocuments( fileName, sDoc, cDoc );
+
+    } catch (DocumentException e) {
+      e.printStackTrace( getErrors() );
+    }
+  }
+
+  /**
+   * Same as {@link #compareWithDom4J(String, String, String)}, parsing the
+   * files from their bytes in the encoding they declare.
+   */
+  public void compareWithDom4J( String fileName, InputStream source, InputStream candidate ) {
+    TimedInputStream sIn = new TimedInputStream( source );
+    TimedInputStream cIn = new TimedInputStream( candidate );
+    try {
+      long start = System.nanoTime();
+      Document sDoc = mDom4JParser.parse( sIn );
+      Document cDoc = mDom4JParser.parse( cIn );
+      long read = sIn.getNanos() + cIn.getNanos();
+      mRead.add( read );
+      mParse.add( System.nanoTime() - start - read );
+
+      compareDocuments( fileName, sDoc, cDoc );
+
+    } catch (DocumentException e) {
+      e.printStackTrace( getErrors() );
+    }
+  }
+
+  private void compareDocuments( String fileName, Document sDoc, Document cDoc ) {
+    long start = System.nanoTime();
+    Element element = sDoc.getRootElement();
+    Map<String, Element> candidateSections = getSections( cDoc.getRootElement() );
+    mLookup.since( start );
+    ToolIndex index = new ToolIndex();
+    List<Element> elements = element.elements();
+    for (Element e : elements) {
+      String nodeName = e.getName();
+      if (nodeName != null) {
+        DiffResolver diffResolver = mResolvers.get( nodeName );
+        if (diffResolver != null) {
+          // a missing section is null and resolved as such
+          Element candidateNode = candidateSections.get( nodeName );
+          resolve( fileName, nodeName, diffResolver, e, candidateNode, index );
+        }
+
+      }
+    }
+  }
+
+  private void resolve( String fileName, String section, DiffResolver diffResolver, Element source,
+      Element candidate, ToolIndex index ) {
+    if (candidate == null) {
+      mMetrics.counter( Metrics.COUNTER_MISSING_SECTIONS + section ).increment();
+    }
+
+    long start = System.nanoTime();
+    diffResolver.resolve( fileName, source, candidate, index );
+    mResolvePhases.get( section ).since( start );
+  }
+
+  /**
+   * Returns the first top-level section per name, looked up directly instead
+   * of evaluating an XPath per section.
+   */
+  private Map<String, Element> getSections( Element root ) {
+    Map<String, Element> sections = new HashMap<String, Element>();
+    List<Element> elements = root.elements();
+    for (Element e : elements) {
+      if (!sections.containsKey( e.getName() )) {
+        sections.put( e.getName(), e );
+      }
+    }
+    return sections;
+  }
+
+  /**
+   * Resolves the pair without parsing it into documents if the candidate is
+   * byte identical to the source or only differs in volatile attributes.
+   * Returns false if the pair has to be compared.
+   */
+  public boolean resolveIfUnchanged( File source, File candidate ) throws IOException {
+    long start = System.nanoTime();
+    Map<String, List<String>> tools = mUnchangedCheck.check( source, candidate );
+    mUnchangedCheckPhase.since( start );
+    if (tools == null) {
+      return false;
+    }
+
+    resolveUnchanged( tools );
+    return true;
+  }
+
+  /**
+   * Same as {@link #resolveIfUnchanged(File, File)} for a pair that was read
+   * ahead.
+   */
+  public boolean resolveIfUnchanged( byte[] source, byte[] candidate ) throws IOException {
+    long start = System.nanoTime();
+    Map<String, List<String>> tools = mUnchangedCheck.check( source, candidate );
+    mUnchangedCheckPhase.since( start );
+    if (tools == null) {
+      return false;
+    }
+
+    resolveUnchanged( tools );
+    return true;
+  }
 
+  /**
+   * Same as {@link #resolveIfUnchanged(File, File)} for a source from a
+   * snapshot.
+   */
+  public boolean resolveIfUnchanged( Snapshot.Entry source, File candidate ) throws IOException {
+    long start = System.nanoTime();
+    boolean unchanged = mUnchangedCheck.isUnchanged( source.getDigest(), candidate );
+    mUnchangedCheckPhase.since( start );
+    if (!unchanged) {
+      return false;
+    }
+
+    resolveUnchanged( source.getTools() );
+    return true;
+  }
+
+  public boolean resolveIfUnchanged( Snapshot.Entry source, byte[] candidate ) throws IOException {
+    long start = System.nanoTime();
+    boolean unchanged = mUnchangedCheck.isUnchanged( source.getDigest(), candidate );
+    mUnchangedCheckPhase.since( start );
+    if (!unchanged) {
+      return false;
+    }
+
+    resolveUnchanged( source.getTools() );
+    return true;
+  }
+
+  private void resolveUnchanged( Map<String, List<String>> tools ) {
+    mMetrics.counter( Metrics.COUNTER_UNCHANGED ).increment();
+    for (String section : tools.keySet()) {
+      DiffResolver diffResolver = mResolvers.get( section );
+      if (diffResolver != null) {
+        for (String tool : tools.get( section )) {
+          diffResolver.unchangedTool( tool );
         }
       }
+    }
+  }
+
+  /**
+   * Compares the files section by section while streaming them. Only the
+   * source and candidate section that are currently resolved are held in
+   * memory. Produces the same results as {@link #compareWithDom4J}, which is
+   * kept as the reference: each source section is compared with the first
+   * candidate section of its name.
+   */
+  public void compareWithStAX( String fileName, InputStream source, InputStream candidate ) {
+    TimedInputStream sIn = new TimedInputStream( source );
+    TimedInputStream cIn = new TimedInputStream( candidate );
+    StAXSectionReader sReader = null;
+    StAXSectionReader cReader = null;
+    // the time spent on each side since the mark, the reads are told apart at the end
+    long sNanos = 0;
+    long cNanos = 0;
+    try {
+      long mark = System.nanoTime();
+      sReader = new StAXSectionReader( mInputFactory, mElementReader, sIn );
+      long now = System.nanoTime();
+      sNanos += now - mark;
+      mark = now;
+      cReader = new StAXSectionReader( mInputFactory, mElementReader, cIn, mResolvers.keySet() );
+      now = System.nanoTime();
+      cNanos += now - mark;
+      mark = now;
+
+      ToolIndex index = new ToolIndex();
+      String nodeName;
+      while ((nodeName = sReader.nextSection()) != null) {
+        DiffResolver diffResolver = mResolvers.get( nodeName );
+        if (diffResolver != null) {
+          Element e = sReader.readSection();
+          now = System.nanoTime();
+          sNanos += now - mark;
+          mark = now;
+          Element candidateNode = cReader.findSection( nodeName );
+          cNanos += System.nanoTime() - mark;
+          resolve( fileName, nodeName, diffResolver, e, candidateNode, index );
+          mark = System.nanoTime();
+        } else {
+          sReader.skipSection();
+        }
+      }
+      sNanos += System.nanoTime() - mark;
+
+    } catch (XMLStreamException e) {
+      e.printStackTrace( getErrors() );
+    } finally {
+      close( sReader );
+      close( cReader );
+      mRead.add( sIn.getNanos() + cIn.getNanos() );
+      mParse.add( sNanos - sIn.getNanos() );
+      mLookup.add( cNanos - cIn.getNanos() );
+    }
+  }
+
+  private void close( StAXSectionReader reader ) {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        // nothing to do, the stream is closed by the caller
+      }
+    }
+  }
+
+  /**
+   * Reads the sections of the source that the resolvers compare, in the order
+   * of the file, e.g. to keep them in a snapshot.
+   */
+  public List<Element> readSections( InputStream source ) {
+    List<Element> sections = new ArrayList<Element>();
+    StAXSectionReader sReader = null;
+    try {
+      sReader = new StAXSectionReader( mInputFactory, mElementReader, source );
+      String nodeName;
+      while ((nodeName = sReader.nextSection()) != null) {
+        if (mResolvers.containsKey( nodeName )) {
+          sections.add( sReader.readSection() );
+        } else {
+          sReader.skipSection();
+        }
+      }
+
+    } catch (XMLStreamException e) {
+      // keeps the sections before the error, like a comparison would
+      e.printStackTrace( getErrors() );
+    } finally {
+      close( sReader );
+    }
+    return sections;
+  }
+
+  /**
+   * Turns a source file that was read into an entry like those of a
+   * snapshot, so that it is parsed once for several candidates. Only takes
+   * its canonical digest for the fast path, the sections are parsed once a
+   * candidate needs them.
+   */
+  public Snapshot.Entry readSource( byte[] source, boolean digest ) throws IOException {
+    Map<String, List<String>> tools = new HashMap<String, List<String>>();
+    byte[] sourceDigest = null;
+    if (digest) {
+      long start = System.nanoTime();
+      sourceDigest = mUnchangedCheck.digest( source, tools );
+      mUnchangedCheckPhase.since( start );
+    }
+    return new Snapshot.Entry( source, sourceDigest, tools, this );
+  }
+
+  /**
+   * Compares the already parsed source sections with the candidate, which is
+   * streamed as in {@link #compareWithStAX}.
+   */
+  public void compareWithSections( String fileName, List<Element> sourceSections, InputStream candidate ) {
+    TimedInputStream cIn = new TimedInputStream( candidate );
+    StAXSectionReader cReader = null;
+    long cNanos = 0;
+    try {
+      long start = System.nanoTime();
+      cReader = new StAXSectionReader( mInputFactory, mElementReader, cIn, mResolvers.keySet() );
+      cNanos += System.nanoTime() - start;
+      ToolIndex index = new ToolIndex();
+      for (Element e : sourceSections) {
+        start = System.nanoTime();
+        Element candidateNode = cReader.findSection( e.getName() );
+        cNanos += System.nanoTime() - start;
+        resolve( fileName, e.getName(), mResolvers.get( e.getName() ), e, candidateNode, index );
+      }
+
+    } catch (XMLStreamException e) {
+      e.printStackTrace( getErrors() );
+    } finally {
+      close( cReader );
+      mRead.add( cIn.getNanos() );
+      mLookup.add( cNanos - cIn.getNanos() );
+    }
+  }
+
+  /**
+   * Compares the already parsed source sections with the candidate, which is
+   * parsed into a document as in {@link #compareWithDom4J}.
+   */
+  public void compareWithSectionsDom4J( String fileName, List<Element> sourceSections, InputStream candidate ) {
+    TimedInputStream cIn = new TimedInputStream( candidate );
+    try {
+      long start = System.nanoTime();
+      Document cDoc = mDom4JParser.parse( cIn );
+      mRead.add( cIn.getNanos() );
+      mParse.add( System.nanoTime() - start - cIn.getNanos() );
+
+      start = System.nanoTime();
+      Map<String, Element> candidateSections = getSections( cDoc.getRootElement() );
+      mLookup.since( start );
+      ToolIndex index = new ToolIndex();
+      for (Element e : sourceSections) {
+        resolve( fileName, e.getName(), mResolvers.get( e.getName() ), e, candidateSections.get( e.getName() ), index );
+      }
 
     } catch (DocumentException e) {
-      e.printStackTrace();
+      e.printStackTrace( getErrors() );
     }
   }
 
-  public List<Report> getComparisonSummary() {
+  /**
+   * Creates an empty comparator with the same configuration, so that each
+   * worker thread can resolve files without sharing resolver state.
+   */
+  public FitsXMLComparator fork() {
+    // shares the file ids, so that merging the fork back is cheap
+    FitsXMLComparator comparator = new FitsXMLComparator( mFiles );
+    comparator.setLogWriter( mLogWriter );
+    comparator.setMetrics( mMetrics );
+    return comparator;
+  }
+
+  /**
+   * Creates an empty comparator with the same configuration for a run of its
+   * own, with its own file ids and metrics, e.g. a request to the comparator
+   * server.
+   */
+  public FitsXMLComparator forkRun() {
+    return new FitsXMLComparator( new FileDictionary() );
+  }
+
+  public void merge( FitsXMLComparator comparator ) {
+    for (String k : comparator.mResolvers.keySet()) {
+      DiffResolver resolver = mResolvers.get( k );
+      if (resolver != null) {
+        resolver.merge( comparator.mResolvers.get( k ) );
+      }
+    }
+  }
+
+  /**
+   * Returns an empty comparator that collects the results of a single pair,
+   * so they can be cached before being merged into this one.
+   */
+  public FitsXMLComparator getScratch() {
+    if (mScratch == null) {
+      mScratch = fork();
+    }
+
+    mScratch.clear();
+    return mScratch;
+  }
+
+  public void clear() {
+    for (DiffResolver resolver : mResolvers.values()) {
+      resolver.clear();
+    }
+  }
+
+  /**
+   * Exports the results of a single pair, e.g. of the scratch comparator, to
+   * be cached, together with the events logged while comparing it.
+   */
+  public byte[] exportResults( LogWriter.Buffer events ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+    out.writeInt( mResolvers.size() );
+    for (String k : new TreeSet<String>( mResolvers.keySet() )) {
+      out.writeUTF( k );
+      mResolvers.get( k ).writeContribution( out );
+    }
+    out.writeBoolean( events != null );
+    if (events != null) {
+      events.write( out );
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Imports results exported by {@link #exportResults} and holds their
+   * events in the buffer, if there is one, so that a cached pair logs the
+   * same as a compared one.
+   */
+  public void importResults( String fileName, byte[] data, LogWriter.Buffer events ) throws IOException {
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+    int resolvers = in.readInt();
+    for (int i = 0; i < resolvers; i++) {
+      DiffResolver resolver = mResolvers.get( in.readUTF() );
+      if (resolver == null) {
+        throw new IOException( "Unknown resolver in cached results of " + fileName );
+      }
+      resolver.readContribution( fileName, in );
+    }
+    // results cached without a log writer have no events
+    if (in.readBoolean() && events != null) {
+      events.read( in, fileName );
+    }
+  }
+
+  /**
+   * Writes the results of all resolvers together with the names of the files
+   * they refer to.
+   */
+  public void writeResults( DataOutput out ) throws IOException {
+    int files = mFiles.size();
+    out.writeInt( files );
+    for (int id = 0; id < files; id++) {
+      out.writeUTF( mFiles.name( id ) );
+    }
+
+    out.writeInt( mResolvers.size() );
+    for (String k : new TreeSet<String>( mResolvers.keySet() )) {
+      out.writeUTF( k );
+      mResolvers.get( k ).writeResults( out );
+    }
+  }
+
+  /**
+   * Reads results written by {@link #writeResults} and merges them into the
+   * results of this comparator.
+   */
+  public void readResults( DataInput in ) throws IOException {
+    // the file ids are the positions of the names in a new dictionary
+    FileDictionary files = new FileDictionary();
+    files.setMemoryBudget( mFiles.getMemoryBudget() );
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      files.id( in.readUTF() );
+    }
+
+    FitsXMLComparator results = new FitsXMLComparator( files );
+    int resolvers = in.readInt();
+    for (int i = 0; i < resolvers; i++) {
+      String name = in.readUTF();
+      DiffResolver resolver = results.mResolvers.get( name );
+      if (resolver == null) {
+        throw new IOException( "Unknown resolver in results: " + name );
+      }
+      resolver.readResults( in );
+    }
+
+    merge( results );
+    files.close();
+  }
+
+  public boolean hasValueMismatches() {
+    for (DiffResolver resolver : mResolvers.values()) {
+      if (resolver.hasValueMismatches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the files each tool provided mismatching values in, over all
+   * sections.
+   */
+  public Map<String, Set<String>> getValueMismatches() {
+    Map<String, Set<String>> mismatches = new HashMap<String, Set<String>>();
+    for (DiffResolver resolver : mResolvers.values()) {
+      Map<String, Set<String>> files = resolver.getValueMismatches();
+      for (String tool : files.keySet()) {
+        Set<String> set = mismatches.get( tool );
+        if (set == null) {
+          set = new HashSet<String>();
+          mismatches.put( tool, set );
+        }
+        set.addAll( files.get( tool ) );
+      }
+    }
+    return mismatches;
+  }
+
+  public Set<String> getTools() {
+    Set<String> tools = new HashSet<String>();
+    for (DiffResolver resolver : mResolvers.values()) {
+      tools.addAll( resolver.getTools() );
+    }
+    return tools;
+  }
+
+  public List<Integer> writeComparisonSummary( ReportWriter writer ) throws IOException {
+    return writeComparisonSummary( writer, true );
+  }
+
+  /**
+   * Writes the report over the results of all resolvers and returns the
+   * status of each written section. If not all files were compared, checks
+   * over all files, like tools missing in all candidates, are left out.
+   */
+  public List<Integer> writeComparisonSummary( ReportWriter writer, boolean allFiles ) throws IOException {
     DiffResolver tmp = new DiffResolver() {
       @Override
       public void resolve( Element source, Element candidate ) {
       }
     };
+    tmp.setFileDictionary( mFiles );
 
     for (String k : mResolvers.keySet()) {
       DiffResolver resolver = mResolvers.get( k );
       tmp.merge( resolver );
     }
 
-    return tmp.report();
+    return tmp.report( writer, allFiles );
   }
 
 }
@@ -0,0 +1,105 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.harvard.hul.fdc.cli.CLI;
+import edu.harvard.hul.fdc.metrics.Metrics;
+
+/**
+ * Finds the first of the ordered folders whose output differs from the
+ * source, e.g. the outputs of successive commits, with a binary search. The
+ * source is parsed once into a snapshot that every probe compares against. A
+ * probe stops at its first difference, only the folder found is compared in
+ * full for its report. Folders that cannot be compared are skipped, like git
+ * bisect skips commits.
+ */
+class LocateRunner {
+
+  private Controller mController;
+
+  private CLI mCLI;
+
+  private LogWriter mLogger;
+
+  private CandidatesRunner mCandidates;
+
+  LocateRunner( Controller controller ) {
+    mController = controller;
+    mCLI = controller.getCLI();
+    mLogger = controller.getLogger();
+    mCandidates = new CandidatesRunner( controller );
+  }
+
+  void run() {
+    List<File> folders = new ArrayList<File>();
+    for (String path : mCLI.getLocateFolderPaths()) {
+      folders.add( new File( path ) );
+    }
+    int count = folders.size();
+
+    File temporary = null;
+    try {
+      if (mController.getSnapshot() == null) {
+        long start = System.nanoTime();
+        temporary = File.createTempFile( "fdc-locate", ".snapshot" );
+        Snapshot.write( mController.getSourceFolder(), mController.getSourceFiles(), temporary, mController
+            .getComparator() );
+        mController.setSnapshot( Snapshot.open( temporary ) );
+        mController.getMetrics().phase( Metrics.PHASE_PARSE ).since( start );
+      }
+
+      // the first folder that differs is in [low, high], high if none does
+      int low = 0;
+      int high = folders.size();
+      int probes = 0;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        File folder = folders.get( middle );
+        int exitCode = mCandidates.probe( folder );
+        // e.g. no files, or files that cannot be read, which says nothing about the change
+        if (exitCode == ControllerState.TEST_NOT_EXECUTABLE || exitCode == ControllerState.SYSTEM_ERROR) {
+          mLogger.submitLog( "Skipping " + folder.getPath() + ", it cannot be compared" );
+          folders.remove( middle );
+          high--;
+          continue;
+        }
+        probes++;
+
+        mLogger.submitLog( "Compared " + folder.getPath() + ": " + (exitCode == ControllerState.OK ? "same as the source"
+            : "differs, exit code " + exitCode) );
+        if (exitCode == ControllerState.OK) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+
+      mLogger.submitLog( "Located in " + probes + " comparison(s) of " + count + " folder(s)" );
+      if (low == folders.size()) {
+        mLogger.submitLog( "No folder differs from the source" );
+        mController.handleState( folders.isEmpty() ? ControllerState.TEST_NOT_EXECUTABLE : ControllerState.OK );
+        return;
+      }
+
+      File found = folders.get( low );
+      mLogger.submitLog( "First folder that differs from the source: " + found.getPath()
+          + (low == 0 ? "" : ", after " + folders.get( low - 1 ).getPath()) );
+      mCandidates.runFolder( found, mCLI.getReportFilePath() );
+
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      mController.handleState( ControllerState.SYSTEM_ERROR );
+    } finally {
+      if (temporary != null) {
+        if (mController.getSnapshot() != null) {
+          mController.getSnapshot().close();
+          mController.setSnapshot( null );
+        }
+        temporary.delete();
+      }
+    }
+  }
+}
@@ -1,52 +1,515 @@
 package edu.harvard.hul.fdc;
 
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-import org.apache.commons.io.FileUtils;
+import edu.harvard.hul.fdc.report.JSONReportWriter;
 
+/**
+ * Writes the events of a run to the console and to a log file as they
+ * happen. Events are handed to a single writer thread through a bounded
+ * queue, so the comparing threads never wait for the console or the disk,
+ * unless the writer falls so far behind that the queue is full. The log file
+ * is either plain text or one JSON object per line and is rotated once it
+ * exceeds its maximum size.
+ */
 public class LogWriter {
 
-  private List<String> mLogs;
+  public static final String FORMAT_TEXT = "text";
+
+  public static final String FORMAT_NDJSON = "ndjson";
+
+  public static final String EVENT_START = "start";
+
+  public static final String EVENT_LOG = "log";
+
+  public static final String EVENT_MISMATCH = "mismatch";
+
+  public static final String EVENT_MISSING_CANDIDATE = "missing-candidate";
+
+  public static final String EVENT_MISSING_SOURCE = "missing-source";
+
+  public static final String EVENT_REPORT = "report";
+
+  private static final int QUEUE_SIZE = 8192;
+
+  private static final int ROTATED_FILES = 5;
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final Event END = new Event( null, null, null );
+
+  private static class Event {
+
+    private String mType;
+
+    private String mFile;
+
+    private String mMessage;
+
+    private long mTime;
+
+    private Event( String type, String file, String message ) {
+      mType = type;
+      mFile = file;
+      mMessage = message;
+      mTime = System.currentTimeMillis();
+    }
+  }
+
+  private File mLogFile;
+
+  private String mFormat;
+
+  private long mMaxSize;
+
+  private BlockingQueue<Event> mQueue;
+
+  private volatile Thread mWriterThread;
+
+  private Writer mFileWriter;
+
+  private long mFileSize;
+
+  private PrintStream mConsoleStream;
+
+  private PrintStream mErrors;
+
+  private Writer mConsole;
+
+  private SimpleDateFormat mTimeFormat;
 
   public LogWriter() {
-    mLogs = new ArrayList<String>();
+    this( System.out );
+  }
+
+  /**
+   * Creates a writer that writes to the given console instead of the standard
+   * output, and its errors to the standard error.
+   */
+  public LogWriter( PrintStream console ) {
+    this( console, System.err );
+  }
+
+  /**
+   * Creates a writer that writes to the given console and errors instead of
+   * the standard output and error, e.g. the connection to a client of the
+   * comparator server.
+   */
+  public LogWriter( PrintStream console, PrintStream errors ) {
+    mConsoleStream = console;
+    mErrors = errors;
+    mLogFile = new File( System.getProperty( "java.io.tmpdir" ) + File.separator + "/bbt-logs/log.txt" );
+    mFormat = FORMAT_TEXT;
+    mMaxSize = 100L * 1024 * 1024;
+    mQueue = new ArrayBlockingQueue<Event>( QUEUE_SIZE );
+    mTimeFormat = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+    mTimeFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
   }
 
-  public void submitLog(String log) {
-    mLogs.add( log );
+  /**
+   * Creates a writer that hands its events on to the given one, so it has
+   * no queue or writer thread of its own.
+   */
+  private LogWriter( LogWriter target ) {
+    mConsoleStream = target.mConsoleStream;
+    mErrors = target.mErrors;
+    mLogFile = target.mLogFile;
+    mFormat = target.mFormat;
   }
 
+  public static boolean isValidFormat( String format ) {
+    return FORMAT_TEXT.equals( format ) || FORMAT_NDJSON.equals( format );
+  }
+
+  /**
+   * Sets the log file, its format and the size in bytes after which it is
+   * rotated, 0 never rotates. Has to be called before the writer is started.
+   */
+  public void configure( File logFile, String format, long maxSize ) {
+    mLogFile = logFile;
+    mFormat = format;
+    mMaxSize = maxSize;
+  }
+
+  public PrintStream getConsole() {
+    return mConsoleStream;
+  }
+
+  /**
+   * Returns the stream errors of the run, like stack traces, are printed to.
+   */
+  public PrintStream getErrors() {
+    return mErrors;
+  }
+
+  public File getLogFile() {
+    return mLogFile;
+  }
+
+  /**
+   * Sets the log file of runs that do not name one.
+   */
+  public void setLogFile( File logFile ) {
+    mLogFile = logFile;
+  }
+
+  /**
+   * Starts the writer thread and writes the header of the run.
+   */
+  public void start( String key ) {
+    startWriter();
+    submit( new Event( EVENT_START, null, key ) );
+  }
+
+  public void submitLog( String log ) {
+    submitEvent( EVENT_LOG, null, log );
+  }
+
+  /**
+   * Submits an event about a single file, e.g. a mismatching value.
+   */
+  public void submitEvent( String type, String file, String message ) {
+    startWriter();
+    submit( new Event( type, file, message ) );
+  }
+
+  /**
+   * Returns a writer for the events of one candidate of a run with several,
+   * which submits them to this one with the key of the candidate before the
+   * file.
+   */
+  public LogWriter forCandidate( final String key ) {
+    return new LogWriter( this ) {
+      @Override
+      public void submitEvent( String type, String file, String message ) {
+        LogWriter.this.submitEvent( type, file == null ? null : "[" + key + "] " + file, message );
+      }
+    };
+  }
+
+  /**
+   * Returns a writer that holds the events submitted to it until they are
+   * released to this one, e.g. so that the events of pairs compared in
+   * parallel are logged in the order of a sequential run.
+   */
+  public Buffer buffer() {
+    return new Buffer( this );
+  }
+
+  /**
+   * Holds the events of a single pair, see {@link LogWriter#buffer()}.
+   */
+  public static class Buffer extends LogWriter {
+
+    private LogWriter mTarget;
+
+    private List<Event> mEvents;
+
+    private Buffer( LogWriter target ) {
+      super( target );
+      mTarget = target;
+      mEvents = new ArrayList<Event>();
+    }
+
+    @Override
+    public void submitEvent( String type, String file, String message ) {
+      mEvents.add( new Event( type, file, message ) );
+    }
+
+    /**
+     * Submits the held events to the writer the buffer was created by.
+     */
+    public void release() {
+      for (Event event : mEvents) {
+        mTarget.submitEvent( event.mType, event.mFile, event.mMessage );
+      }
+      mEvents.clear();
+    }
+
+    /**
+     * Writes the held events of a pair, e.g. to cache them with its results.
+     * Only whether an event has a file is written, the file is the path of
+     * the pair when the events are read.
+     */
+    public void write( DataOutput out ) throws IOException {
+      out.writeInt( mEvents.size() );
+      for (Event event : mEvents) {
+        out.writeUTF( event.mType );
+        out.writeBoolean( event.mFile != null );
+        writeString( out, event.mMessage );
+      }
+    }
+
+    /**
+     * Reads the events written by {@link #write} and holds them, each with
+     * the path as its file. Holds none of them if they cannot be read.
+     */
+    public void read( DataInput in, String path ) throws IOException {
+      int count = in.readInt();
+      List<Event> events = new ArrayList<Event>();
+      for (int i = 0; i < count; i++) {
+        String type = in.readUTF();
+        String file = in.readBoolean() ? path : null;
+        events.add( new Event( type, file, readString( in ) ) );
+      }
+      mEvents.addAll( events );
+    }
+
+    // messages like the XML of a mismatching element may exceed writeUTF
+    private static void writeString( DataOutput out, String value ) throws IOException {
+      if (value == null) {
+        out.writeInt( -1 );
+        return;
+      }
+      byte[] bytes = value.getBytes( UTF8 );
+      out.writeInt( bytes.length );
+      out.write( bytes );
+    }
+
+    private static String readString( DataInput in ) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      in.readFully( bytes );
+      return new String( bytes, UTF8 );
+    }
+  }
+
+  /**
+   * Returns a writer that submits each line written to it as a report event,
+   * so that a report can be streamed to the console and the log file. Lines
+   * are submitted once they are complete or the writer is flushed.
+   */
+  public Writer getReportWriter() {
+    return new Writer() {
+
+      private StringBuilder mLine = new StringBuilder();
+
+      @Override
+      public void write( char[] buffer, int offset, int length ) {
+        for (int i = offset; i < offset + length; i++) {
+          if (buffer[i] == '\n') {
+            submitEvent( EVENT_REPORT, null, mLine.toString() );
+            mLine.setLength( 0 );
+          } else {
+            mLine.append( buffer[i] );
+          }
+        }
+      }
+
+      @Override
+      public void flush() {
+        if (mLine.length() > 0) {
+          submitEvent( EVENT_REPORT, null, mLine.toString() );
+          mLine.setLength( 0 );
+        }
+      }
+
+      @Override
+      public void close() {
+        flush();
+      }
+    };
+  }
+
+  /**
+   * Writes all pending events and stops the writer thread.
+   */
   public void flush( String key ) {
-    // TODO pick up file and write.
-    StringBuffer buffer = new StringBuffer();
-    newLine( buffer, "###" );
-    newLine( buffer, "Comparing Base with " + key + " at " + new Date() );
-    newLine( buffer, "");
-    
-    for (String log : mLogs) {
-     newLine( buffer, log );
-    }
-    
-    System.out.println( buffer.toString() );
-    write(buffer);
-    mLogs.clear();
-  }
-  
-  private void write(StringBuffer buffer) {
-    File logFile = new File(System.getProperty( "java.io.tmpdir" ) + File.separator + "/bbt-logs/log.txt");
-    System.out.println("Writing logs to: " + logFile.getAbsolutePath());
-    try {
-      FileUtils.writeStringToFile(logFile, buffer.toString(), true);
+    if (mWriterThread == null) {
+      start( key );
+    }
+
+    submit( END );
+    try {
+      mWriterThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mWriterThread = null;
+    mConsoleStream.println();
+    mConsoleStream.println( "Writing logs to: " + mLogFile.getAbsolutePath() );
+    mConsoleStream.flush();
+  }
+
+  private synchronized void startWriter() {
+    if (mWriterThread != null) {
+      return;
+    }
+
+    mWriterThread = new Thread( new Runnable() {
+      public void run() {
+        writeEvents();
+      }
+    }, "fdc-log-writer" );
+    mWriterThread.setDaemon( true );
+    mWriterThread.start();
+  }
+
+  private void submit( Event event ) {
+    try {
+      mQueue.put( event );
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeEvents() {
+    mConsole = new BufferedWriter( new OutputStreamWriter( mConsoleStream ) );
+    try {
+      openLogFile();
     } catch (IOException e) {
-      e.printStackTrace();
+      e.printStackTrace( mErrors );
+    }
+
+    try {
+      Event event;
+      while ((event = mQueue.take()) != END) {
+        write( event );
+        if (mQueue.isEmpty()) {
+          flushWriters();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      flushWriters();
+      closeLogFile();
     }
   }
 
-  private void newLine( StringBuffer buffer, String line ) {
-    buffer.append( line + "\n" );
+  private void write( Event event ) {
+    String text = toText( event );
+    try {
+      mConsole.write( text );
+    } catch (IOException e) {
+      // the console is gone, keep writing the log file
+    }
+
+    if (mFileWriter == null) {
+      return;
+    }
+
+    String line = FORMAT_NDJSON.equals( mFormat ) ? toJSON( event ) : text;
+    try {
+      long size = line.getBytes( UTF8 ).length;
+      if (mMaxSize > 0 && mFileSize > 0 && mFileSize + size > mMaxSize) {
+        rotate();
+      }
+      mFileWriter.write( line );
+      mFileSize += size;
+    } catch (IOException e) {
+      e.printStackTrace( mErrors );
+      closeLogFile();
+    }
+  }
+
+  private String toText( Event event ) {
+    if (EVENT_START.equals( event.mType )) {
+      return "###\nComparing Base with " + event.mMessage + " at " + new Date( event.mTime ) + "\n\n";
+    } else if (EVENT_MISMATCH.equals( event.mType )) {
+      return event.mFile + ": " + event.mMessage + "\n";
+    } else if (EVENT_MISSING_CANDIDATE.equals( event.mType )) {
+      return "Missing candidate file: " + event.mFile + "\n";
+    } else if (EVENT_MISSING_SOURCE.equals( event.mType )) {
+      return "Missing source file: " + event.mFile + "\n";
+    }
+    return event.mMessage + "\n";
+  }
+
+  private String toJSON( Event event ) {
+    StringBuilder json = new StringBuilder();
+    json.append( "{\"time\":\"" ).append( mTimeFormat.format( new Date( event.mTime ) ) ).append( '"' );
+    json.append( ",\"type\":\"" ).append( event.mType ).append( '"' );
+    if (event.mFile != null) {
+      json.append( ",\"file\":" );
+      appendJSONString( json, event.mFile );
+    }
+    if (event.mMessage != null) {
+      json.append( EVENT_START.equals( event.mType ) ? ",\"key\":" : ",\"message\":" );
+      appendJSONString( json, event.mMessage );
+    }
+    return json.append( "}\n" ).toString();
+  }
+
+  private void appendJSONString( StringBuilder json, String value ) {
+    try {
+      JSONReportWriter.quote( json, value );
+    } catch (IOException e) {
+      // a StringBuilder does not throw
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private void openLogFile() throws IOException {
+    File folder = mLogFile.getAbsoluteFile().getParentFile();
+    if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+      throw new IOException( "Could not create the log folder " + folder );
+    }
+    // appends to the log of earlier runs, as before
+    mFileSize = mLogFile.length();
+    mFileWriter = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( mLogFile, true ), UTF8 ) );
+  }
+
+  /**
+   * Moves log.txt to log.txt.1, log.txt.1 to log.txt.2 and so on, dropping
+   * the oldest file, and starts a new log file.
+   */
+  private void rotate() throws IOException {
+    closeLogFile();
+    new File( mLogFile.getPath() + "." + ROTATED_FILES ).delete();
+    for (int i = ROTATED_FILES - 1; i > 0; i--) {
+      File rotated = new File( mLogFile.getPath() + "." + i );
+      if (rotated.exists()) {
+        rotated.renameTo( new File( mLogFile.getPath() + "." + (i + 1) ) );
+      }
+    }
+    mLogFile.renameTo( new File( mLogFile.getPath() + ".1" ) );
+    openLogFile();
+  }
+
+  private void flushWriters() {
+    try {
+      mConsole.flush();
+    } catch (IOException e) {
+      // nothing to do
+    }
+
+    if (mFileWriter != null) {
+      try {
+        mFileWriter.flush();
+      } catch (IOException e) {
+        e.printStackTrace( mErrors );
+      }
+    }
+  }
+
+  private void closeLogFile() {
+    if (mFileWriter != null) {
+      try {
+        mFileWriter.close();
+      } catch (IOException e) {
+        e.printStackTrace( mErrors );
+      }
+      mFileWriter = null;
+    }
   }
 }
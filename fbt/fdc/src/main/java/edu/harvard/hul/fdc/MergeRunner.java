@@ -0,0 +1,64 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.harvard.hul.fdc.cli.CLI;
+
+/**
+ * Merges the partial results of all shards and reports them as if all files
+ * had been compared by a single run. Every shard has to be given exactly once.
+ */
+class MergeRunner {
+
+  private Controller mController;
+
+  private CLI mCLI;
+
+  private LogWriter mLogger;
+
+  MergeRunner( Controller controller ) {
+    mController = controller;
+    mCLI = controller.getCLI();
+    mLogger = controller.getLogger();
+  }
+
+  void run() {
+    int shards = 0;
+    Set<Integer> merged = new HashSet<Integer>();
+    for (String path : mCLI.getPartialFilePaths()) {
+      PartialResult partial;
+      try {
+        partial = PartialResult.read( new File( path ), mController.getComparator() );
+      } catch (IOException e) {
+        e.printStackTrace( mLogger.getErrors() );
+        mController.handleState( ControllerState.SYSTEM_ERROR );
+        return;
+      }
+
+      if (shards == 0) {
+        shards = partial.getShards();
+      }
+      if (partial.getShards() != shards || !merged.add( partial.getShard() )) {
+        mLogger.submitLog( "Partial result does not fit the other shards: " + path );
+        mController.handleState( ControllerState.SYSTEM_ERROR );
+        return;
+      }
+      mController.getMissingCandidates().addAll( partial.getMissingCandidates() );
+      mController.getMissingSources().addAll( partial.getMissingSources() );
+      mController.handleState( partial.getState() );
+    }
+    mController.logMissingFiles();
+
+    for (int shard = 1; shard <= shards; shard++) {
+      if (!merged.contains( shard )) {
+        mLogger.submitLog( "Missing partial result of shard " + shard + "/" + shards );
+        mController.handleState( ControllerState.SYSTEM_ERROR );
+      }
+    }
+
+    mController.writeSummary();
+  }
+}
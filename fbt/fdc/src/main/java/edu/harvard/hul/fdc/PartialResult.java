@@ -0,0 +1,134 @@
+package edu.harvard.hul.fdc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The results of one shard of a run: which shard it was, the state the run
+ * ended in before the report, its missing files and the results of the
+ * resolvers. Partial results of all shards merged together give the same
+ * report and exit code as a single run over all files.
+ */
+public class PartialResult {
+
+  private static final int MAGIC = 0x46425450;
+
+  private static final int FORMAT_VERSION = 1;
+
+  private int mShard;
+
+  private int mShards;
+
+  private int mState;
+
+  private List<String> mMissingCandidates;
+
+  private List<String> mMissingSources;
+
+  public PartialResult( int shard, int shards, int state ) {
+    mShard = shard;
+    mShards = shards;
+    mState = state;
+    mMissingCandidates = new ArrayList<String>();
+    mMissingSources = new ArrayList<String>();
+  }
+
+  /**
+   * Returns the shard, from 1 to shards, that the relative path belongs to.
+   * The hash only depends on the path, so every run and machine agrees on it.
+   */
+  public static int shardOf( String path, int shards ) {
+    CRC32 crc = new CRC32();
+    crc.update( path.getBytes( Charset.forName( "UTF-8" ) ) );
+    return (int) (crc.getValue() % shards) + 1;
+  }
+
+  public void write( File file, FitsXMLComparator comparator ) throws IOException {
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( FORMAT_VERSION );
+      out.writeUTF( FitsXMLComparator.VERSION );
+      out.writeInt( mShard );
+      out.writeInt( mShards );
+      out.writeInt( mState );
+      writePaths( out, mMissingCandidates );
+      writePaths( out, mMissingSources );
+      comparator.writeResults( out );
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the partial result and merges its resolver results into the
+   * comparator.
+   */
+  public static PartialResult read( File file, FitsXMLComparator comparator ) throws IOException {
+    DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException( "Not a partial result: " + file );
+      }
+      if (!FitsXMLComparator.VERSION.equals( in.readUTF() )) {
+        throw new IOException( "Partial result of another comparator version: " + file );
+      }
+
+      PartialResult result = new PartialResult( in.readInt(), in.readInt(), in.readInt() );
+      readPaths( in, result.mMissingCandidates );
+      readPaths( in, result.mMissingSources );
+      comparator.readResults( in );
+      return result;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void writePaths( DataOutputStream out, List<String> paths ) throws IOException {
+    out.writeInt( paths.size() );
+    for (String path : paths) {
+      out.writeUTF( path );
+    }
+  }
+
+  private static void readPaths( DataInputStream in, List<String> paths ) throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      paths.add( in.readUTF() );
+    }
+  }
+
+  /**
+   * The files of the shard that have no candidate, reported again when the
+   * shards are merged.
+   */
+  public List<String> getMissingCandidates() {
+    return mMissingCandidates;
+  }
+
+  public List<String> getMissingSources() {
+    return mMissingSources;
+  }
+
+  public int getShard() {
+    return mShard;
+  }
+
+  public int getShards() {
+    return mShards;
+  }
+
+  public int getState() {
+    return mState;
+  }
+}
@@ -0,0 +1,332 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.harvard.hul.fdc.metrics.Metrics;
+
+/**
+ * Reads the pairs to compare ahead of the comparison, so that slow storage,
+ * e.g. a network mount, is read while the comparator parses. A feeder thread
+ * walks the paths and hands them to a pool of readers, at most depth pairs
+ * are read ahead of the one being compared. The pairs come out in the order
+ * of the paths.
+ * <p>
+ * With a depth of 0 nothing is read ahead, the pairs only carry their path
+ * and the comparison reads the files itself.
+ * <p>
+ * Pairs that are read by an iterator of their own, like those of archives,
+ * are taken from it by the feeder thread instead.
+ */
+public class ReadAhead implements Iterator<ReadAhead.Pair> {
+
+  /**
+   * A pair to compare, with its files read if it was read ahead. The source
+   * is not read if it comes from a snapshot.
+   */
+  public static class Pair {
+
+    private String mPath;
+
+    private byte[] mSource;
+
+    private byte[] mCandidate;
+
+    private IOException mError;
+
+    private Pair( String path ) {
+      mPath = path;
+    }
+
+    Pair( String path, byte[] source, byte[] candidate ) {
+      mPath = path;
+      mSource = source;
+      mCandidate = candidate;
+    }
+
+    Pair( String path, IOException error ) {
+      mPath = path;
+      mError = error;
+    }
+
+    public String getPath() {
+      return mPath;
+    }
+
+    public boolean isRead() {
+      return mCandidate != null || mError != null;
+    }
+
+    public byte[] getSource() throws IOException {
+      if (mError != null) {
+        throw mError;
+      }
+      return mSource;
+    }
+
+    public byte[] getCandidate() throws IOException {
+      if (mError != null) {
+        throw mError;
+      }
+      return mCandidate;
+    }
+
+    public long getSize() {
+      return (mSource == null ? 0 : mSource.length) + (mCandidate == null ? 0 : mCandidate.length);
+    }
+  }
+
+  // marks the end of the paths in the queue
+  private static final Future<Pair> END = new FutureTask<Pair>( new Callable<Pair>() {
+    public Pair call() {
+      return null;
+    }
+  } );
+
+  private Iterator<String> mPaths;
+
+  private Iterator<Pair> mPairs;
+
+  private File mSourceFolder;
+
+  private File mCandidateFolder;
+
+  private int mDepth;
+
+  private BlockingQueue<Future<Pair>> mQueue;
+
+  private Semaphore mPermits;
+
+  private ExecutorService mReaders;
+
+  private Thread mFeeder;
+
+  private volatile RuntimeException mFailure;
+
+  private volatile boolean mClosed;
+
+  private Future<Pair> mNext;
+
+  private Metrics.Phase mRead;
+
+  private Metrics.Phase mWait;
+
+  private LongAdder[] mOccupancy;
+
+  /**
+   * Reads the pairs of the paths from the folders, the source folder is
+   * null if the sources are not read.
+   */
+  public ReadAhead( Iterable<String> paths, File sourceFolder, File candidateFolder, int depth, int readers,
+      Metrics metrics ) {
+    mPaths = paths.iterator();
+    mSourceFolder = sourceFolder;
+    mCandidateFolder = candidateFolder;
+    mDepth = depth;
+    if (depth == 0) {
+      return;
+    }
+
+    mReaders = Executors.newFixedThreadPool( readers, new ThreadFactory() {
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "fdc-reader" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    mRead = metrics.phase( Metrics.PHASE_READ );
+    start( metrics );
+  }
+
+  /**
+   * Takes the pairs from an iterator that reads them, on the feeder thread
+   * if there is a depth.
+   */
+  public ReadAhead( Iterator<Pair> pairs, int depth, Metrics metrics ) {
+    mPairs = pairs;
+    mDepth = depth;
+    if (depth > 0) {
+      start( metrics );
+    }
+  }
+
+  private void start( Metrics metrics ) {
+    mQueue = new LinkedBlockingQueue<Future<Pair>>();
+    mPermits = new Semaphore( mDepth );
+    mWait = metrics.phase( Metrics.PHASE_READ_AHEAD_WAIT );
+    // the pair taken holds a permit, so at most depth - 1 are ahead of it
+    mOccupancy = new LongAdder[mDepth];
+    for (int i = 0; i < mDepth; i++) {
+      mOccupancy[i] = metrics.counter( Metrics.COUNTER_READ_AHEAD_OCCUPANCY + i );
+    }
+
+    mFeeder = new Thread( new Runnable() {
+      public void run() {
+        feed();
+      }
+    }, "fdc-read-ahead" );
+    mFeeder.setDaemon( true );
+    mFeeder.start();
+  }
+
+  public boolean hasNext() {
+    if (mDepth == 0) {
+      return mPairs != null ? mPairs.hasNext() : mPaths.hasNext();
+    }
+
+    if (mNext == null) {
+      try {
+        mNext = mQueue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException( "Interrupted while waiting for the next pair", e );
+      }
+    }
+    if (mNext == END) {
+      // stays at the end, for repeated calls
+      if (mFailure != null) {
+        throw mFailure;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  public Pair next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (mDepth == 0) {
+      return mPairs != null ? mPairs.next() : new Pair( mPaths.next() );
+    }
+
+    // how many pairs were read or being read ahead of this one
+    mOccupancy[Math.min( mDepth - 1, mQueue.size() )].increment();
+    long start = System.nanoTime();
+    Future<Pair> next = mNext;
+    mNext = null;
+    try {
+      return next.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( "Interrupted while waiting for the next pair", e );
+    } catch (ExecutionException e) {
+      throw new IllegalStateException( "Could not read ahead", e.getCause() );
+    } finally {
+      mWait.since( start );
+      mPermits.release();
+    }
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Stops reading ahead, e.g. once a fail-fast run stopped. The feeder is not
+   * interrupted, as the paths may come from a watcher that would take that
+   * for an error, it ends with the next path.
+   */
+  public void close() {
+    if (mDepth > 0) {
+      mClosed = true;
+      mPermits.release( mDepth );
+      if (mReaders != null) {
+        mReaders.shutdownNow();
+      }
+    }
+  }
+
+  private void feed() {
+    try {
+      while (!mClosed && (mPairs != null ? mPairs.hasNext() : mPaths.hasNext())) {
+        // blocks while depth pairs wait to be compared
+        mPermits.acquire();
+        if (mClosed) {
+          break;
+        }
+        if (mPairs != null) {
+          // already read by the iterator, on this thread
+          FutureTask<Pair> pair = new FutureTask<Pair>( new Callable<Pair>() {
+            public Pair call() {
+              return mPairs.next();
+            }
+          } );
+          pair.run();
+          mQueue.add( pair );
+          continue;
+        }
+
+        final String path = mPaths.next();
+        mQueue.add( mReaders.submit( new Callable<Pair>() {
+          public Pair call() {
+            return read( path );
+          }
+        } ) );
+      }
+    } catch (InterruptedException e) {
+      // ends the pairs like the end of the paths
+    } catch (RuntimeException e) {
+      mFailure = e;
+    } finally {
+      mQueue.add( END );
+    }
+  }
+
+  private Pair read( String path ) {
+    long start = System.nanoTime();
+    Pair pair = new Pair( path );
+    try {
+      if (mSourceFolder != null) {
+        pair.mSource = read( new File( mSourceFolder, path ) );
+      }
+      pair.mCandidate = read( new File( mCandidateFolder, path ) );
+    } catch (IOException e) {
+      // thrown when the pair is compared, like an error while reading it there
+      pair.mError = e;
+    }
+    mRead.since( start );
+    return pair;
+  }
+
+  static byte[] read( File file ) throws IOException {
+    FileInputStream in = new FileInputStream( file );
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException( "Too large to read ahead: " + file );
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate( (int) size );
+      while (buffer.hasRemaining() && channel.read( buffer ) >= 0) {
+        // reads until full or the end of a file that shrank
+      }
+      if (buffer.hasRemaining()) {
+        byte[] bytes = new byte[buffer.position()];
+        System.arraycopy( buffer.array(), 0, bytes, 0, bytes.length );
+        return bytes;
+      }
+      return buffer.array();
+
+    } finally {
+      in.close();
+    }
+  }
+}
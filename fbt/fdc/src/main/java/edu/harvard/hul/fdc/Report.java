@@ -1,25 +0,0 @@
-package edu.harvard.hul.fdc;
-
-public class Report {
-
-  private String mLog;
-
-  private int mStatus;
-
-  public String getLog() {
-    return mLog;
-  }
-
-  public void setLog( String mLog ) {
-    this.mLog = mLog;
-  }
-
-  public int getStatus() {
-    return mStatus;
-  }
-
-  public void setStatus( int mStatus ) {
-    this.mStatus = mStatus;
-  }
-
-}
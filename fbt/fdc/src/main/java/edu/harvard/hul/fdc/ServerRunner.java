@@ -0,0 +1,51 @@
+package edu.harvard.hul.fdc;
+
+import java.io.IOException;
+
+import edu.harvard.hul.fdc.cli.CLI;
+
+/**
+ * Runs the comparator server, or sends a run to it.
+ */
+class ServerRunner {
+
+  private Controller mController;
+
+  private CLI mCLI;
+
+  private LogWriter mLogger;
+
+  ServerRunner( Controller controller ) {
+    mController = controller;
+    mCLI = controller.getCLI();
+    mLogger = controller.getLogger();
+  }
+
+  /**
+   * Serves requests with forks of the comparator of the run until the JVM is
+   * stopped.
+   */
+  void serve() {
+    try {
+      new ComparatorServer( mCLI.getServerPort(), mController.getComparator() ).serve();
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      mController.handleState( ControllerState.SYSTEM_ERROR );
+    }
+  }
+
+  /**
+   * Sends the arguments to the comparator server and takes over its exit
+   * code. A server that cannot be reached means the test was not executable.
+   */
+  void runOnServer() {
+    try {
+      mController.handleState( new ComparatorClient( mCLI.getServerPort() ).run( mController.getInput(), mLogger
+          .getConsole(), mLogger.getErrors() ) );
+    } catch (IOException e) {
+      mLogger.getErrors().println( "Could not run on the comparator server on port " + mCLI.getServerPort() + ": "
+          + e.getMessage() );
+      mController.handleState( ControllerState.TEST_NOT_EXECUTABLE );
+    }
+  }
+}
@@ -0,0 +1,549 @@
+package edu.harvard.hul.fdc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.dom4j.Attribute;
+import org.dom4j.CDATA;
+import org.dom4j.Comment;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.Text;
+
+/**
+ * A source folder turned into a single binary file, so that repeated runs
+ * against the same source, e.g. the steps of git bisect, do not parse the
+ * source files again. Per file it holds the sections the resolvers compare as
+ * pre-parsed element trees, together with what the fast path and the cache
+ * need: the tools per section, the canonical digest and the content hash.
+ * The file is memory mapped and each file's entry is decoded on demand.
+ */
+public class Snapshot {
+
+  private static final int MAGIC = 0x46425453;
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final byte NODE_ELEMENT = 1;
+
+  private static final byte NODE_TEXT = 2;
+
+  private static final byte NODE_CDATA = 3;
+
+  private static final byte NODE_COMMENT = 4;
+
+  private RandomAccessFile mFile;
+
+  private ByteBuffer mData;
+
+  private String[] mStrings;
+
+  private Map<String, long[]> mEntries;
+
+  private DocumentFactory mFactory;
+
+  /**
+   * The pre-parsed source file of a pair.
+   */
+  public static class Entry {
+
+    private String mContentHash;
+
+    private byte[] mDigest;
+
+    private Map<String, List<String>> mTools;
+
+    private List<Element> mSections;
+
+    // a source that was read instead of decoded, parsed on demand
+    private byte[] mSource;
+
+    private FitsXMLComparator mComparator;
+
+    private Entry() {
+    }
+
+    /**
+     * Creates the entry of a source file that was read, which is only hashed
+     * and parsed when asked for.
+     */
+    Entry( byte[] source, byte[] digest, Map<String, List<String>> tools, FitsXMLComparator comparator ) {
+      mSource = source;
+      mDigest = digest;
+      mTools = tools;
+      mComparator = comparator;
+    }
+
+    /**
+     * The SHA-1 of the source file, as used by the cache keys.
+     */
+    public String getContentHash() {
+      if (mContentHash == null && mSource != null) {
+        mContentHash = ComparisonCache.hash( mSource );
+      }
+      return mContentHash;
+    }
+
+    /**
+     * The digest of the canonical form, see {@link UnchangedOutputCheck}, or
+     * null if the source file is not well-formed.
+     */
+    public byte[] getDigest() {
+      return mDigest;
+    }
+
+    public Map<String, List<String>> getTools() {
+      return mTools;
+    }
+
+    /**
+     * The sections the resolvers compare, in the order of the source file.
+     */
+    public List<Element> getSections() {
+      if (mSections == null && mSource != null) {
+        mSections = mComparator.readSections( new ByteArrayInputStream( mSource ) );
+      }
+      return mSections;
+    }
+  }
+
+  private Snapshot( RandomAccessFile file ) {
+    mFile = file;
+    mFactory = DocumentFactory.getInstance();
+  }
+
+  /**
+   * Returns true if the file starts like a snapshot, so that it can be given
+   * in place of a source folder.
+   */
+  public static boolean isSnapshot( File file ) {
+    if (!file.isFile()) {
+      return false;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream( new FileInputStream( file ) );
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+  /**
+   * Writes the snapshot of the files of the source folder, reading them with
+   * the comparator.
+   */
+  public static void write( File sourceFolder, List<String> paths, File file, FitsXMLComparator comparator )
+      throws IOException {
+    Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    List<String> written = new ArrayList<String>();
+    List<long[]> positions = new ArrayList<long[]>();
+    UnchangedOutputCheck unchangedCheck = new UnchangedOutputCheck();
+
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( FORMAT_VERSION );
+      out.writeUTF( FitsXMLComparator.VERSION );
+      long offset = out.size();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream entry = new DataOutputStream( bytes );
+      for (String path : paths) {
+        File source = new File( sourceFolder, path );
+        bytes.reset();
+        writeEntry( entry, source, comparator, unchangedCheck, strings );
+        entry.flush();
+
+        bytes.writeTo( out );
+        written.add( path );
+        positions.add( new long[] { offset, bytes.size() } );
+        offset += bytes.size();
+      }
+
+      // the index follows the entries, its position is the last thing in the file
+      out.writeInt( strings.size() );
+      for (String string : strings.keySet()) {
+        writeString( out, string );
+      }
+      out.writeInt( written.size() );
+      for (int i = 0; i < written.size(); i++) {
+        writeString( out, written.get( i ) );
+        out.writeLong( positions.get( i )[0] );
+        out.writeInt( (int) positions.get( i )[1] );
+      }
+      out.writeLong( offset );
+
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeEntry( DataOutputStream out, File source, FitsXMLComparator comparator,
+      UnchangedOutputCheck unchangedCheck, Map<String, Integer> strings ) throws IOException {
+    writeString( out, ComparisonCache.hash( source ) );
+
+    Map<String, List<String>> tools = new LinkedHashMap<String, List<String>>();
+    byte[] digest = unchangedCheck.digest( source, tools );
+    if (digest == null) {
+      out.writeInt( -1 );
+    } else {
+      out.writeInt( digest.length );
+      out.write( digest );
+    }
+
+    out.writeInt( tools.size() );
+    for (String section : tools.keySet()) {
+      out.writeInt( id( strings, section ) );
+      List<String> sectionTools = tools.get( section );
+      out.writeInt( sectionTools.size() );
+      for (String tool : sectionTools) {
+        out.writeInt( id( strings, tool ) );
+      }
+    }
+
+    InputStream in = new FileInputStream( source );
+    try {
+      List<Element> sections = comparator.readSections( in );
+      out.writeInt( sections.size() );
+      for (Element section : sections) {
+        writeElement( out, section, strings );
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeElement( DataOutputStream out, Element element, Map<String, Integer> strings )
+      throws IOException {
+    out.writeInt( id( strings, element.getName() ) );
+    out.writeInt( id( strings, element.getNamespacePrefix() ) );
+    out.writeInt( id( strings, element.getNamespaceURI() ) );
+
+    List<Namespace> namespaces = element.additionalNamespaces();
+    out.writeInt( namespaces.size() );
+    for (Namespace namespace : namespaces) {
+      out.writeInt( id( strings, namespace.getPrefix() ) );
+      out.writeInt( id( strings, namespace.getURI() ) );
+    }
+
+    List<Attribute> attributes = element.attributes();
+    out.writeInt( attributes.size() );
+    for (Attribute attribute : attributes) {
+      out.writeInt( id( strings, attribute.getName() ) );
+      out.writeInt( id( strings, attribute.getNamespacePrefix() ) );
+      out.writeInt( id( strings, attribute.getNamespaceURI() ) );
+      out.writeInt( id( strings, attribute.getValue() ) );
+    }
+
+    List<Node> content = new ArrayList<Node>();
+    for (Object node : element.content()) {
+      if (node instanceof Element || node instanceof Text || node instanceof CDATA || node instanceof Comment) {
+        content.add( (Node) node );
+      }
+    }
+
+    out.writeInt( content.size() );
+    for (Node node : content) {
+      if (node instanceof Element) {
+        out.writeByte( NODE_ELEMENT );
+        writeElement( out, (Element) node, strings );
+      } else {
+        out.writeByte( node instanceof Text ? NODE_TEXT : node instanceof CDATA ? NODE_CDATA : NODE_COMMENT );
+        // values are mostly unique, so they are kept out of the string table
+        writeString( out, node.getText() );
+      }
+    }
+  }
+
+  private static int id( Map<String, Integer> strings, String string ) {
+    if (string == null) {
+      return -1;
+    }
+
+    Integer id = strings.get( string );
+    if (id == null) {
+      id = strings.size();
+      strings.put( string, id );
+    }
+    return id;
+  }
+
+  /**
+   * Writes the string with its length, unlike writeUTF without a 64k limit.
+   */
+  private static void writeString( DataOutputStream out, String string ) throws IOException {
+    byte[] bytes = string.getBytes( UTF8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static String readString( DataInputStream in ) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully( bytes );
+    return new String( bytes, UTF8 );
+  }
+
+  public static Snapshot open( File file ) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile( file, "r" );
+    Snapshot snapshot = new Snapshot( raf );
+    try {
+      snapshot.readIndex();
+      return snapshot;
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private void readIndex() throws IOException {
+    if (mFile.readInt() != MAGIC || mFile.readInt() != FORMAT_VERSION) {
+      throw new IOException( "Not a snapshot" );
+    }
+    if (!FitsXMLComparator.VERSION.equals( mFile.readUTF() )) {
+      throw new IOException( "Snapshot of another comparator version, please create it again" );
+    }
+
+    long size = mFile.length();
+    mFile.seek( size - 8 );
+    long indexOffset = mFile.readLong();
+
+    FileChannel channel = mFile.getChannel();
+    DataInputStream in = new DataInputStream( new ByteBufferInputStream( channel.map(
+        FileChannel.MapMode.READ_ONLY, indexOffset, size - 8 - indexOffset ) ) );
+    mStrings = new String[in.readInt()];
+    for (int i = 0; i < mStrings.length; i++) {
+      mStrings[i] = readString( in );
+    }
+
+    int files = in.readInt();
+    mEntries = new LinkedHashMap<String, long[]>();
+    for (int i = 0; i < files; i++) {
+      String path = readString( in );
+      mEntries.put( path, new long[] { in.readLong(), in.readInt() } );
+    }
+
+    // larger snapshots are read entry by entry instead of mapped as a whole
+    if (indexOffset <= Integer.MAX_VALUE) {
+      mData = channel.map( FileChannel.MapMode.READ_ONLY, 0, indexOffset );
+    }
+  }
+
+  /**
+   * Returns the relative paths of the source files, in the order of the
+   * folder listing the snapshot was created from.
+   */
+  public List<String> getPaths() {
+    return new ArrayList<String>( mEntries.keySet() );
+  }
+
+  public boolean contains( String path ) {
+    return mEntries.containsKey( path );
+  }
+
+  public String getContentHash( String path ) throws IOException {
+    return readString( entryStream( path ) );
+  }
+
+  /**
+   * Decodes the entry of the source file, can be called by several threads.
+   */
+  public Entry get( String path ) throws IOException {
+    DataInputStream in = entryStream( path );
+    Entry entry = new Entry();
+    entry.mContentHash = readString( in );
+
+    int digestLength = in.readInt();
+    if (digestLength >= 0) {
+      entry.mDigest = new byte[digestLength];
+      in.readFully( entry.mDigest );
+    }
+
+    int sections = in.readInt();
+    entry.mTools = new HashMap<String, List<String>>();
+    for (int i = 0; i < sections; i++) {
+      String section = mStrings[in.readInt()];
+      List<String> tools = new ArrayList<String>();
+      int count = in.readInt();
+      for (int t = 0; t < count; t++) {
+        tools.add( mStrings[in.readInt()] );
+      }
+      entry.mTools.put( section, tools );
+    }
+
+    int count = in.readInt();
+    entry.mSections = new ArrayList<Element>( count );
+    for (int i = 0; i < count; i++) {
+      entry.mSections.add( readElement( in ) );
+    }
+    return entry;
+  }
+
+  /**
+   * Decodes only the section with the name of the entry, e.g. the
+   * identification, and skips the others. Returns null if there is none.
+   */
+  public Element getSection( String path, String name ) throws IOException {
+    DataInputStream in = entryStream( path );
+    IOUtils.skipFully( in, in.readInt() );
+    IOUtils.skipFully( in, Math.max( 0, in.readInt() ) );
+    int sections = in.readInt();
+    for (int i = 0; i < sections; i++) {
+      in.readInt();
+      IOUtils.skipFully( in, 4L * in.readInt() );
+    }
+
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String section = string( in.readInt() );
+      if (name.equals( section )) {
+        return readElement( in, section );
+      }
+      skipElement( in );
+    }
+    return null;
+  }
+
+  private DataInputStream entryStream( String path ) throws IOException {
+    long[] position = mEntries.get( path );
+    if (position == null) {
+      throw new IOException( "Not in the snapshot: " + path );
+    }
+
+    ByteBuffer buffer;
+    if (mData != null) {
+      // a view of its own per call, so that threads do not share a position
+      buffer = mData.duplicate();
+      buffer.position( (int) position[0] );
+      buffer.limit( (int) (position[0] + position[1]) );
+    } else {
+      buffer = ByteBuffer.allocate( (int) position[1] );
+      FileChannel channel = mFile.getChannel();
+      while (buffer.hasRemaining()) {
+        if (channel.read( buffer, position[0] + buffer.position() ) < 0) {
+          throw new IOException( "Truncated snapshot" );
+        }
+      }
+      buffer.flip();
+    }
+    return new DataInputStream( new ByteBufferInputStream( buffer ) );
+  }
+
+  private Element readElement( DataInputStream in ) throws IOException {
+    return readElement( in, string( in.readInt() ) );
+  }
+
+  private Element readElement( DataInputStream in, String name ) throws IOException {
+    String prefix = string( in.readInt() );
+    String uri = string( in.readInt() );
+    Element element = mFactory.createElement( mFactory.createQName( name, prefix, uri ) );
+
+    int namespaces = in.readInt();
+    for (int i = 0; i < namespaces; i++) {
+      element.addNamespace( string( in.readInt() ), string( in.readInt() ) );
+    }
+
+    int attributes = in.readInt();
+    for (int i = 0; i < attributes; i++) {
+      String attributeName = string( in.readInt() );
+      String attributePrefix = string( in.readInt() );
+      String attributeURI = string( in.readInt() );
+      element.addAttribute( mFactory.createQName( attributeName, attributePrefix, attributeURI ),
+          string( in.readInt() ) );
+    }
+
+    int content = in.readInt();
+    for (int i = 0; i < content; i++) {
+      byte type = in.readByte();
+      if (type == NODE_ELEMENT) {
+        element.add( readElement( in ) );
+      } else if (type == NODE_TEXT) {
+        element.addText( readString( in ) );
+      } else if (type == NODE_CDATA) {
+        element.addCDATA( readString( in ) );
+      } else {
+        element.addComment( readString( in ) );
+      }
+    }
+    return element;
+  }
+
+  /**
+   * Skips the element after its name without decoding it.
+   */
+  private void skipElement( DataInputStream in ) throws IOException {
+    IOUtils.skipFully( in, 8 );
+    IOUtils.skipFully( in, 8L * in.readInt() );
+    IOUtils.skipFully( in, 16L * in.readInt() );
+    int content = in.readInt();
+    for (int i = 0; i < content; i++) {
+      if (in.readByte() == NODE_ELEMENT) {
+        in.readInt();
+        skipElement( in );
+      } else {
+        IOUtils.skipFully( in, in.readInt() );
+      }
+    }
+  }
+
+  private String string( int id ) {
+    return id < 0 ? null : mStrings[id];
+  }
+
+  public void close() {
+    IOUtils.closeQuietly( mFile );
+  }
+
+  public int size() {
+    return mEntries.size();
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer mBuffer;
+
+    private ByteBufferInputStream( ByteBuffer buffer ) {
+      mBuffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read( byte[] bytes, int offset, int length ) {
+      if (!mBuffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min( length, mBuffer.remaining() );
+      mBuffer.get( bytes, offset, read );
+      return read;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import edu.harvard.hul.fdc.cli.CLI;
+
+/**
+ * Parses the files of a source folder into a snapshot, see {@link Snapshot}.
+ */
+class SnapshotRunner {
+
+  private Controller mController;
+
+  private CLI mCLI;
+
+  private LogWriter mLogger;
+
+  SnapshotRunner( Controller controller ) {
+    mController = controller;
+    mCLI = controller.getCLI();
+    mLogger = controller.getLogger();
+  }
+
+  void run() {
+    File sourceFolder = new File( mCLI.getSourceFolderPath() );
+    File file = new File( mCLI.getSnapshotFilePath() );
+    try {
+      List<String> paths = new FitsFileScanner().scan( sourceFolder );
+      if (paths.isEmpty()) {
+        mController.handleState( ControllerState.TEST_NOT_EXECUTABLE );
+        return;
+      }
+
+      Snapshot.write( sourceFolder, paths, file, mController.getComparator() );
+      mLogger.getConsole().println( "Wrote snapshot of " + paths.size() + " files to: " + file.getAbsolutePath() );
+    } catch (IOException e) {
+      e.printStackTrace( mLogger.getErrors() );
+      mController.handleState( ControllerState.SYSTEM_ERROR );
+    }
+  }
+}
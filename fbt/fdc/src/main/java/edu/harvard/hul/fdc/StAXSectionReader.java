@@ -0,0 +1,136 @@
+package edu.harvard.hul.fdc;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.EventFilter;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import org.dom4j.Element;
+import org.dom4j.io.STAXEventReader;
+
+/**
+ * Reads the top-level sections of a fits.xml file one after the other. Only
+ * the section that is currently read is turned into a dom4j element, the rest
+ * of the document is never held in memory.
+ */
+public class StAXSectionReader {
+
+  // the dom4j reader cannot turn them into nodes, and no resolver compares them
+  private static final EventFilter NO_COMMENTS = new EventFilter() {
+    public boolean accept( XMLEvent event ) {
+      return !event.isProcessingInstruction() && event.getEventType() != XMLStreamConstants.COMMENT;
+    }
+  };
+
+  private XMLEventReader mReader;
+
+  private STAXEventReader mElementReader;
+
+  private Set<String> mKeptSections;
+
+  // the first section of each name that was read, the later ones are skipped
+  private Map<String, Element> mSections;
+
+  private int mDepth;
+
+  public StAXSectionReader( XMLInputFactory factory, STAXEventReader elementReader, InputStream in )
+      throws XMLStreamException {
+    this( factory, elementReader, in, Collections.<String> emptySet() );
+  }
+
+  /**
+   * @param keptSections
+   *          sections that are kept when skipped over by {@link #findSection(String)},
+   *          in case the candidate file orders its sections differently.
+   */
+  public StAXSectionReader( XMLInputFactory factory, STAXEventReader elementReader, InputStream in,
+      Set<String> keptSections ) throws XMLStreamException {
+    mReader = factory.createFilteredReader( factory.createXMLEventReader( in ), NO_COMMENTS );
+    mElementReader = elementReader;
+    mKeptSections = keptSections;
+    mSections = new HashMap<String, Element>();
+    mDepth = 0;
+  }
+
+  /**
+   * Moves to the start of the next top-level section and returns its name, or
+   * null if there are no more sections. The section has to be consumed with
+   * {@link #readSection()} or {@link #skipSection()} before moving on.
+   */
+  public String nextSection() throws XMLStreamException {
+    while (mReader.hasNext()) {
+      XMLEvent event = mReader.peek();
+      if (event.isStartElement()) {
+        if (mDepth == 1) {
+          return event.asStartElement().getName().getLocalPart();
+        }
+        mDepth++;
+      } else if (event.isEndElement()) {
+        mDepth--;
+      }
+      mReader.nextEvent();
+    }
+
+    return null;
+  }
+
+  public Element readSection() throws XMLStreamException {
+    return mElementReader.readElement( mReader );
+  }
+
+  public void skipSection() throws XMLStreamException {
+    int depth = 0;
+    while (mReader.hasNext()) {
+      XMLEvent event = mReader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+      } else if (event.isEndElement()) {
+        depth--;
+        if (depth == 0) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the first section with the given name, or null if the document
+   * has none. Like a lookup in the whole document, every lookup of a name
+   * returns the same section, even if the document has several. Kept sections
+   * that are passed on the way are remembered for later lookups, everything
+   * else is skipped.
+   */
+  public Element findSection( String name ) throws XMLStreamException {
+    Element section = mSections.get( name );
+    if (section != null) {
+      return section;
+    }
+
+    String next;
+    while ((next = nextSection()) != null) {
+      if (mSections.containsKey( next ) || !(next.equals( name ) || mKeptSections.contains( next ))) {
+        skipSection();
+      } else {
+        section = readSection();
+        mSections.put( next, section );
+        if (next.equals( name )) {
+          return section;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  public void close() throws XMLStreamException {
+    mReader.close();
+  }
+}
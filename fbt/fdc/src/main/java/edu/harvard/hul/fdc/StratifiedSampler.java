@@ -0,0 +1,207 @@
+package edu.harvard.hul.fdc;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.dom4j.Element;
+
+/**
+ * Picks a seeded sample of the matched pairs, stratified by the format and
+ * mimetype the source file was identified as, and estimates the share of all
+ * files with mismatching values per tool from the compared sample. Only the
+ * first identity of the identification section of each source file is read
+ * to find its stratum.
+ */
+public class StratifiedSampler {
+
+  private static final String UNKNOWN = "unknown";
+
+  // the 95% quantile of the normal distribution
+  private static final double Z = 1.96;
+
+  private XMLInputFactory mInputFactory;
+
+  private Map<String, List<String>> mStrata;
+
+  private Map<String, Integer> mSampled;
+
+  private Map<String, String> mStratumOf;
+
+  private int mPopulation;
+
+  private Snapshot mSnapshot;
+
+  public StratifiedSampler() {
+    mInputFactory = XMLInputFactory.newInstance();
+    mInputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    mInputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+  }
+
+  /**
+   * Reads the strata from the snapshot instead of the source folder.
+   */
+  public void setSnapshot( Snapshot snapshot ) {
+    mSnapshot = snapshot;
+  }
+
+  /**
+   * Returns about size of the paths, allocated to the strata in proportion to
+   * their size, but at least one per stratum. The same seed and paths always
+   * give the same sample.
+   */
+  public List<String> sample( File sourceFolder, List<String> paths, int size, long seed ) {
+    mStrata = new TreeMap<String, List<String>>();
+    mStratumOf = new HashMap<String, String>();
+    mSampled = new HashMap<String, Integer>();
+    mPopulation = paths.size();
+
+    for (String path : paths) {
+      String stratum = mSnapshot == null ? readStratum( new File( sourceFolder, path ) ) : readStratum( path );
+      List<String> members = mStrata.get( stratum );
+      if (members == null) {
+        members = new ArrayList<String>();
+        mStrata.put( stratum, members );
+      }
+      members.add( path );
+    }
+
+    List<String> sample = new ArrayList<String>();
+    Random random = new Random( seed );
+    for (String stratum : mStrata.keySet()) {
+      List<String> members = mStrata.get( stratum );
+      // sorted first, so that the sample does not depend on the listing order
+      Collections.sort( members );
+      Collections.shuffle( members, random );
+
+      int n = (int) Math.round( (double) size * members.size() / mPopulation );
+      n = Math.min( members.size(), Math.max( 1, n ) );
+      for (String path : members.subList( 0, n )) {
+        sample.add( path );
+        mStratumOf.put( path, stratum );
+      }
+      mSampled.put( stratum, n );
+    }
+
+    return sample;
+  }
+
+  public int getStrata() {
+    return mStrata.size();
+  }
+
+  /**
+   * Returns the stratum of a sampled path, or null.
+   */
+  String getStratum( String path ) {
+    return mStratumOf.get( path );
+  }
+
+  /**
+   * Estimates the share of all files in which the tool provides a mismatching
+   * value, given the sampled files it mismatched in. Returns the estimate and
+   * the lower and upper bound of its 95% confidence interval.
+   */
+  public double[] estimate( Set<String> mismatchingFiles ) {
+    Map<String, Integer> mismatches = new HashMap<String, Integer>();
+    for (String file : mismatchingFiles) {
+      String stratum = mStratumOf.get( file );
+      if (stratum != null) {
+        Integer count = mismatches.get( stratum );
+        mismatches.put( stratum, count == null ? 1 : count + 1 );
+      }
+    }
+
+    double estimate = 0;
+    double variance = 0;
+    for (String stratum : mStrata.keySet()) {
+      double weight = (double) mStrata.get( stratum ).size() / mPopulation;
+      int n = mSampled.get( stratum );
+      Integer x = mismatches.get( stratum );
+      double p = x == null ? 0 : (double) x / n;
+      // Agresti-Coull adjusted, so that strata without mismatches still add uncertainty
+      double adjusted = ((x == null ? 0 : x) + Z * Z / 2) / (n + Z * Z);
+      double correction = 1 - (double) n / mStrata.get( stratum ).size();
+      estimate += weight * p;
+      variance += weight * weight * adjusted * (1 - adjusted) / n * correction;
+    }
+
+    double margin = Z * Math.sqrt( variance );
+    return new double[] { estimate, Math.max( 0, estimate - margin ), Math.min( 1, estimate + margin ) };
+  }
+
+  private String readStratum( String path ) {
+    try {
+      Element identification = mSnapshot.getSection( path, "identification" );
+      Element identity = identification == null ? null : identification.element( "identity" );
+      if (identity != null) {
+        return identity.attributeValue( "format" ) + " (" + identity.attributeValue( "mimetype" ) + ")";
+      }
+    } catch (IOException e) {
+      // sampled into the unknown stratum, the comparison reports the file
+    }
+    return UNKNOWN;
+  }
+
+  /**
+   * Reads the first identity of the top-level identification section, not
+   * one of the raw tool output, and stops at the end of that section.
+   */
+  private String readStratum( File file ) {
+    InputStream in = null;
+    XMLStreamReader reader = null;
+    try {
+      in = new BufferedInputStream( new FileInputStream( file ) );
+      reader = mInputFactory.createXMLStreamReader( in );
+      int depth = 0;
+      boolean identification = false;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          if (depth == 2 && "identification".equals( reader.getLocalName() )) {
+            identification = true;
+          } else if (identification && depth == 3 && "identity".equals( reader.getLocalName() )) {
+            return reader.getAttributeValue( null, "format" ) + " (" + reader.getAttributeValue( null, "mimetype" )
+                + ")";
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (identification && depth == 2) {
+            break;
+          }
+          depth--;
+        }
+      }
+    } catch (IOException e) {
+      // sampled into the unknown stratum, the comparison reports the file
+    } catch (XMLStreamException e) {
+      // same as above
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // nothing to do
+        }
+      }
+      IOUtils.closeQuietly( in );
+    }
+    return UNKNOWN;
+  }
+}
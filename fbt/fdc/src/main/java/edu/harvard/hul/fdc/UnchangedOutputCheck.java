@@ -0,0 +1,360 @@
+package edu.harvard.hul.fdc;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Detects pairs of fits.xml files that do not have to be resolved, either
+ * because they are byte identical or because they only differ in volatile
+ * attributes such as the FITS timestamp. For such files only the tools of the
+ * source are collected, so that they still count as occurrences for the
+ * "missing in all candidate files" report.
+ * <p>
+ * Files the resolvers could report differences for even if they are
+ * identical are always compared in full: tools without a name or identity
+ * tools without a version, and elements that repeat the key the resolvers
+ * match them by, like the name and tool of a fileinfo element.
+ */
+public class UnchangedOutputCheck {
+
+  private static final Set<String> SECTIONS = new HashSet<String>( Arrays.asList( "identification", "fileinfo",
+      "metadata" ) );
+
+  private static final Set<String> VOLATILE_ATTRIBUTES = new HashSet<String>( Arrays.asList( "timestamp",
+      "fitsExecutionTime" ) );
+
+  private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private XMLInputFactory mInputFactory;
+
+  public UnchangedOutputCheck() {
+    mInputFactory = XMLInputFactory.newInstance();
+    mInputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    mInputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    mInputFactory.setProperty( XMLInputFactory.IS_COALESCING, true );
+  }
+
+  /**
+   * Returns the tools of the source file per section if the candidate is
+   * unchanged, null otherwise.
+   */
+  public Map<String, List<String>> check( File source, File candidate ) throws IOException {
+    try {
+      if (isByteIdentical( source, candidate )) {
+        return scan( source, null );
+      }
+
+      MessageDigest sDigest = newDigest();
+      MessageDigest cDigest = newDigest();
+      Map<String, List<String>> tools = scan( source, sDigest );
+      if (tools == null) {
+        return null;
+      }
+      scan( candidate, cDigest );
+
+      return MessageDigest.isEqual( sDigest.digest(), cDigest.digest() ) ? tools : null;
+
+    } catch (XMLStreamException e) {
+      // leave it to the full comparison to deal with broken files
+      return null;
+    }
+  }
+
+  /**
+   * Same as {@link #check(File, File)} for files that were already read.
+   */
+  public Map<String, List<String>> check( byte[] source, byte[] candidate ) throws IOException {
+    try {
+      if (Arrays.equals( source, candidate )) {
+        return scan( new ByteArrayInputStream( source ), null );
+      }
+
+      MessageDigest sDigest = newDigest();
+      MessageDigest cDigest = newDigest();
+      Map<String, List<String>> tools = scan( new ByteArrayInputStream( source ), sDigest );
+      if (tools == null) {
+        return null;
+      }
+      scan( new ByteArrayInputStream( candidate ), cDigest );
+
+      return MessageDigest.isEqual( sDigest.digest(), cDigest.digest() ) ? tools : null;
+
+    } catch (XMLStreamException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the digest of the canonical form of the file and collects its
+   * tools per section, or returns null if the file is not well-formed or has
+   * to be compared in full.
+   */
+  public byte[] digest( File file, Map<String, List<String>> tools ) throws IOException {
+    MessageDigest digest = newDigest();
+    try {
+      return digest( scan( file, digest ), digest, tools );
+    } catch (XMLStreamException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Same as {@link #digest(File, Map)} for a file that was already read.
+   */
+  public byte[] digest( byte[] data, Map<String, List<String>> tools ) throws IOException {
+    MessageDigest digest = newDigest();
+    try {
+      return digest( scan( new ByteArrayInputStream( data ), digest ), digest, tools );
+    } catch (XMLStreamException e) {
+      return null;
+    }
+  }
+
+  private byte[] digest( Map<String, List<String>> scanned, MessageDigest digest, Map<String, List<String>> tools ) {
+    if (scanned == null) {
+      return null;
+    }
+    tools.putAll( scanned );
+    return digest.digest();
+  }
+
+  /**
+   * Returns true if the candidate only differs in volatile attributes from
+   * the source the digest was taken of.
+   */
+  public boolean isUnchanged( byte[] sourceDigest, File candidate ) throws IOException {
+    if (sourceDigest == null) {
+      return false;
+    }
+
+    byte[] digest = digest( candidate, new HashMap<String, List<String>>() );
+    return digest != null && MessageDigest.isEqual( sourceDigest, digest );
+  }
+
+  /**
+   * Same as {@link #isUnchanged(byte[], File)} for a candidate that was
+   * already read.
+   */
+  public boolean isUnchanged( byte[] sourceDigest, byte[] candidate ) throws IOException {
+    if (sourceDigest == null) {
+      return false;
+    }
+
+    MessageDigest digest = newDigest();
+    try {
+      scan( new ByteArrayInputStream( candidate ), digest );
+    } catch (XMLStreamException e) {
+      return false;
+    }
+    return MessageDigest.isEqual( sourceDigest, digest.digest() );
+  }
+
+  public boolean isByteIdentical( File source, File candidate ) throws IOException {
+    RandomAccessFile sFile = new RandomAccessFile( source, "r" );
+    RandomAccessFile cFile = new RandomAccessFile( candidate, "r" );
+    try {
+      FileChannel sChannel = sFile.getChannel();
+      FileChannel cChannel = cFile.getChannel();
+      long size = sChannel.size();
+      if (size != cChannel.size()) {
+        return false;
+      }
+
+      for (long position = 0; position < size; position += MAP_WINDOW) {
+        long length = Math.min( MAP_WINDOW, size - position );
+        MappedByteBuffer sBuffer = sChannel.map( FileChannel.MapMode.READ_ONLY, position, length );
+        MappedByteBuffer cBuffer = cChannel.map( FileChannel.MapMode.READ_ONLY, position, length );
+        if (!sBuffer.equals( cBuffer )) {
+          return false;
+        }
+      }
+
+      return true;
+
+    } finally {
+      IOUtils.closeQuietly( sFile );
+      IOUtils.closeQuietly( cFile );
+    }
+  }
+
+  /**
+   * Streams the file once, collecting the tools the resolvers would count for
+   * it and, if a digest is given, hashing its canonical form: elements,
+   * sorted non-volatile attributes and text. Returns null if the file has to
+   * be compared in full.
+   */
+  private Map<String, List<String>> scan( File file, MessageDigest digest ) throws IOException, XMLStreamException {
+    return scan( new BufferedInputStream( new FileInputStream( file ) ), digest );
+  }
+
+  private Map<String, List<String>> scan( InputStream in, MessageDigest digest ) throws IOException,
+      XMLStreamException {
+    Map<String, List<String>> tools = new LinkedHashMap<String, List<String>>();
+    boolean full = false;
+    XMLStreamReader reader = null;
+    try {
+      reader = mInputFactory.createXMLStreamReader( in );
+      int depth = 0;
+      String section = null;
+      List<String> sectionTools = null;
+      Set<String> sections = new HashSet<String>();
+      // the keys the resolvers match the elements of the current section or metadata type by
+      Set<String> keys = null;
+      Map<String, String> identityTools = null;
+
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          String name = reader.getLocalName();
+          if (digest != null) {
+            updateElement( digest, reader );
+          }
+
+          if (depth == 2) {
+            section = name;
+            sectionTools = getTools( tools, section );
+            // the resolvers compare the first section of a name only
+            full |= SECTIONS.contains( section ) && !sections.add( section );
+            keys = new HashSet<String>();
+          } else if ("identification".equals( section )) {
+            if (depth == 3 && "identity".equals( name )) {
+              full |= !keys.add( key( reader.getAttributeValue( null, "format" ), reader.getAttributeValue( null,
+                  "mimetype" ), reader.getAttributeValue( null, "toolname" ) ) );
+              identityTools = new LinkedHashMap<String, String>();
+            } else if (depth == 4 && "tool".equals( name ) && identityTools != null) {
+              String tool = reader.getAttributeValue( null, "toolname" );
+              String version = reader.getAttributeValue( null, "toolversion" );
+              String previous = identityTools.put( tool, version );
+              // a tool without a version counts as new, of several versions only the last is compared
+              full |= tool == null || version == null || (previous != null && !previous.equals( version ));
+            }
+          } else if ("fileinfo".equals( section ) && depth == 3) {
+            // the first element of a name and tool is compared with each of them
+            full |= !addTool( sectionTools, reader ) || !keys.add( key( name, reader.getAttributeValue( null,
+                "toolname" ) ) );
+          } else if ("metadata".equals( section ) && depth == 3) {
+            full |= !keys.add( name );
+          } else if ("metadata".equals( section ) && depth == 4) {
+            full |= !addTool( sectionTools, reader );
+          }
+
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (depth == 3 && identityTools != null) {
+            sectionTools.addAll( identityTools.keySet() );
+            identityTools = null;
+          }
+          depth--;
+          if (digest != null) {
+            update( digest, ">" );
+          }
+
+        } else if (digest != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+          update( digest, "#" );
+          update( digest, reader.getText() );
+        }
+      }
+
+    } finally {
+      if (reader != null) {
+        reader.close();
+      }
+      IOUtils.closeQuietly( in );
+    }
+
+    return full ? null : tools;
+  }
+
+  private List<String> getTools( Map<String, List<String>> tools, String section ) {
+    List<String> list = tools.get( section );
+    if (list == null) {
+      list = new ArrayList<String>();
+      tools.put( section, list );
+    }
+    return list;
+  }
+
+  /**
+   * Adds the tool of the element, returns false if it has none.
+   */
+  private boolean addTool( Collection<String> tools, XMLStreamReader reader ) {
+    String tool = reader.getAttributeValue( null, "toolname" );
+    if (tool == null) {
+      return false;
+    }
+    tools.add( tool );
+    return true;
+  }
+
+  private String key( String... parts ) {
+    StringBuilder key = new StringBuilder();
+    for (String part : parts) {
+      key.append( part == null ? "\u0001" : part ).append( '\u0000' );
+    }
+    return key.toString();
+  }
+
+  private void updateElement( MessageDigest digest, XMLStreamReader reader ) {
+    update( digest, "<" );
+    update( digest, reader.getNamespaceURI() );
+    update( digest, reader.getLocalName() );
+
+    List<String> attributes = new ArrayList<String>();
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      String name = reader.getAttributeLocalName( i );
+      if (!VOLATILE_ATTRIBUTES.contains( name )) {
+        attributes.add( reader.getAttributeNamespace( i ) + "}" + name + "=" + reader.getAttributeValue( i ) );
+      }
+    }
+
+    Collections.sort( attributes );
+    for (String attribute : attributes) {
+      update( digest, "@" );
+      update( digest, attribute );
+    }
+  }
+
+  private void update( MessageDigest digest, String value ) {
+    if (value != null) {
+      digest.update( value.getBytes( UTF8 ) );
+    }
+    digest.update( (byte) 0 );
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance( "SHA-1" );
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException( e );
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package edu.harvard.hul.fdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+
+import edu.harvard.hul.fdc.cli.CLI;
+
+/**
+ * Compares the candidate files while FITS is still writing them. Each one is
+ * paired with its source as soon as it is complete, the source files left
+ * once the run is done are missing their candidate.
+ */
+class WatchRunner {
+
+  private Controller mController;
+
+  private CLI mCLI;
+
+  private LogWriter mLogger;
+
+  WatchRunner( Controller controller ) {
+    mController = controller;
+    mCLI = controller.getCLI();
+    mLogger = controller.getLogger();
+  }
+
+  void run() {
+    File candidateFolder = mController.getCandidateFolder();
+    File marker = mCLI.getDoneMarkerPath() == null ? null : new File( mCLI.getDoneMarkerPath() );
+    CandidateWatcher watcher = new CandidateWatcher( candidateFolder, marker, mCLI.getQuietPeriod() );
+    watcher.start();
+    mLogger.submitLog( "Watching " + candidateFolder.getAbsolutePath() + (watcher.isPolling() ? " by polling" : "")
+        + " until " + (marker == null ? "no file changed for " + mCLI.getQuietPeriod() / 1000 + "s" : marker
+            .getAbsolutePath() + " exists") );
+
+    Set<String> sourceFiles = new LinkedHashSet<String>( mController.getSourceFiles() );
+    final WatchedPairs pairs = new WatchedPairs( watcher, sourceFiles );
+    try {
+      mController.compareAll( new Iterable<String>() {
+        public Iterator<String> iterator() {
+          return pairs;
+        }
+      } );
+    } finally {
+      watcher.close();
+    }
+
+    // a stopped run does not know which candidates FITS would still have written
+    if (!mController.isStopped() && pairs.isDone()) {
+      for (String sf : sourceFiles) {
+        if (!mController.isSystemFile( sf )) {
+          mLogger.submitEvent( LogWriter.EVENT_MISSING_CANDIDATE, sf, null );
+          mController.getMissingCandidates().add( sf );
+          mController.handleState( ControllerState.FILE_MISSING_CANDIDATE );
+        }
+      }
+    }
+
+    mController.finishRun();
+  }
+
+  /**
+   * Hands out the paths of the complete candidate files that have a source,
+   * blocking until the watcher finds some. Candidates without a source are
+   * logged right away.
+   */
+  private class WatchedPairs implements Iterator<String> {
+
+    private CandidateWatcher mWatcher;
+
+    private Set<String> mSources;
+
+    private Queue<String> mPaths;
+
+    private boolean mDone;
+
+    private WatchedPairs( CandidateWatcher watcher, Set<String> sources ) {
+      mWatcher = watcher;
+      mSources = sources;
+      mPaths = new LinkedList<String>();
+    }
+
+    public boolean hasNext() {
+      while (mPaths.isEmpty() && !mDone) {
+        List<String> complete;
+        try {
+          complete = mWatcher.next();
+        } catch (IOException e) {
+          e.printStackTrace( mLogger.getErrors() );
+          mController.handleState( ControllerState.SYSTEM_ERROR );
+          complete = null;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          mController.handleState( ControllerState.SYSTEM_ERROR );
+          complete = null;
+        }
+
+        if (complete == null) {
+          mDone = true;
+        } else {
+          pair( complete );
+        }
+      }
+      return !mPaths.isEmpty();
+    }
+
+    private void pair( List<String> complete ) {
+      for (String cf : complete) {
+        if (!mController.isInShard( cf ) || mController.isSystemFile( cf )) {
+          continue;
+        }
+        if (mSources.remove( cf )) {
+          mPaths.add( cf );
+        } else {
+          mLogger.submitEvent( LogWriter.EVENT_MISSING_SOURCE, cf, null );
+          mController.getMissingSources().add( cf );
+          mController.handleState( ControllerState.FILE_MISSING_SOURCE );
+        }
+      }
+    }
+
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return mPaths.poll();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private boolean isDone() {
+      return mDone && mPaths.isEmpty();
+    }
+  }
+}
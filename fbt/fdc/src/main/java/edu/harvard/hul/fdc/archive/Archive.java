@@ -0,0 +1,202 @@
+package edu.harvard.hul.fdc.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import edu.harvard.hul.fdc.FitsFileScanner;
+
+/**
+ * The fits.xml files of an output folder that was archived, read without
+ * extracting them. Like the files of a folder they are identified by their
+ * path relative to it. An archive of the folder itself, with all entries in
+ * one top-level folder, is paired the same as an archive of its content,
+ * see {@link #pairWith(List)}. Zip archives are also read by path, see
+ * {@link RandomAccessArchive}.
+ */
+public abstract class Archive {
+
+  private static final String[] SUFFIXES = { ".zip", ".tar", ".tar.gz", ".tgz" };
+
+  /**
+   * Streams the files of an archive, in the order they are stored in.
+   */
+  public interface Entries {
+
+    /**
+     * Returns the path of the next file, null at the end.
+     */
+    String next() throws IOException;
+
+    /**
+     * Reads the content of the current file.
+     */
+    byte[] read() throws IOException;
+
+    void close();
+  }
+
+  private File mFile;
+
+  // the names of all files, to index them again once the root is decided
+  private List<String> mNames;
+
+  // the top-level folder all files are in, and whether it is stripped from their paths
+  private String mRoot;
+
+  private boolean mStripRoot;
+
+  protected Archive( File file ) {
+    mFile = file;
+  }
+
+  public static boolean isArchive( File file ) {
+    return isArchiveName( file.getName() ) && file.isFile();
+  }
+
+  /**
+   * Returns true if the name has the suffix of a supported archive, false
+   * for null.
+   */
+  public static boolean isArchiveName( String name ) {
+    if (name == null) {
+      return false;
+    }
+    name = name.toLowerCase( Locale.ENGLISH );
+    for (String suffix : SUFFIXES) {
+      if (name.endsWith( suffix )) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Opens a zip or (compressed) tar archive and lists its files.
+   */
+  public static Archive open( File file ) throws IOException {
+    Archive archive;
+    if (file.getName().toLowerCase( Locale.ENGLISH ).endsWith( ".zip" )) {
+      archive = new ZipArchive( file );
+    } else {
+      archive = new TarArchive( file );
+    }
+
+    try {
+      archive.mNames = archive.listEntries();
+      archive.mRoot = findRoot( archive.mNames );
+      archive.index( archive.mNames );
+    } catch (IOException e) {
+      archive.close();
+      throw e;
+    }
+    return archive;
+  }
+
+  public File getFile() {
+    return mFile;
+  }
+
+  /**
+   * Returns the paths of the fits.xml files, in the order they are stored
+   * in.
+   */
+  public abstract List<String> getPaths();
+
+  /**
+   * Strips the top-level folder all files are in from their paths, unless
+   * the files of the other side are in the same folder too. An archive of the
+   * output folder itself then pairs with the folder, with an archive of its
+   * content and with another archive of a folder, while an output folder
+   * whose files are all in one subfolder still pairs with its archive. If the
+   * files of the other side are not known, null, e.g. while FITS still writes
+   * them, the folder is only stripped if it is named like the archive.
+   */
+  public void pairWith( List<String> otherPaths ) {
+    if (mRoot == null) {
+      return;
+    }
+
+    boolean strip = false;
+    if (otherPaths == null) {
+      strip = mRoot.equals( getBaseName() + "/" );
+    } else {
+      for (String path : otherPaths) {
+        if (!path.startsWith( mRoot )) {
+          strip = true;
+          break;
+        }
+      }
+    }
+    if (strip != mStripRoot) {
+      mStripRoot = strip;
+      index( mNames );
+    }
+  }
+
+  public abstract Entries entries() throws IOException;
+
+  public abstract void close();
+
+  /**
+   * Lists the names of all files, without folders.
+   */
+  protected abstract List<String> listEntries() throws IOException;
+
+  protected abstract void index( List<String> names );
+
+  /**
+   * Returns the path of the entry relative to the archived folder, or null
+   * if it is not a fits.xml file.
+   */
+  protected String toPath( String name ) {
+    String path = stripDot( name );
+    if (mStripRoot) {
+      path = path.substring( mRoot.length() );
+    }
+    return path.endsWith( FitsFileScanner.FITS_SUFFIX ) ? path : null;
+  }
+
+  /**
+   * Returns the name of the archive without its suffix.
+   */
+  private String getBaseName() {
+    String name = mFile.getName();
+    for (String suffix : SUFFIXES) {
+      if (name.toLowerCase( Locale.ENGLISH ).endsWith( suffix )) {
+        return name.substring( 0, name.length() - suffix.length() );
+      }
+    }
+    return name;
+  }
+
+  private static String stripDot( String name ) {
+    while (name.startsWith( "./" )) {
+      name = name.substring( 2 );
+    }
+    return name;
+  }
+
+  /**
+   * Returns the top-level folder all files are in, including its '/', or
+   * null if there is none.
+   */
+  private static String findRoot( List<String> names ) {
+    String root = null;
+    for (String name : names) {
+      name = stripDot( name );
+      int slash = name.indexOf( '/' );
+      if (slash < 0) {
+        return null;
+      }
+      String first = name.substring( 0, slash + 1 );
+      if (root == null) {
+        root = first;
+      } else if (!root.equals( first )) {
+        return null;
+      }
+    }
+    return root;
+  }
+}
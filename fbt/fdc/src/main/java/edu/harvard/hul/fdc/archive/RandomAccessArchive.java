@@ -0,0 +1,42 @@
+package edu.harvard.hul.fdc.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An archive whose files can be read by their path, in any order.
+ */
+public abstract class RandomAccessArchive extends Archive {
+
+  protected RandomAccessArchive( File file ) {
+    super( file );
+  }
+
+  /**
+   * Reads the file with the path.
+   */
+  public abstract byte[] read( String path ) throws IOException;
+
+  @Override
+  public Entries entries() {
+    final Iterator<String> iterator = new ArrayList<String>( getPaths() ).iterator();
+    return new Entries() {
+      private String mPath;
+
+      public String next() {
+        mPath = iterator.hasNext() ? iterator.next() : null;
+        return mPath;
+      }
+
+      public byte[] read() throws IOException {
+        return RandomAccessArchive.this.read( mPath );
+      }
+
+      public void close() {
+      }
+    };
+  }
+}
@@ -0,0 +1,270 @@
+package edu.harvard.hul.fdc.archive;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A tar archive, optionally gzip compressed, which can only be streamed.
+ * Reads ustar headers with their name prefix, GNU long names and pax paths.
+ * Links and special files are skipped.
+ */
+public class TarArchive extends Archive {
+
+  private static final int BLOCK = 512;
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private List<String> mPaths;
+
+  TarArchive( File file ) {
+    super( file );
+  }
+
+  @Override
+  public List<String> getPaths() {
+    return mPaths;
+  }
+
+  @Override
+  public Entries entries() throws IOException {
+    final TarReader reader = new TarReader( open() );
+    return new Entries() {
+      public String next() throws IOException {
+        String name;
+        while ((name = reader.next()) != null) {
+          String path = toPath( name );
+          if (path != null) {
+            return path;
+          }
+        }
+        return null;
+      }
+
+      public byte[] read() throws IOException {
+        return reader.read();
+      }
+
+      public void close() {
+        IOUtils.closeQuietly( reader.mIn );
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    // every stream is closed by its reader
+  }
+
+  @Override
+  protected List<String> listEntries() throws IOException {
+    List<String> names = new ArrayList<String>();
+    TarReader reader = new TarReader( open() );
+    try {
+      String name;
+      while ((name = reader.next()) != null) {
+        names.add( name );
+      }
+    } finally {
+      IOUtils.closeQuietly( reader.mIn );
+    }
+    return names;
+  }
+
+  @Override
+  protected void index( List<String> names ) {
+    mPaths = new ArrayList<String>();
+    Set<String> seen = new HashSet<String>();
+    for (String name : names) {
+      String path = toPath( name );
+      if (path != null && seen.add( path )) {
+        mPaths.add( path );
+      }
+    }
+  }
+
+  /**
+   * Opens the archive, decompressing it if it starts with the gzip magic
+   * bytes, whatever its name.
+   */
+  private InputStream open() throws IOException {
+    InputStream in = new BufferedInputStream( new FileInputStream( getFile() ), 64 * 1024 );
+    try {
+      in.mark( 2 );
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if (first == 0x1f && second == 0x8b) {
+        return new BufferedInputStream( new GZIPInputStream( in, 64 * 1024 ), 64 * 1024 );
+      }
+      return in;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static class TarReader {
+
+    private InputStream mIn;
+
+    private byte[] mHeader;
+
+    // the data of the current entry that was not read yet, and its padding
+    private long mRemaining;
+
+    private long mPadding;
+
+    private TarReader( InputStream in ) {
+      mIn = in;
+      mHeader = new byte[BLOCK];
+    }
+
+    /**
+     * Returns the name of the next regular file, null at the end.
+     */
+    private String next() throws IOException {
+      skip();
+      String longName = null;
+      String paxPath = null;
+      while (readHeader()) {
+        long size = parseSize();
+        mRemaining = size;
+        mPadding = (BLOCK - size % BLOCK) % BLOCK;
+
+        byte type = mHeader[156];
+        if (type == 'L') {
+          longName = cString( read(), 0, (int) size );
+        } else if (type == 'x') {
+          String path = paxPath( read() );
+          paxPath = path == null ? paxPath : path;
+        } else if (type == '0' || type == 0 || type == '7') {
+          return paxPath != null ? paxPath : longName != null ? longName : headerName();
+        } else {
+          // folders, links, global headers and anything else
+          skip();
+          longName = null;
+          paxPath = null;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Reads the data of the current entry.
+     */
+    private byte[] read() throws IOException {
+      if (mRemaining > Integer.MAX_VALUE - 8) {
+        throw new IOException( "Entry too large to compare: " + mRemaining + " bytes" );
+      }
+      byte[] data = new byte[(int) mRemaining];
+      IOUtils.readFully( mIn, data );
+      mRemaining = 0;
+      skip();
+      return data;
+    }
+
+    private void skip() throws IOException {
+      IOUtils.skipFully( mIn, mRemaining + mPadding );
+      mRemaining = 0;
+      mPadding = 0;
+    }
+
+    /**
+     * Reads the next header, returns false at the end of the archive.
+     */
+    private boolean readHeader() throws IOException {
+      int read = IOUtils.read( mIn, mHeader );
+      if (read == 0) {
+        // archives written without the end blocks
+        return false;
+      }
+      if (read < BLOCK) {
+        throw new EOFException( "Truncated tar header" );
+      }
+
+      for (byte b : mHeader) {
+        if (b != 0) {
+          return true;
+        }
+      }
+      // the first of the two zero blocks that end the archive
+      return false;
+    }
+
+    private long parseSize() throws IOException {
+      if ((mHeader[124] & 0x80) != 0) {
+        // base-256 for sizes of 8 GB and more
+        long size = 0;
+        for (int i = 125; i < 136; i++) {
+          size = (size << 8) | (mHeader[i] & 0xff);
+        }
+        return size;
+      }
+
+      String octal = cString( mHeader, 124, 12 ).trim();
+      try {
+        return octal.isEmpty() ? 0 : Long.parseLong( octal, 8 );
+      } catch (NumberFormatException e) {
+        throw new IOException( "Not a tar archive, invalid entry size: " + octal );
+      }
+    }
+
+    private String headerName() {
+      String name = cString( mHeader, 0, 100 );
+      boolean ustar = "ustar".equals( cString( mHeader, 257, 5 ) );
+      String prefix = ustar ? cString( mHeader, 345, 155 ) : "";
+      return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * Returns the path of a pax header, made of "length key=value\n"
+     * records, or null if it has none.
+     */
+    private static String paxPath( byte[] data ) {
+      String path = null;
+      int position = 0;
+      while (position < data.length) {
+        int space = position;
+        while (space < data.length && data[space] != ' ') {
+          space++;
+        }
+        int length;
+        try {
+          length = Integer.parseInt( new String( data, position, space - position, UTF8 ) );
+        } catch (NumberFormatException e) {
+          return path;
+        }
+        if (length <= 0 || position + length > data.length) {
+          return path;
+        }
+
+        String record = new String( data, space + 1, position + length - space - 2, UTF8 );
+        if (record.startsWith( "path=" )) {
+          path = record.substring( 5 );
+        }
+        position += length;
+      }
+      return path;
+    }
+
+    private static String cString( byte[] bytes, int offset, int length ) {
+      int end = offset;
+      while (end < offset + length && bytes[end] != 0) {
+        end++;
+      }
+      return new String( bytes, offset, end - offset, UTF8 );
+    }
+  }
+}
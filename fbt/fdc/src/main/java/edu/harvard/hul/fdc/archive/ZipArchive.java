@@ -0,0 +1,90 @@
+package edu.harvard.hul.fdc.archive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A zip archive, read by entry name through its central directory. Safe for
+ * reads by several threads.
+ */
+public class ZipArchive extends RandomAccessArchive {
+
+  private ZipFile mZip;
+
+  private List<String> mPaths;
+
+  // the entry names by path
+  private Map<String, String> mNames;
+
+  ZipArchive( File file ) throws IOException {
+    super( file );
+    mZip = new ZipFile( file );
+  }
+
+  @Override
+  public List<String> getPaths() {
+    return mPaths;
+  }
+
+  @Override
+  public byte[] read( String path ) throws IOException {
+    String name = mNames.get( path );
+    ZipEntry entry = name == null ? null : mZip.getEntry( name );
+    if (entry == null) {
+      throw new FileNotFoundException( path + " in " + getFile() );
+    }
+
+    InputStream in = mZip.getInputStream( entry );
+    try {
+      return IOUtils.toByteArray( in );
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      mZip.close();
+    } catch (IOException e) {
+      // only read from
+    }
+  }
+
+  @Override
+  protected List<String> listEntries() {
+    List<String> names = new ArrayList<String>();
+    Enumeration<? extends ZipEntry> entries = mZip.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      if (!entry.isDirectory()) {
+        names.add( entry.getName() );
+      }
+    }
+    return names;
+  }
+
+  @Override
+  protected void index( List<String> names ) {
+    mPaths = new ArrayList<String>();
+    mNames = new HashMap<String, String>();
+    for (String name : names) {
+      String path = toPath( name );
+      if (path != null && !mNames.containsKey( path )) {
+        mPaths.add( path );
+        mNames.put( path, name );
+      }
+    }
+  }
+}
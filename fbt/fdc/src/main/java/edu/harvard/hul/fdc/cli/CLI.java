@@ -1,7 +1,13 @@
 package edu.harvard.hul.fdc.cli;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -9,19 +15,106 @@ import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import edu.harvard.hul.fdc.ExecutorFactory;
+import edu.harvard.hul.fdc.FitsXMLComparator;
+import edu.harvard.hul.fdc.LogWriter;
+import edu.harvard.hul.fdc.archive.Archive;
+import edu.harvard.hul.fdc.report.ReportWriter;
 
 public class CLI {
 
+  public static final String COMMAND_MERGE = "merge";
+
+  public static final String COMMAND_SERVE = "serve";
+
+  public static final String COMMAND_SNAPSHOT = "snapshot";
+
+  public static final String COMMAND_LOCATE = "locate";
+
+  public static final int DEFAULT_SERVER_PORT = 7435;
+
   private CommandLineParser mParser;
 
   private Options mOptions;
 
   private String mComparisonKey;
 
+  private List<String> mComparisonKeys;
+
   private String mSourceFolder;
 
   private String mCandidateFolder;
 
+  private List<String> mCandidateFolders;
+
+  private int mThreads;
+
+  private String mExecutorType;
+
+  private String mEngine;
+
+  private boolean mFastPath;
+
+  private String mCacheFolder;
+
+  private long mCacheSize;
+
+  private String mLogFile;
+
+  private String mLogFormat;
+
+  private long mLogMaxSize;
+
+  private String mReportFile;
+
+  private List<String> mReportFiles;
+
+  private String mReportFormat;
+
+  private int mShard;
+
+  private int mShards;
+
+  private String mPartialFile;
+
+  private boolean mMerge;
+
+  private List<String> mPartialFiles;
+
+  private boolean mFailFast;
+
+  private int mSampleSize;
+
+  private long mSampleSeed;
+
+  private boolean mWatch;
+
+  private String mDoneMarker;
+
+  private long mQuietPeriod;
+
+  private boolean mServe;
+
+  private boolean mSnapshot;
+
+  private boolean mLocate;
+
+  private List<String> mLocateFolders;
+
+  private String mMetricsFile;
+
+  private long mMemoryBudget;
+
+  private int mReadAhead;
+
+  private int mReadAheadThreads;
+
+  private String mSnapshotFile;
+
+  private int mServerPort;
+
+  private File mClientDirectory;
+
   public CLI() {
     mParser = new GnuParser();
     mOptions = new Options();
@@ -29,19 +122,163 @@ public class CLI {
         "k",
         "comparison-key",
         true,
-        "Some comparison key that helps distinguish the versions that are being compared."
+        "Some comparison key that helps distinguish the versions that are being compared. Given once per candidate when there are several."
         );
     mOptions.addOption(
         "s",
         "source",
         true,
-        "A folder that contains the output fits.xml files from the current stable version used to compare against."
+        "A folder that contains the output fits.xml files from the current stable version used to compare against, a .zip, .tar or .tar.gz archive of it, or a snapshot of it created with: fbt snapshot -s folder file"
         );
     mOptions.addOption(
         "c",
         "candidate",
         true,
-        "A folder that contains the output fits.xml files from the merge candidate version."
+        "A folder that contains the output fits.xml files from the merge candidate version, or a .zip, .tar or .tar.gz archive of it. Given several times, the source files are parsed once and compared with each candidate folder."
+        );
+    mOptions.addOption(
+        null,
+        "threads",
+        true,
+        "The number of threads used to compare files. Defaults to 1."
+        );
+    mOptions.addOption(
+        null,
+        "executor",
+        true,
+        "The executor used when comparing with more than one thread: fixed (default), forkjoin or virtual."
+        );
+    mOptions.addOption(
+        null,
+        "mode",
+        true,
+        "The comparison engine: dom4j (default) parses whole documents and is kept as reference, stax streams the files section by section."
+        );
+    mOptions.addOption(
+        null,
+        "no-fast-path",
+        false,
+        "Compares every pair, even if the files are identical or only differ in timestamps."
+        );
+    mOptions.addOption(
+        null,
+        "cache",
+        true,
+        "A folder that caches the results of compared pairs across runs. Disabled by default."
+        );
+    mOptions.addOption(
+        null,
+        "cache-size",
+        true,
+        "The maximum size of the cache folder in megabytes. Defaults to 512."
+        );
+    mOptions.addOption(
+        null,
+        "log",
+        true,
+        "The log file. Defaults to bbt-logs/log.txt in the temp folder."
+        );
+    mOptions.addOption(
+        null,
+        "log-format",
+        true,
+        "The format of the log file: text (default) or ndjson, one JSON event per line."
+        );
+    mOptions.addOption(
+        null,
+        "log-max-size",
+        true,
+        "The size in megabytes after which the log file is rotated, 0 never rotates. Defaults to 100."
+        );
+    mOptions.addOption(
+        null,
+        "report",
+        true,
+        "A file the report is written to. By default the report is written to the console and the log file. Given once per candidate when there are several."
+        );
+    mOptions.addOption(
+        null,
+        "report-format",
+        true,
+        "The format of the report: text (default), json or csv."
+        );
+    mOptions.addOption(
+        null,
+        "shard",
+        true,
+        "Compares only the files of shard i of n, e.g. 2/4, chosen by a hash of their relative path. Requires --partial."
+        );
+    mOptions.addOption(
+        null,
+        "partial",
+        true,
+        "Writes the results to a partial result file instead of a report. The partial results of all shards are combined with: fbt merge [options] partial..."
+        );
+    mOptions.addOption(
+        null,
+        "fail-fast",
+        false,
+        "Stops at the first missing file or mismatching value, e.g. for git bisect. Checks over all files are skipped then."
+        );
+    mOptions.addOption(
+        null,
+        "sample",
+        true,
+        "Compares only a sample of about this many pairs, stratified by the identified format, and estimates the mismatch rates of all files."
+        );
+    mOptions.addOption(
+        null,
+        "sample-seed",
+        true,
+        "The seed the sample is picked with. Defaults to 1."
+        );
+    mOptions.addOption(
+        null,
+        "watch",
+        false,
+        "Compares the candidate files as soon as FITS has written them, while it is still running."
+        );
+    mOptions.addOption(
+        null,
+        "done-marker",
+        true,
+        "A file that marks the end of a --watch run once it exists, e.g. touched after FITS finished."
+        );
+    mOptions.addOption(
+        null,
+        "quiet-period",
+        true,
+        "Without a done marker, a --watch run ends once no candidate file appeared or changed for this many seconds. Defaults to 60."
+        );
+    mOptions.addOption(
+        null,
+        "metrics",
+        true,
+        "A file the timings of the phases of the run and the slowest and largest files are written to as JSON. They can also be watched through JMX while the run is going."
+        );
+    mOptions.addOption(
+        null,
+        "memory-budget",
+        true,
+        "The megabytes the file names of the run may take up in memory. Above that they are spilled to temporary files and sorted from there for the report. Without it all names are kept in memory."
+        );
+    mOptions.addOption(
+        null,
+        "read-ahead",
+        true,
+        "Reads this many pairs ahead of the comparison on separate threads, for storage where reading is slow, e.g. network mounts. Defaults to 0, the files are read by the comparison."
+        );
+    mOptions.addOption(
+        null,
+        "read-ahead-threads",
+        true,
+        "The number of threads reading ahead, see --read-ahead. Defaults to 4."
+        );
+    mOptions.addOption(
+        null,
+        "server",
+        true,
+        "Runs the comparison on the comparator server on this local port instead of in a new JVM. The server is started with: fbt serve [--server port]"
         );
     mOptions.addOption(
         "h",
@@ -51,29 +288,441 @@ public class CLI {
         );
   }
 
+  /**
+   * Parses the arguments on behalf of a client of the comparator server:
+   * relative paths are resolved against the working directory of the client
+   * and the client cannot start or forward to another server.
+   */
+  public void setClientDirectory( File directory ) {
+    mClientDirectory = directory;
+  }
+
   public void parse( String... args ) throws ParseException {
-    CommandLine cmd = mParser.parse( mOptions, args );
+    // merges partial results or serves comparisons instead of comparing folders
+    mMerge = args.length > 0 && COMMAND_MERGE.equals( args[0] );
+    mServe = args.length > 0 && COMMAND_SERVE.equals( args[0] );
+    mSnapshot = args.length > 0 && COMMAND_SNAPSHOT.equals( args[0] );
+    mLocate = args.length > 0 && COMMAND_LOCATE.equals( args[0] );
+    boolean command = mMerge || mServe || mSnapshot || mLocate;
+    CommandLine cmd = mParser.parse( mOptions, command ? Arrays.copyOfRange( args, 1, args.length ) : args );
 
     if ( cmd.hasOption( 'h' ) ) {
       throw new ParseException( "HELP" );
     }
-    
-    if (cmd.hasOption( 's' )) {
-      mSourceFolder = cmd.getOptionValue( 's' );
+
+    parseServer( cmd );
+    if (mServe) {
+      return;
+    }
+
+    mCandidateFolder = null;
+    mCandidateFolders = Collections.emptyList();
+    if (mMerge) {
+      parsePartialFiles( cmd );
     } else {
-      throw new ParseException( "Please provide a source folder containing fits.xml files from the current stable version" );
+      if (cmd.hasOption( 's' )) {
+        mSourceFolder = cmd.getOptionValue( 's' );
+      } else {
+        throw new ParseException( "Please provide a source folder containing fits.xml files from the current stable version" );
+      }
+
+      if (mSnapshot) {
+        parseSnapshotFile( cmd );
+      } else if (mLocate) {
+        parseLocateFolders( cmd );
+      } else {
+        parseCandidateFolders( cmd );
+      }
+    }
+
+    parseComparisonKeys( cmd );
+    parseComparison( cmd );
+    parseLog( cmd );
+    parseSelection( cmd );
+    parseWatch( cmd );
+    parseResources( cmd );
+    parseReports( cmd );
+
+    if (mClientDirectory != null) {
+      resolvePaths();
+    }
+  }
+
+  /**
+   * Reads the port of the comparator server to start or to run on, a client
+   * of the server runs on it.
+   */
+  private void parseServer( CommandLine cmd ) throws ParseException {
+    mServerPort = 0;
+    if (cmd.hasOption( "server" ) || mServe) {
+      mServerPort = DEFAULT_SERVER_PORT;
+      if (cmd.hasOption( "server" )) {
+        try {
+          mServerPort = Integer.parseInt( cmd.getOptionValue( "server" ) );
+        } catch (NumberFormatException e) {
+          throw new ParseException( "The server port must be a number: " + cmd.getOptionValue( "server" ) );
+        }
+      }
+    }
+    if (mClientDirectory != null) {
+      if (mServe) {
+        throw new ParseException( "The comparator server cannot start another server" );
+      }
+      mServerPort = 0;
+    }
+  }
+
+  private void parsePartialFiles( CommandLine cmd ) throws ParseException {
+    mPartialFiles = Arrays.asList( cmd.getArgs() );
+    if (mPartialFiles.isEmpty()) {
+      throw new ParseException( "Please provide the partial result files to merge" );
+    }
+  }
+
+  private void parseSnapshotFile( CommandLine cmd ) throws ParseException {
+    if (Archive.isArchiveName( mSourceFolder )) {
+      throw new ParseException( "A snapshot is taken of a source folder, not of an archive" );
     }
-    
+    if (cmd.getArgs().length != 1) {
+      throw new ParseException( "Please provide the file to write the snapshot of the source folder to" );
+    }
+    mSnapshotFile = cmd.getArgs()[0];
+  }
+
+  private void parseLocateFolders( CommandLine cmd ) throws ParseException {
     if (cmd.hasOption( 'c' )) {
-      mCandidateFolder = cmd.getOptionValue( 'c' );
-    } else {
+      throw new ParseException( "The folders to locate the first difference in are given as arguments, not with -c" );
+    }
+    mLocateFolders = Arrays.asList( cmd.getArgs() );
+    if (mLocateFolders.isEmpty()) {
+      throw new ParseException( "Please provide the output folders to locate the first difference in, in order" );
+    }
+  }
+
+  /**
+   * Reads the candidate folders, several are compared in one pass.
+   */
+  private void parseCandidateFolders( CommandLine cmd ) throws ParseException {
+    if (!cmd.hasOption( 'c' )) {
       throw new ParseException( "Please provide a candidate folder containing fits.xml files from the merge-candidate version" );
     }
-    
-    if (cmd.hasOption( 'k' )) {
-      mComparisonKey = cmd.getOptionValue( 'k' );
+    mCandidateFolders = Arrays.asList( cmd.getOptionValues( 'c' ) );
+    mCandidateFolder = mCandidateFolders.get( 0 );
+  }
+
+  /**
+   * Reads how the pairs are compared: threads, engine, fast path and cache.
+   */
+  private void parseComparison( CommandLine cmd ) throws ParseException {
+    mThreads = 1;
+    if (cmd.hasOption( "threads" )) {
+      try {
+        mThreads = Integer.parseInt( cmd.getOptionValue( "threads" ) );
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The number of threads must be a number: " + cmd.getOptionValue( "threads" ) );
+      }
+
+      if (mThreads < 1) {
+        throw new ParseException( "The number of threads must be at least 1" );
+      }
+    }
+
+    mExecutorType = ExecutorFactory.FIXED;
+    if (cmd.hasOption( "executor" )) {
+      mExecutorType = cmd.getOptionValue( "executor" );
+      if (!ExecutorFactory.isValidType( mExecutorType )) {
+        throw new ParseException( "Unknown executor: " + mExecutorType );
+      }
+    }
+
+    mEngine = FitsXMLComparator.ENGINE_DOM4J;
+    if (cmd.hasOption( "mode" )) {
+      mEngine = cmd.getOptionValue( "mode" );
+      if (!FitsXMLComparator.isValidEngine( mEngine )) {
+        throw new ParseException( "Unknown mode: " + mEngine );
+      }
+    }
+
+    mFastPath = !cmd.hasOption( "no-fast-path" );
+
+    mCacheFolder = cmd.getOptionValue( "cache" );
+    mCacheSize = 512L * 1024 * 1024;
+    if (cmd.hasOption( "cache-size" )) {
+      try {
+        mCacheSize = Long.parseLong( cmd.getOptionValue( "cache-size" ) ) * 1024 * 1024;
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The cache size must be a number: " + cmd.getOptionValue( "cache-size" ) );
+      }
+    }
+  }
+
+  private void parseLog( CommandLine cmd ) throws ParseException {
+    mLogFile = cmd.getOptionValue( "log" );
+    mLogFormat = LogWriter.FORMAT_TEXT;
+    if (cmd.hasOption( "log-format" )) {
+      mLogFormat = cmd.getOptionValue( "log-format" );
+      if (!LogWriter.isValidFormat( mLogFormat )) {
+        throw new ParseException( "Unknown log format: " + mLogFormat );
+      }
+    }
+
+    mLogMaxSize = 100L * 1024 * 1024;
+    if (cmd.hasOption( "log-max-size" )) {
+      try {
+        mLogMaxSize = Long.parseLong( cmd.getOptionValue( "log-max-size" ) ) * 1024 * 1024;
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The log size must be a number: " + cmd.getOptionValue( "log-max-size" ) );
+      }
+    }
+  }
+
+  /**
+   * Reads the options that compare part of the files: shards, fail-fast and
+   * samples.
+   */
+  private void parseSelection( CommandLine cmd ) throws ParseException {
+    mPartialFile = cmd.getOptionValue( "partial" );
+    mShard = 1;
+    mShards = 1;
+    if (cmd.hasOption( "shard" )) {
+      parseShard( cmd.getOptionValue( "shard" ) );
+      if (mPartialFile == null) {
+        throw new ParseException( "A shard needs a partial result file, see --partial" );
+      }
+    }
+
+    mFailFast = cmd.hasOption( "fail-fast" );
+    if (mFailFast && mPartialFile != null) {
+      throw new ParseException( "A partial result has to be complete, --fail-fast cannot be combined with --partial" );
+    }
+
+    mSampleSize = 0;
+    if (cmd.hasOption( "sample" )) {
+      try {
+        mSampleSize = Integer.parseInt( cmd.getOptionValue( "sample" ) );
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The sample size must be a number: " + cmd.getOptionValue( "sample" ) );
+      }
+
+      if (mSampleSize < 1) {
+        throw new ParseException( "The sample size must be at least 1" );
+      }
+      if (mPartialFile != null) {
+        throw new ParseException( "A partial result has to be complete, --sample cannot be combined with --partial" );
+      }
+      if (Archive.isArchiveName( mSourceFolder )) {
+        throw new ParseException( "A sample is drawn by reading the source files upfront, --sample needs a source folder or snapshot, not an archive" );
+      }
+    }
+
+    mSampleSeed = 1;
+    if (cmd.hasOption( "sample-seed" )) {
+      try {
+        mSampleSeed = Long.parseLong( cmd.getOptionValue( "sample-seed" ) );
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The sample seed must be a number: " + cmd.getOptionValue( "sample-seed" ) );
+      }
+    }
+  }
+
+  private void parseWatch( CommandLine cmd ) throws ParseException {
+    mWatch = cmd.hasOption( "watch" );
+    if (mWatch && mSampleSize > 0) {
+      throw new ParseException( "A sample needs all candidate files upfront, --sample cannot be combined with --watch" );
+    }
+    if (mWatch && Archive.isArchiveName( mCandidateFolder )) {
+      throw new ParseException( "A --watch run watches the candidate folder FITS writes to, not an archive" );
+    }
+
+    mDoneMarker = cmd.getOptionValue( "done-marker" );
+    mQuietPeriod = 60 * 1000L;
+    if (cmd.hasOption( "quiet-period" )) {
+      try {
+        mQuietPeriod = Long.parseLong( cmd.getOptionValue( "quiet-period" ) ) * 1000;
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The quiet period must be a number: " + cmd.getOptionValue( "quiet-period" ) );
+      }
+    }
+  }
+
+  /**
+   * Reads the metrics file and the limits of the read-ahead and memory.
+   */
+  private void parseResources( CommandLine cmd ) throws ParseException {
+    mMetricsFile = cmd.getOptionValue( "metrics" );
+
+    mReadAhead = 0;
+    if (cmd.hasOption( "read-ahead" )) {
+      try {
+        mReadAhead = Integer.parseInt( cmd.getOptionValue( "read-ahead" ) );
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The read-ahead depth must be a number: " + cmd.getOptionValue( "read-ahead" ) );
+      }
+
+      if (mReadAhead < 0) {
+        throw new ParseException( "The read-ahead depth cannot be negative" );
+      }
+    }
+
+    mReadAheadThreads = 4;
+    if (cmd.hasOption( "read-ahead-threads" )) {
+      try {
+        mReadAheadThreads = Integer.parseInt( cmd.getOptionValue( "read-ahead-threads" ) );
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The number of read-ahead threads must be a number: " + cmd.getOptionValue(
+            "read-ahead-threads" ) );
+      }
+
+      if (mReadAheadThreads < 1) {
+        throw new ParseException( "At least one thread has to read ahead" );
+      }
+    }
+
+    mMemoryBudget = 0;
+    if (cmd.hasOption( "memory-budget" )) {
+      try {
+        mMemoryBudget = Long.parseLong( cmd.getOptionValue( "memory-budget" ) ) * 1024 * 1024;
+      } catch (NumberFormatException e) {
+        throw new ParseException( "The memory budget must be a number: " + cmd.getOptionValue( "memory-budget" ) );
+      }
+
+      if (mMemoryBudget < 1) {
+        throw new ParseException( "The memory budget must be at least 1 megabyte" );
+      }
+    }
+  }
+
+  private void parseReports( CommandLine cmd ) throws ParseException {
+    mReportFiles = cmd.hasOption( "report" ) ? Arrays.asList( cmd.getOptionValues( "report" ) ) : Collections.<String> emptyList();
+    mReportFile = mReportFiles.isEmpty() ? null : mReportFiles.get( 0 );
+    if (isSeveralCandidates()) {
+      if (!mReportFiles.isEmpty() && mReportFiles.size() != mCandidateFolders.size()) {
+        throw new ParseException( "Please provide one report file per candidate" );
+      }
+      checkCandidatePass( "Several candidates", mCandidateFolders );
+    } else if (mLocate) {
+      checkCandidatePass( "Locating", mLocateFolders );
+    }
+    if (mReportFiles.size() > 1 && !isSeveralCandidates()) {
+      throw new ParseException( "Please provide a single report file" );
+    }
+
+    mReportFormat = ReportWriter.FORMAT_TEXT;
+    if (cmd.hasOption( "report-format" )) {
+      mReportFormat = cmd.getOptionValue( "report-format" );
+      if (!ReportWriter.isValidFormat( mReportFormat )) {
+        throw new ParseException( "Unknown report format: " + mReportFormat );
+      }
+    }
+  }
+
+  /**
+   * Reads one comparison key per candidate, several candidates without keys
+   * are told apart by their number.
+   */
+  private void parseComparisonKeys( CommandLine cmd ) throws ParseException {
+    String timestamp = new SimpleDateFormat( "yyyyMMdd_HHmmss" ).format( new Date() );
+    if (!cmd.hasOption( 'k' )) {
+      mComparisonKeys = new ArrayList<String>();
+      for (int i = 1; i <= mCandidateFolders.size(); i++) {
+        mComparisonKeys.add( isSeveralCandidates() ? timestamp + "_" + i : timestamp );
+      }
+    } else if (isSeveralCandidates()) {
+      mComparisonKeys = Arrays.asList( cmd.getOptionValues( 'k' ) );
+      if (mComparisonKeys.size() != mCandidateFolders.size()) {
+        throw new ParseException( "Please provide one comparison key per candidate" );
+      }
+      if (new HashSet<String>( mComparisonKeys ).size() != mComparisonKeys.size()) {
+        throw new ParseException( "The comparison keys of the candidates must differ" );
+      }
     } else {
-      mComparisonKey = new SimpleDateFormat( "yyyyMMdd_HHmmss" ).format( new Date() );
+      mComparisonKeys = Collections.singletonList( cmd.getOptionValue( 'k' ) );
+    }
+
+    if (mComparisonKeys.isEmpty()) {
+      // merging and snapshots have no candidate
+      mComparisonKey = cmd.hasOption( 'k' ) ? cmd.getOptionValue( 'k' ) : timestamp;
+    } else {
+      mComparisonKey = join( mComparisonKeys );
+    }
+  }
+
+  /**
+   * Checks the options of a run that compares the source files with the
+   * candidate folders in one pass each, which needs folders and a source
+   * folder or snapshot, and compares every pair.
+   */
+  private void checkCandidatePass( String run, List<String> folders ) throws ParseException {
+    for (String folder : folders) {
+      if (Archive.isArchiveName( folder )) {
+        throw new ParseException( run + " compares folders, not archives: " + folder );
+      }
+    }
+    if (Archive.isArchiveName( mSourceFolder )) {
+      throw new ParseException( run + " needs a source folder or snapshot, not an archive" );
+    }
+
+    String option = mWatch ? "--watch" : mSampleSize > 0 ? "--sample" : mPartialFile != null ? "--partial"
+        : mCacheFolder != null ? "--cache" : mReadAhead > 0 ? "--read-ahead" : null;
+    if (option != null) {
+      throw new ParseException( run + " cannot be combined with " + option );
+    }
+  }
+
+  private static String join( List<String> values ) {
+    StringBuilder joined = new StringBuilder();
+    for (String value : values) {
+      joined.append( joined.length() == 0 ? "" : ", " ).append( value );
+    }
+    return joined.toString();
+  }
+
+  private void resolvePaths() {
+    mSourceFolder = resolve( mSourceFolder );
+    mCandidateFolder = resolve( mCandidateFolder );
+    mCandidateFolders = resolve( mCandidateFolders );
+    mCacheFolder = resolve( mCacheFolder );
+    mLogFile = resolve( mLogFile );
+    mReportFile = resolve( mReportFile );
+    mReportFiles = resolve( mReportFiles );
+    mPartialFile = resolve( mPartialFile );
+    mDoneMarker = resolve( mDoneMarker );
+    mSnapshotFile = resolve( mSnapshotFile );
+    mMetricsFile = resolve( mMetricsFile );
+    if (mPartialFiles != null) {
+      mPartialFiles = resolve( mPartialFiles );
+    }
+    if (mLocateFolders != null) {
+      mLocateFolders = resolve( mLocateFolders );
+    }
+  }
+
+  private List<String> resolve( List<String> paths ) {
+    List<String> resolved = new ArrayList<String>();
+    for (String path : paths) {
+      resolved.add( resolve( path ) );
+    }
+    return resolved;
+  }
+
+  private String resolve( String path ) {
+    if (path == null || new File( path ).isAbsolute()) {
+      return path;
+    }
+    return new File( mClientDirectory, path ).getPath();
+  }
+
+  private void parseShard( String shard ) throws ParseException {
+    int slash = shard.indexOf( '/' );
+    try {
+      mShard = Integer.parseInt( shard.substring( 0, slash ) );
+      mShards = Integer.parseInt( shard.substring( slash + 1 ) );
+    } catch (RuntimeException e) {
+      throw new ParseException( "The shard must look like i/n: " + shard );
+    }
+
+    if (mShards < 1 || mShard < 1 || mShard > mShards) {
+      throw new ParseException( "The shard must be between 1 and n: " + shard );
     }
   }
 
@@ -93,10 +742,21 @@ public class CLI {
     mOptions = options;
   }
 
+  /**
+   * Returns the comparison key of the run, with several candidates their
+   * keys joined.
+   */
   public String getComparisonKey() {
     return mComparisonKey;
   }
 
+  /**
+   * Returns the comparison key of each candidate.
+   */
+  public List<String> getComparisonKeys() {
+    return mComparisonKeys;
+  }
+
   public String getSourceFolderPath() {
     return mSourceFolder;
   }
@@ -104,4 +764,168 @@ public class CLI {
   public String getCandidateFolderPath() {
     return mCandidateFolder;
   }
+
+  public List<String> getCandidateFolderPaths() {
+    return mCandidateFolders;
+  }
+
+  /**
+   * Returns true if the source is compared with more than one candidate.
+   */
+  public boolean isSeveralCandidates() {
+    return mCandidateFolders != null && mCandidateFolders.size() > 1;
+  }
+
+  public int getThreads() {
+    return mThreads;
+  }
+
+  public String getExecutorType() {
+    return mExecutorType;
+  }
+
+  public String getEngine() {
+    return mEngine;
+  }
+
+  public boolean isFastPath() {
+    return mFastPath;
+  }
+
+  public String getCacheFolderPath() {
+    return mCacheFolder;
+  }
+
+  public long getCacheSize() {
+    return mCacheSize;
+  }
+
+  public String getLogFilePath() {
+    return mLogFile;
+  }
+
+  public String getLogFormat() {
+    return mLogFormat;
+  }
+
+  public long getLogMaxSize() {
+    return mLogMaxSize;
+  }
+
+  public String getReportFilePath() {
+    return mReportFile;
+  }
+
+  /**
+   * Returns the report file of each candidate, empty if the reports are
+   * written to the console and the log file.
+   */
+  public List<String> getReportFilePaths() {
+    return mReportFiles;
+  }
+
+  public String getReportFormat() {
+    return mReportFormat;
+  }
+
+  public int getShard() {
+    return mShard;
+  }
+
+  public int getShards() {
+    return mShards;
+  }
+
+  public String getPartialFilePath() {
+    return mPartialFile;
+  }
+
+  public int getSampleSize() {
+    return mSampleSize;
+  }
+
+  public long getSampleSeed() {
+    return mSampleSeed;
+  }
+
+  public boolean isWatch() {
+    return mWatch;
+  }
+
+  public String getDoneMarkerPath() {
+    return mDoneMarker;
+  }
+
+  /**
+   * Returns the quiet period of a watch run in milliseconds.
+   */
+  public long getQuietPeriod() {
+    return mQuietPeriod;
+  }
+
+  public String getMetricsFilePath() {
+    return mMetricsFile;
+  }
+
+  /**
+   * Returns how many pairs are read ahead of the comparison, 0 if none.
+   */
+  public int getReadAhead() {
+    return mReadAhead;
+  }
+
+  public int getReadAheadThreads() {
+    return mReadAheadThreads;
+  }
+
+  /**
+   * Returns the memory budget in bytes, 0 if there is none.
+   */
+  public long getMemoryBudget() {
+    return mMemoryBudget;
+  }
+
+  public boolean isLocate() {
+    return mLocate;
+  }
+
+  /**
+   * Returns the output folders to locate the first difference from the
+   * source in, in their order, e.g. of the commits they were created by.
+   */
+  public List<String> getLocateFolderPaths() {
+    return mLocateFolders;
+  }
+
+  public boolean isSnapshot() {
+    return mSnapshot;
+  }
+
+  public String getSnapshotFilePath() {
+    return mSnapshotFile;
+  }
+
+  public boolean isServe() {
+    return mServe;
+  }
+
+  /**
+   * Returns the port of the comparator server to run on or to start, 0 runs
+   * the comparison in this JVM.
+   */
+  public int getServerPort() {
+    return mServerPort;
+  }
+
+  public boolean isFailFast() {
+    return mFailFast;
+  }
+
+  public boolean isMerge() {
+    return mMerge;
+  }
+
+  public List<String> getPartialFilePaths() {
+    return mPartialFiles;
+  }
 }
@@ -0,0 +1,279 @@
+package edu.harvard.hul.fdc.generator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates paired source and candidate folders of FITS output. Each file is
+ * generated from its own seed, derived from the corpus seed and the file
+ * index, and written straight to disk, so the same settings always produce
+ * the same corpus and memory use does not depend on the number of files.
+ */
+public class CorpusGenerator {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final String[][] FORMATS = {
+      { "Tagged Image File Format", "image/tiff", "image", "tif" },
+      { "JPEG File Interchange Format", "image/jpeg", "image", "jpg" },
+      { "Portable Network Graphics", "image/png", "image", "png" },
+      { "Portable Document Format", "application/pdf", "document", "pdf" },
+      { "Waveform Audio", "audio/x-wave", "audio", "wav" },
+      { "MPEG-4 Media File", "video/mp4", "video", "mp4" },
+      { "Plain text", "text/plain", "text", "txt" } };
+
+  private static final String[][] TOOLS = { { "Jhove", "1.5" }, { "file utility", "5.04" }, { "Exiftool", "9.06" },
+      { "NLNZ Metadata Extractor", "3.4GA" }, { "OIS File Information", "0.2" }, { "Droid", "6.1" },
+      { "ffident", "0.2" }, { "Tika", "1.3" }, { "MediaInfo", "0.7.75" }, { "OIS XML Metadata", "0.2" },
+      { "OIS Audio Information", "0.1" } };
+
+  private static final String[] FILE_INFO = { "size", "filepath", "filename", "md5checksum", "fslastmodified",
+      "creatingApplicationName" };
+
+  private static final String[][] METADATA = {
+      { "image", "imageWidth", "imageHeight", "colorSpace", "bitsPerSample", "compressionScheme",
+          "samplingFrequencyUnit", "xSamplingFrequency", "ySamplingFrequency", "orientation", "byteOrder" },
+      { "document", "pageCount", "title", "author", "isTagged", "hasOutline", "hasAnnotations", "isRightsManaged",
+          "isProtected", "hasForms" },
+      { "audio", "duration", "bitDepth", "sampleRate", "channels", "audioDataEncoding", "blockAlign", "offset" },
+      { "video", "duration", "bitRate", "frameRate", "width", "height", "digitalCameraModelName" },
+      { "text", "linebreak", "charset", "markupBasis", "markupLanguage" } };
+
+  private long mSeed = 1;
+
+  private int mFiles = 1000;
+
+  private int mDepth = 0;
+
+  private int mFanOut = 100;
+
+  private int mToolsPerIdentity = 4;
+
+  private int mMetadataElements = 20;
+
+  private double mNewToolRate = 0.01;
+
+  private double mUpdatedToolRate = 0.01;
+
+  private double mMissingToolRate = 0.01;
+
+  private double mMismatchRate = 0.01;
+
+  /**
+   * Writes the corpus to the source and candidate folders within the given
+   * folder.
+   */
+  public void generate( File folder ) throws IOException {
+    File source = new File( folder, "source" );
+    File candidate = new File( folder, "candidate" );
+    for (int i = 0; i < mFiles; i++) {
+      FitsOutput output = createOutput( i );
+      write( new File( source, output.getPath() ), output, false );
+      write( new File( candidate, output.getPath() ), output, true );
+    }
+  }
+
+  public FitsOutput createOutput( int index ) {
+    Random random = new Random( mSeed * 0x9E3779B97F4A7C15L + index );
+    String[] format = FORMATS[random.nextInt( FORMATS.length )];
+    FitsOutput output = new FitsOutput( format[0], format[1], format[2], getPath( index, format[3] ) );
+
+    List<String[]> tools = new ArrayList<String[]>();
+    Collections.addAll( tools, TOOLS );
+    Collections.shuffle( tools, random );
+    int toolCount = Math.min( mToolsPerIdentity, TOOLS.length - 1 );
+    output.getTools().addAll( tools.subList( 0, toolCount ) );
+
+    for (int i = 0; i < FILE_INFO.length; i++) {
+      output.getFileInfo().add( new FitsOutput.Element( FILE_INFO[i], i % toolCount, fileInfoValue( FILE_INFO[i],
+          index, random ) ) );
+    }
+
+    String[] names = getMetadataNames( format[2] );
+    for (int i = 0; i < mMetadataElements; i++) {
+      // large embedded metadata has many more elements than the common names
+      String name = i < names.length ? names[i] : names[i % names.length] + (i / names.length);
+      int tool = i % toolCount;
+      output.getMetadata().add( new FitsOutput.Element( name, tool, String.valueOf( random.nextInt( 10000 ) ) ) );
+    }
+
+    if (random.nextDouble() < mNewToolRate) {
+      output.setNewTool( tools.get( toolCount ) );
+    }
+    if (random.nextDouble() < mUpdatedToolRate) {
+      output.setUpdatedTool( random.nextInt( toolCount ) );
+    }
+    if (random.nextDouble() < mMissingToolRate) {
+      output.setMissingTool( random.nextInt( toolCount ) );
+    }
+    if (random.nextDouble() < mMismatchRate && mMetadataElements > 0) {
+      output.setMismatch( random.nextInt( mMetadataElements ) );
+    }
+
+    return output;
+  }
+
+  public void write( File file, FitsOutput output, boolean candidate ) throws IOException {
+    file.getParentFile().mkdirs();
+    Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), UTF8 ) );
+    try {
+      writeDocument( out, output, candidate );
+    } finally {
+      out.close();
+    }
+  }
+
+  public void writeDocument( Writer out, FitsOutput output, boolean candidate ) throws IOException {
+    List<String[]> tools = output.getTools();
+    out.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+    out.write( "<fits xmlns=\"http://hul.harvard.edu/ois/xml/ns/fits/fits_output\""
+        + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"0.8.0\" timestamp=\"" );
+    // candidates are always written later than their source
+    out.write( candidate ? "1/1/15 11:00 AM" : "1/1/15 10:00 AM" );
+    out.write( "\">\n" );
+
+    out.write( "  <identification>\n" );
+    out.write( "    <identity format=\"" + escape( output.getFormat() ) + "\" mimetype=\""
+        + escape( output.getMimetype() ) + "\" toolname=\"FITS\" toolversion=\"0.8.0\">\n" );
+    for (int i = 0; i < tools.size(); i++) {
+      if (isWritten( output, i, candidate )) {
+        out.write( "      <tool toolname=\"" + escape( tools.get( i )[0] ) + "\" toolversion=\""
+            + escape( getVersion( output, i, candidate ) ) + "\" />\n" );
+      }
+    }
+    if (candidate && output.getNewTool() != null) {
+      out.write( "      <tool toolname=\"" + escape( output.getNewTool()[0] ) + "\" toolversion=\""
+          + escape( output.getNewTool()[1] ) + "\" />\n" );
+    }
+    out.write( "    </identity>\n" );
+    out.write( "  </identification>\n" );
+
+    out.write( "  <fileinfo>\n" );
+    for (FitsOutput.Element e : output.getFileInfo()) {
+      writeElement( out, "    ", output, e, e.getValue(), candidate );
+    }
+    out.write( "  </fileinfo>\n" );
+
+    out.write( "  <filestatus>\n" );
+    writeElement( out, "    ", output, new FitsOutput.Element( "well-formed", 0, "true" ), "true", candidate );
+    out.write( "  </filestatus>\n" );
+
+    out.write( "  <metadata>\n" );
+    out.write( "    <" + output.getMetadataType() + ">\n" );
+    List<FitsOutput.Element> metadata = output.getMetadata();
+    for (int i = 0; i < metadata.size(); i++) {
+      FitsOutput.Element e = metadata.get( i );
+      String value = candidate && i == output.getMismatch() ? e.getValue() + "-changed" : e.getValue();
+      writeElement( out, "      ", output, e, value, candidate );
+    }
+    out.write( "    </" + output.getMetadataType() + ">\n" );
+    out.write( "  </metadata>\n" );
+    out.write( "</fits>\n" );
+  }
+
+  private void writeElement( Writer out, String indent, FitsOutput output, FitsOutput.Element e, String value,
+      boolean candidate ) throws IOException {
+    if (isWritten( output, e.getTool(), candidate )) {
+      out.write( indent + "<" + e.getName() + " toolname=\"" + escape( output.getTools().get( e.getTool() )[0] )
+          + "\" toolversion=\"" + escape( getVersion( output, e.getTool(), candidate ) ) + "\">" + escape( value )
+          + "</" + e.getName() + ">\n" );
+    }
+  }
+
+  private boolean isWritten( FitsOutput output, int tool, boolean candidate ) {
+    return !candidate || tool != output.getMissingTool();
+  }
+
+  private String getVersion( FitsOutput output, int tool, boolean candidate ) {
+    String version = output.getTools().get( tool )[1];
+    return candidate && tool == output.getUpdatedTool() ? version + ".1" : version;
+  }
+
+  private String getPath( int index, String extension ) {
+    StringBuilder path = new StringBuilder();
+    for (int level = mDepth; level > 0; level--) {
+      long width = (long) Math.pow( mFanOut, level );
+      path.append( "dir" ).append( (index / width) % mFanOut ).append( '/' );
+    }
+    return path.append( "file" ).append( index ).append( '.' ).append( extension ).append( ".fits.xml" ).toString();
+  }
+
+  private String[] getMetadataNames( String type ) {
+    for (String[] names : METADATA) {
+      if (names[0].equals( type )) {
+        String[] result = new String[names.length - 1];
+        System.arraycopy( names, 1, result, 0, result.length );
+        return result;
+      }
+    }
+    return new String[] { "element" };
+  }
+
+  private String fileInfoValue( String name, int index, Random random ) {
+    if ("size".equals( name )) {
+      return String.valueOf( 1000 + random.nextInt( 10000000 ) );
+    } else if ("filepath".equals( name )) {
+      return "/corpus/file" + index;
+    } else if ("filename".equals( name )) {
+      return "file" + index;
+    } else if ("md5checksum".equals( name )) {
+      return String.format( "%016x%016x", random.nextLong(), random.nextLong() );
+    } else if ("fslastmodified".equals( name )) {
+      return String.valueOf( 1400000000000L + random.nextInt( Integer.MAX_VALUE ) );
+    }
+    return "Application " + random.nextInt( 20 );
+  }
+
+  private String escape( String value ) {
+    return value.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ).replace( "\"", "&quot;" );
+  }
+
+  public void setSeed( long seed ) {
+    mSeed = seed;
+  }
+
+  public void setFiles( int files ) {
+    mFiles = files;
+  }
+
+  public void setDepth( int depth ) {
+    mDepth = depth;
+  }
+
+  public void setFanOut( int fanOut ) {
+    mFanOut = fanOut;
+  }
+
+  public void setToolsPerIdentity( int tools ) {
+    mToolsPerIdentity = tools;
+  }
+
+  public void setMetadataElements( int elements ) {
+    mMetadataElements = elements;
+  }
+
+  public void setNewToolRate( double rate ) {
+    mNewToolRate = rate;
+  }
+
+  public void setUpdatedToolRate( double rate ) {
+    mUpdatedToolRate = rate;
+  }
+
+  public void setMissingToolRate( double rate ) {
+    mMissingToolRate = rate;
+  }
+
+  public void setMismatchRate( double rate ) {
+    mMismatchRate = rate;
+  }
+}
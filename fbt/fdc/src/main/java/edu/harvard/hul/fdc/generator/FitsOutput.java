@@ -0,0 +1,137 @@
+package edu.harvard.hul.fdc.generator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The content of one generated fits.xml file, together with the changes that
+ * are applied to it when it is written as candidate.
+ */
+public class FitsOutput {
+
+  public static class Element {
+
+    private String mName;
+
+    private int mTool;
+
+    private String mValue;
+
+    public Element( String name, int tool, String value ) {
+      mName = name;
+      mTool = tool;
+      mValue = value;
+    }
+
+    public String getName() {
+      return mName;
+    }
+
+    public int getTool() {
+      return mTool;
+    }
+
+    public String getValue() {
+      return mValue;
+    }
+  }
+
+  private String mFormat;
+
+  private String mMimetype;
+
+  private String mMetadataType;
+
+  private String mPath;
+
+  private List<String[]> mTools;
+
+  private List<Element> mFileInfo;
+
+  private List<Element> mMetadata;
+
+  private String[] mNewTool;
+
+  private int mUpdatedTool;
+
+  private int mMissingTool;
+
+  private int mMismatch;
+
+  public FitsOutput( String format, String mimetype, String metadataType, String path ) {
+    mFormat = format;
+    mMimetype = mimetype;
+    mMetadataType = metadataType;
+    mPath = path;
+    mTools = new ArrayList<String[]>();
+    mFileInfo = new ArrayList<Element>();
+    mMetadata = new ArrayList<Element>();
+    mUpdatedTool = -1;
+    mMissingTool = -1;
+    mMismatch = -1;
+  }
+
+  public String getFormat() {
+    return mFormat;
+  }
+
+  public String getMimetype() {
+    return mMimetype;
+  }
+
+  public String getMetadataType() {
+    return mMetadataType;
+  }
+
+  public String getPath() {
+    return mPath;
+  }
+
+  /**
+   * The tools of the identity as toolname and toolversion pairs, elements
+   * refer to them by index.
+   */
+  public List<String[]> getTools() {
+    return mTools;
+  }
+
+  public List<Element> getFileInfo() {
+    return mFileInfo;
+  }
+
+  public List<Element> getMetadata() {
+    return mMetadata;
+  }
+
+  public String[] getNewTool() {
+    return mNewTool;
+  }
+
+  public void setNewTool( String[] tool ) {
+    mNewTool = tool;
+  }
+
+  public int getUpdatedTool() {
+    return mUpdatedTool;
+  }
+
+  public void setUpdatedTool( int tool ) {
+    mUpdatedTool = tool;
+  }
+
+  public int getMissingTool() {
+    return mMissingTool;
+  }
+
+  public void setMissingTool( int tool ) {
+    mMissingTool = tool;
+  }
+
+  public int getMismatch() {
+    return mMismatch;
+  }
+
+  public void setMismatch( int metadataElement ) {
+    mMismatch = metadataElement;
+  }
+}
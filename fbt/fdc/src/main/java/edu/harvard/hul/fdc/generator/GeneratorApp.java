@@ -0,0 +1,102 @@
+package edu.harvard.hul.fdc.generator;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Writes a synthetic corpus of FITS output for scale testing, e.g.
+ * <code>java -cp fdc-jar-with-dependencies.jar edu.harvard.hul.fdc.generator.GeneratorApp -o /tmp/corpus -n 100000</code>
+ * creates /tmp/corpus/source and /tmp/corpus/candidate.
+ */
+public class GeneratorApp {
+
+  public static void main( String[] args ) {
+    Options options = new Options();
+    options.addOption( "o", "output", true, "The folder the source and candidate folders are written to." );
+    options.addOption( "n", "files", true, "The number of file pairs. Defaults to 1000." );
+    options.addOption( "r", "seed", true, "The seed of the corpus. Defaults to 1." );
+    options.addOption( "d", "depth", true, "The number of nested folders above each file. Defaults to 0." );
+    options.addOption( "w", "fan-out", true, "The number of folders per folder. Defaults to 100." );
+    options.addOption( "t", "tools", true, "The number of tools per identity, up to 10. Defaults to 4." );
+    options.addOption( "m", "metadata", true, "The number of metadata elements per file. Defaults to 20." );
+    options.addOption( "a", "new-tool-rate", true, "The share of candidates with a new tool. Defaults to 0.01." );
+    options.addOption( "u", "updated-tool-rate", true, "The share of candidates with an updated tool. Defaults to 0.01." );
+    options.addOption( "x", "missing-tool-rate", true, "The share of candidates with a missing tool. Defaults to 0.01." );
+    options.addOption( "v", "mismatch-rate", true, "The share of candidates with a mismatching value. Defaults to 0.01." );
+    options.addOption( "h", "help", false, "Prints this message" );
+
+    try {
+      CommandLine cmd = new GnuParser().parse( options, args );
+      if (cmd.hasOption( 'h' ) || !cmd.hasOption( 'o' )) {
+        new HelpFormatter().printHelp( "fbt-generator", options );
+        System.exit( cmd.hasOption( 'h' ) ? 0 : 1 );
+      }
+
+      CorpusGenerator generator = new CorpusGenerator();
+      if (cmd.hasOption( 'n' )) {
+        generator.setFiles( parseInt( cmd, 'n', 0 ) );
+      }
+      if (cmd.hasOption( 'r' )) {
+        generator.setSeed( Long.parseLong( cmd.getOptionValue( 'r' ) ) );
+      }
+      if (cmd.hasOption( 'd' )) {
+        generator.setDepth( parseInt( cmd, 'd', 0 ) );
+      }
+      if (cmd.hasOption( 'w' )) {
+        generator.setFanOut( parseInt( cmd, 'w', 1 ) );
+      }
+      if (cmd.hasOption( 't' )) {
+        generator.setToolsPerIdentity( parseInt( cmd, 't', 1 ) );
+      }
+      if (cmd.hasOption( 'm' )) {
+        generator.setMetadataElements( parseInt( cmd, 'm', 0 ) );
+      }
+      if (cmd.hasOption( 'a' )) {
+        generator.setNewToolRate( parseRate( cmd, 'a' ) );
+      }
+      if (cmd.hasOption( 'u' )) {
+        generator.setUpdatedToolRate( parseRate( cmd, 'u' ) );
+      }
+      if (cmd.hasOption( 'x' )) {
+        generator.setMissingToolRate( parseRate( cmd, 'x' ) );
+      }
+      if (cmd.hasOption( 'v' )) {
+        generator.setMismatchRate( parseRate( cmd, 'v' ) );
+      }
+
+      generator.generate( new File( cmd.getOptionValue( 'o' ) ) );
+
+    } catch (ParseException e) {
+      System.err.println( e.getMessage() );
+      System.exit( 1 );
+    } catch (NumberFormatException e) {
+      System.err.println( "Not a number: " + e.getMessage() );
+      System.exit( 1 );
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.exit( 1 );
+    }
+  }
+
+  private static int parseInt( CommandLine cmd, char option, int min ) throws ParseException {
+    int value = Integer.parseInt( cmd.getOptionValue( option ) );
+    if (value < min) {
+      throw new ParseException( "-" + option + " must be at least " + min );
+    }
+    return value;
+  }
+
+  private static double parseRate( CommandLine cmd, char option ) throws ParseException {
+    double value = Double.parseDouble( cmd.getOptionValue( option ) );
+    if (value < 0 || value > 1) {
+      throw new ParseException( "-" + option + " must be between 0 and 1" );
+    }
+    return value;
+  }
+}
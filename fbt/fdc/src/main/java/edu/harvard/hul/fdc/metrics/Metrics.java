@@ -0,0 +1,338 @@
+package edu.harvard.hul.fdc.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import edu.harvard.hul.fdc.report.JSONReportWriter;
+
+/**
+ * Collects where the time of a run goes: timers per phase, counters and the
+ * slowest and largest pairs. Phases and counters are LongAdders that the
+ * comparing threads add to without contending, so the metrics are always on.
+ * They can be watched through JMX while the run is going and are written to
+ * a metrics file at the end.
+ */
+public class Metrics implements MetricsMXBean {
+
+  public static final String PHASE_LIST = "list";
+
+  public static final String PHASE_READ = "read";
+
+  public static final String PHASE_PARSE = "parse";
+
+  public static final String PHASE_LOOKUP = "section lookup";
+
+  public static final String PHASE_RESOLVE = "resolve ";
+
+  public static final String PHASE_UNCHANGED_CHECK = "unchanged check";
+
+  public static final String PHASE_CACHE = "cache";
+
+  public static final String PHASE_PAIR = "pair";
+
+  public static final String PHASE_REPORT = "report";
+
+  public static final String PHASE_READ_AHEAD_WAIT = "read-ahead wait";
+
+  public static final String COUNTER_UNCHANGED = "unchanged pairs";
+
+  public static final String COUNTER_CACHE_HITS = "cache hits";
+
+  public static final String COUNTER_CACHE_MISSES = "cache misses";
+
+  public static final String COUNTER_MISSING_SECTIONS = "missing sections ";
+
+  // how many pairs were read ahead when the next one was taken, one counter per number
+  public static final String COUNTER_READ_AHEAD_OCCUPANCY = "read-ahead occupancy ";
+
+  private static final int TOP_FILES = 10;
+
+  /**
+   * The time spent in a phase and how often it was entered.
+   */
+  public static class Phase {
+
+    private String mName;
+
+    private LongAdder mNanos;
+
+    private LongAdder mCount;
+
+    private Phase( String name ) {
+      mName = name;
+      mNanos = new LongAdder();
+      mCount = new LongAdder();
+    }
+
+    public void add( long nanos ) {
+      mNanos.add( nanos );
+      mCount.increment();
+    }
+
+    /**
+     * Adds the time since start, as returned by System.nanoTime().
+     */
+    public void since( long start ) {
+      add( System.nanoTime() - start );
+    }
+
+    public String getName() {
+      return mName;
+    }
+  }
+
+  private static class TopFiles {
+
+    private PriorityQueue<Object[]> mFiles;
+
+    private TopFiles() {
+      // the smallest value is at the head, so it is the one dropped
+      mFiles = new PriorityQueue<Object[]>( TOP_FILES + 1, new Comparator<Object[]>() {
+        public int compare( Object[] a, Object[] b ) {
+          return ((Long) a[1]).compareTo( (Long) b[1] );
+        }
+      } );
+    }
+
+    private synchronized void offer( String file, long value ) {
+      if (mFiles.size() == TOP_FILES && (Long) mFiles.peek()[1] >= value) {
+        return;
+      }
+      mFiles.add( new Object[] { file, value } );
+      if (mFiles.size() > TOP_FILES) {
+        mFiles.poll();
+      }
+    }
+
+    /**
+     * Returns file and value pairs, the largest value first.
+     */
+    private synchronized List<Object[]> get() {
+      List<Object[]> files = new ArrayList<Object[]>( mFiles );
+      Collections.sort( files, Collections.reverseOrder( mFiles.comparator() ) );
+      return files;
+    }
+  }
+
+  private Map<String, Phase> mPhases;
+
+  private List<Phase> mPhaseOrder;
+
+  private Map<String, LongAdder> mCounters;
+
+  private Phase mPair;
+
+  private TopFiles mSlowest;
+
+  private TopFiles mLargest;
+
+  private long mStart;
+
+  private long mEnd;
+
+  private ObjectName mName;
+
+  public Metrics() {
+    mPhases = new ConcurrentHashMap<String, Phase>();
+    mPhaseOrder = new ArrayList<Phase>();
+    mCounters = new ConcurrentHashMap<String, LongAdder>();
+    mSlowest = new TopFiles();
+    mLargest = new TopFiles();
+    mStart = System.nanoTime();
+    // the order of the phases in a run
+    for (String phase : new String[] { PHASE_LIST, PHASE_READ, PHASE_PARSE, PHASE_LOOKUP }) {
+      phase( phase );
+    }
+    mPair = phase( PHASE_PAIR );
+  }
+
+  /**
+   * Returns the phase, which callers on the hot path should keep instead of
+   * looking it up again.
+   */
+  public Phase phase( String name ) {
+    Phase phase = mPhases.get( name );
+    if (phase == null) {
+      synchronized (this) {
+        phase = mPhases.get( name );
+        if (phase == null) {
+          phase = new Phase( name );
+          mPhaseOrder.add( phase );
+          mPhases.put( name, phase );
+        }
+      }
+    }
+    return phase;
+  }
+
+  public LongAdder counter( String name ) {
+    LongAdder counter = mCounters.get( name );
+    if (counter == null) {
+      synchronized (this) {
+        counter = mCounters.get( name );
+        if (counter == null) {
+          counter = new LongAdder();
+          mCounters.put( name, counter );
+        }
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Records a compared pair, its time in nanoseconds and its size in bytes.
+   */
+  public void pair( String file, long nanos, long bytes ) {
+    mPair.add( nanos );
+    mSlowest.offer( file, nanos );
+    mLargest.offer( file, bytes );
+  }
+
+  public void stop() {
+    mEnd = System.nanoTime();
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server under the key of
+   * the run. Returns false if that failed, the metrics are still collected.
+   */
+  public boolean register( String key ) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      mName = new ObjectName( "edu.harvard.hul.fdc:type=Metrics,key=" + ObjectName.quote( key ) );
+      server.registerMBean( this, mName );
+      return true;
+    } catch (JMException e) {
+      mName = null;
+      return false;
+    }
+  }
+
+  public void unregister() {
+    if (mName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean( mName );
+      } catch (JMException e) {
+        // gone already
+      }
+      mName = null;
+    }
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis( (mEnd == 0 ? System.nanoTime() : mEnd) - mStart );
+  }
+
+  public Map<String, Long> getPhaseMillis() {
+    Map<String, Long> millis = new LinkedHashMap<String, Long>();
+    for (Phase phase : getPhases()) {
+      millis.put( phase.mName, TimeUnit.NANOSECONDS.toMillis( phase.mNanos.sum() ) );
+    }
+    return millis;
+  }
+
+  public Map<String, Long> getPhaseCounts() {
+    Map<String, Long> counts = new LinkedHashMap<String, Long>();
+    for (Phase phase : getPhases()) {
+      counts.put( phase.mName, phase.mCount.sum() );
+    }
+    return counts;
+  }
+
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new LinkedHashMap<String, Long>();
+    for (String name : new ArrayList<String>( mCounters.keySet() )) {
+      counters.put( name, mCounters.get( name ).sum() );
+    }
+    return counters;
+  }
+
+  public String[] getSlowestFiles() {
+    List<String> files = new ArrayList<String>();
+    for (Object[] file : mSlowest.get()) {
+      files.add( file[0] + " (" + TimeUnit.NANOSECONDS.toMillis( (Long) file[1] ) + " ms)" );
+    }
+    return files.toArray( new String[files.size()] );
+  }
+
+  public String[] getLargestFiles() {
+    List<String> files = new ArrayList<String>();
+    for (Object[] file : mLargest.get()) {
+      files.add( file[0] + " (" + file[1] + " bytes)" );
+    }
+    return files.toArray( new String[files.size()] );
+  }
+
+  private synchronized List<Phase> getPhases() {
+    return new ArrayList<Phase>( mPhaseOrder );
+  }
+
+  /**
+   * Writes the metrics as a JSON object. Phase times are the sum over all
+   * threads, so with several threads they can exceed the elapsed time.
+   */
+  public void write( File file, String key ) throws IOException {
+    Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+    try {
+      out.write( "{\"key\":" );
+      JSONReportWriter.quote( out, key );
+      out.write( ",\"elapsedMillis\":" + getElapsedMillis() );
+
+      out.write( ",\n\"phases\":[" );
+      List<Phase> phases = getPhases();
+      for (int i = 0; i < phases.size(); i++) {
+        Phase phase = phases.get( i );
+        out.write( i == 0 ? "\n{\"phase\":" : ",\n{\"phase\":" );
+        JSONReportWriter.quote( out, phase.mName );
+        out.write( ",\"count\":" + phase.mCount.sum() + ",\"millis\":"
+            + TimeUnit.NANOSECONDS.toMillis( phase.mNanos.sum() ) + "}" );
+      }
+
+      out.write( "],\n\"counters\":{" );
+      boolean first = true;
+      for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+        out.write( first ? "" : "," );
+        first = false;
+        JSONReportWriter.quote( out, counter.getKey() );
+        out.write( ":" + counter.getValue() );
+      }
+
+      out.write( "},\n\"slowest\":[" );
+      writeFiles( out, mSlowest.get(), "millis", true );
+      out.write( "],\n\"largest\":[" );
+      writeFiles( out, mLargest.get(), "bytes", false );
+      out.write( "]}\n" );
+
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeFiles( Writer out, List<Object[]> files, String unit, boolean nanos ) throws IOException {
+    for (int i = 0; i < files.size(); i++) {
+      out.write( i == 0 ? "\n{\"file\":" : ",\n{\"file\":" );
+      JSONReportWriter.quote( out, (String) files.get( i )[0] );
+      long value = (Long) files.get( i )[1];
+      out.write( ",\"" + unit + "\":" + (nanos ? TimeUnit.NANOSECONDS.toMillis( value ) : value) + "}" );
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package edu.harvard.hul.fdc.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of the running comparison as seen through JMX, e.g. in
+ * jconsole under edu.harvard.hul.fdc.
+ */
+public interface MetricsMXBean {
+
+  long getElapsedMillis();
+
+  Map<String, Long> getPhaseMillis();
+
+  Map<String, Long> getPhaseCounts();
+
+  Map<String, Long> getCounters();
+
+  String[] getSlowestFiles();
+
+  String[] getLargestFiles();
+}
@@ -0,0 +1,52 @@
+package edu.harvard.hul.fdc.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures the time spent reading from the stream, so that it can be told
+ * apart from the time spent parsing what was read. Used by a single thread.
+ */
+public class TimedInputStream extends FilterInputStream {
+
+  private long mNanos;
+
+  public TimedInputStream( InputStream in ) {
+    super( in );
+  }
+
+  @Override
+  public int read() throws IOException {
+    long start = System.nanoTime();
+    try {
+      return super.read();
+    } finally {
+      mNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public int read( byte[] buffer, int offset, int length ) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return super.read( buffer, offset, length );
+    } finally {
+      mNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public long skip( long n ) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return super.skip( n );
+    } finally {
+      mNanos += System.nanoTime() - start;
+    }
+  }
+
+  public long getNanos() {
+    return mNanos;
+  }
+}
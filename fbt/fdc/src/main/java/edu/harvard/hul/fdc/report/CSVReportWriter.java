@@ -0,0 +1,91 @@
+package edu.harvard.hul.fdc.report;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The report as one row per section, tool and file. Tools of a section
+ * without files, e.g. the ones missing in all candidates, have an empty file
+ * column, tools without a name an empty tool column.
+ */
+public class CSVReportWriter extends ReportWriter {
+
+  private String mSection;
+
+  private int mStatus;
+
+  private String mTool;
+
+  private boolean mInTool;
+
+  private boolean mToolHasFiles;
+
+  public CSVReportWriter( Writer out ) {
+    super( out );
+  }
+
+  @Override
+  public void begin( String key ) throws IOException {
+    mOut.write( "section,status,tool,file\n" );
+  }
+
+  @Override
+  public void startSection( String section, int tools, int status ) throws IOException {
+    mSection = section;
+    mStatus = status;
+  }
+
+  @Override
+  public void tool( String tool ) throws IOException {
+    endTool();
+    mTool = tool;
+    mInTool = true;
+    mToolHasFiles = false;
+  }
+
+  @Override
+  public void file( String file ) throws IOException {
+    writeRow( file );
+    mToolHasFiles = true;
+  }
+
+  @Override
+  public void endSection() throws IOException {
+    endTool();
+    mInTool = false;
+  }
+
+  @Override
+  public void end() throws IOException {
+    mOut.flush();
+  }
+
+  private void endTool() throws IOException {
+    if (mInTool && !mToolHasFiles) {
+      writeRow( "" );
+    }
+  }
+
+  private void writeRow( String file ) throws IOException {
+    mOut.write( mSection );
+    mOut.write( ',' );
+    mOut.write( String.valueOf( mStatus ) );
+    mOut.write( ',' );
+    writeField( mTool == null ? "" : mTool );
+    mOut.write( ',' );
+    writeField( file );
+    mOut.write( '\n' );
+  }
+
+  private void writeField( String value ) throws IOException {
+    if (value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0
+        && value.indexOf( '\r' ) < 0) {
+      mOut.write( value );
+      return;
+    }
+
+    mOut.write( '"' );
+    mOut.write( value.replace( "\"", "\"\"" ) );
+    mOut.write( '"' );
+  }
+}
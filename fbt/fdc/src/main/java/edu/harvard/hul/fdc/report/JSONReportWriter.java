@@ -0,0 +1,125 @@
+package edu.harvard.hul.fdc.report;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The report as a single JSON object with a list of sections, each with its
+ * tools and their files.
+ */
+public class JSONReportWriter extends ReportWriter {
+
+  private boolean mFirstSection;
+
+  private boolean mFirstTool;
+
+  private boolean mFirstFile;
+
+  private boolean mInTool;
+
+  public JSONReportWriter( Writer out ) {
+    super( out );
+  }
+
+  /**
+   * Appends the value as a quoted and escaped JSON string.
+   */
+  public static void quote( Appendable out, String value ) throws IOException {
+    if (value == null) {
+      out.append( "null" );
+      return;
+    }
+
+    out.append( '"' );
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt( i );
+      switch (c) {
+        case '"':
+          out.append( "\\\"" );
+          break;
+        case '\\':
+          out.append( "\\\\" );
+          break;
+        case '\n':
+          out.append( "\\n" );
+          break;
+        case '\r':
+          out.append( "\\r" );
+          break;
+        case '\t':
+          out.append( "\\t" );
+          break;
+        default:
+          if (c < 0x20) {
+            out.append( String.format( "\\u%04x", (int) c ) );
+          } else {
+            out.append( c );
+          }
+      }
+    }
+    out.append( '"' );
+  }
+
+  @Override
+  public void begin( String key ) throws IOException {
+    mOut.write( "{\"key\":" );
+    quote( mOut, key );
+    mOut.write( ",\"sections\":[" );
+    mFirstSection = true;
+  }
+
+  @Override
+  public void startSection( String section, int tools, int status ) throws IOException {
+    if (!mFirstSection) {
+      mOut.write( ',' );
+    }
+    mFirstSection = false;
+    mOut.write( "\n{\"section\":" );
+    quote( mOut, section );
+    mOut.write( ",\"status\":" + status + ",\"count\":" + tools + ",\"tools\":[" );
+    mFirstTool = true;
+    mInTool = false;
+  }
+
+  @Override
+  public void tool( String tool ) throws IOException {
+    endTool();
+    if (!mFirstTool) {
+      mOut.write( ',' );
+    }
+    mFirstTool = false;
+    mOut.write( "\n{\"tool\":" );
+    quote( mOut, tool );
+    mOut.write( ",\"files\":[" );
+    mFirstFile = true;
+    mInTool = true;
+  }
+
+  @Override
+  public void file( String file ) throws IOException {
+    if (!mFirstFile) {
+      mOut.write( ',' );
+    }
+    mFirstFile = false;
+    quote( mOut, file );
+  }
+
+  @Override
+  public void endSection() throws IOException {
+    endTool();
+    mOut.write( "]}" );
+  }
+
+  @Override
+  public void end() throws IOException {
+    mOut.write( "\n]}\n" );
+    mOut.flush();
+  }
+
+  private void endTool() throws IOException {
+    if (mInTool) {
+      mOut.write( "]}" );
+      mInTool = false;
+    }
+  }
+}
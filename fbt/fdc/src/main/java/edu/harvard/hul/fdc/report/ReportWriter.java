@@ -0,0 +1,66 @@
+package edu.harvard.hul.fdc.report;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the summary of a run section by section while the resolvers walk
+ * their results, so that the report is never held in memory as a whole.
+ * Each section lists tools and the files they were found in.
+ */
+public abstract class ReportWriter {
+
+  public static final String FORMAT_TEXT = "text";
+
+  public static final String FORMAT_JSON = "json";
+
+  public static final String FORMAT_CSV = "csv";
+
+  public static final String SECTION_NEW = "new";
+
+  public static final String SECTION_UPDATED = "updated";
+
+  public static final String SECTION_MISSING = "missing";
+
+  public static final String SECTION_MISMATCH = "mismatch";
+
+  public static final String SECTION_GLOBAL_MISSING = "global-missing";
+
+  protected Writer mOut;
+
+  protected ReportWriter( Writer out ) {
+    mOut = out;
+  }
+
+  public static boolean isValidFormat( String format ) {
+    return FORMAT_TEXT.equals( format ) || FORMAT_JSON.equals( format ) || FORMAT_CSV.equals( format );
+  }
+
+  public static ReportWriter create( String format, Writer out ) {
+    if (FORMAT_JSON.equals( format )) {
+      return new JSONReportWriter( out );
+    } else if (FORMAT_CSV.equals( format )) {
+      return new CSVReportWriter( out );
+    }
+    return new TextReportWriter( out );
+  }
+
+  public abstract void begin( String key ) throws IOException;
+
+  /**
+   * Starts a section with the given number of tools and the status it
+   * assigns to the run.
+   */
+  public abstract void startSection( String section, int tools, int status ) throws IOException;
+
+  public abstract void tool( String tool ) throws IOException;
+
+  public abstract void file( String file ) throws IOException;
+
+  public abstract void endSection() throws IOException;
+
+  /**
+   * Ends the report and flushes the underlying writer, without closing it.
+   */
+  public abstract void end() throws IOException;
+}
@@ -0,0 +1,56 @@
+package edu.harvard.hul.fdc.report;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The plain text report, a lead line per section followed by its tools and
+ * their files indented below them.
+ */
+public class TextReportWriter extends ReportWriter {
+
+  public TextReportWriter( Writer out ) {
+    super( out );
+  }
+
+  @Override
+  public void begin( String key ) throws IOException {
+  }
+
+  @Override
+  public void startSection( String section, int tools, int status ) throws IOException {
+    if (SECTION_NEW.equals( section )) {
+      mOut.write( "Found " + tools + " new tool(s):\n" );
+    } else if (SECTION_UPDATED.equals( section )) {
+      mOut.write( "Found " + tools + " updated tool(s):\n" );
+    } else if (SECTION_MISSING.equals( section )) {
+      mOut.write( "Found " + tools + " missing tool(s):\n" );
+    } else if (SECTION_MISMATCH.equals( section )) {
+      mOut.write( "Found " + tools + " tool(s) providing mismatching values:\n" );
+    } else if (SECTION_GLOBAL_MISSING.equals( section )) {
+      mOut.write( "Found " + tools + " tool(s) missing in all candidate files:\n" );
+    } else {
+      mOut.write( "Found " + tools + " tool(s) in " + section + ":\n" );
+    }
+  }
+
+  @Override
+  public void tool( String tool ) throws IOException {
+    mOut.write( tool + "\n" );
+  }
+
+  @Override
+  public void file( String file ) throws IOException {
+    mOut.write( "\t" + file + "\n" );
+  }
+
+  @Override
+  public void endSection() throws IOException {
+    mOut.write( "\n" );
+  }
+
+  @Override
+  public void end() throws IOException {
+    mOut.flush();
+  }
+}
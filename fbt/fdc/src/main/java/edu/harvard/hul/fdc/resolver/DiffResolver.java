@@ -1,144 +1,375 @@
 package edu.harvard.hul.fdc.resolver;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 
 import edu.harvard.hul.fdc.ControllerState;
-import edu.harvard.hul.fdc.Report;
+import edu.harvard.hul.fdc.LogWriter;
+import edu.harvard.hul.fdc.report.ReportWriter;
 
 public abstract class DiffResolver {
 
   protected String mCurrentKey;
 
-  protected Map<String, Set<String>> mUpdatedTools;
+  protected int mCurrentId;
 
-  protected Map<String, Set<String>> mNewTools;
+  protected FileDictionary mFiles;
 
-  protected Map<String, Set<String>> mMissingTools;
+  // the files of each tool, as ids of the file dictionary
+  protected Map<String, BitSet> mUpdatedTools;
 
-  protected Map<String, Set<String>> mMismatchValues;
+  protected Map<String, BitSet> mNewTools;
+
+  protected Map<String, BitSet> mMissingTools;
+
+  protected Map<String, BitSet> mMismatchValues;
 
   protected Map<String, ToolGlobalMissingCounter> mGlobalMisses;
 
+  protected LogWriter mLogWriter;
+
+  // the index of the candidate document, shared with the resolvers of its other sections
+  protected ToolIndex mIndex;
+
   public DiffResolver() {
-    mUpdatedTools = new HashMap<String, Set<String>>();
-    mNewTools = new HashMap<String, Set<String>>();
-    mMissingTools = new HashMap<String, Set<String>>();
-    mMismatchValues = new HashMap<String, Set<String>>();
+    mFiles = new FileDictionary();
+    mUpdatedTools = new HashMap<String, BitSet>();
+    mNewTools = new HashMap<String, BitSet>();
+    mMissingTools = new HashMap<String, BitSet>();
+    mMismatchValues = new HashMap<String, BitSet>();
     mGlobalMisses = new HashMap<String, ToolGlobalMissingCounter>();
   }
 
   protected abstract void resolve( Element source, Element candidate );
 
+  public void setLogWriter( LogWriter logWriter ) {
+    mLogWriter = logWriter;
+  }
+
+  /**
+   * Shares the dictionary with other resolvers, which makes merging them a
+   * bitwise or. Has to be set before anything is resolved.
+   */
+  public void setFileDictionary( FileDictionary files ) {
+    mFiles = files;
+  }
+
   public void resolve( String fileName, Element source, Element candidate ) {
-    mCurrentKey = fileName;
-    resolve( source, candidate );
+    resolve( fileName, source, candidate, new ToolIndex() );
+  }
+
+  /**
+   * Resolves the section, looking up the candidate elements in the index of
+   * the candidate document.
+   */
+  public void resolve( String fileName, Element source, Element candidate, ToolIndex index ) {
+    setCurrentFile( fileName );
+    mIndex = index;
+    if (candidate == null) {
+      resolveMissing( source );
+    } else {
+      resolve( source, candidate );
+    }
+  }
+
+  /**
+   * Called if the candidate file does not have the section at all. By default
+   * the source is resolved against an empty section, so that all of its tools
+   * end up missing.
+   */
+  protected void resolveMissing( Element source ) {
+    resolve( source, DocumentHelper.createElement( source.getQName() ) );
+  }
+
+  /**
+   * Counts a source tool of a file whose candidate is known to be unchanged,
+   * exactly as resolving the pair would.
+   */
+  public void unchangedTool( String tool ) {
+    getCounter( tool ).incrementSourceOccurs( 1 );
   }
 
   public void merge( DiffResolver resolver ) {
-    mergeToolsMap( mUpdatedTools, resolver.mUpdatedTools );
-    mergeToolsMap( mNewTools, resolver.mNewTools );
-    mergeToolsMap( mMissingTools, resolver.mMissingTools );
-    mergeToolsMap( mMismatchValues, resolver.mMismatchValues );
+    mergeToolsMap( mUpdatedTools, resolver.mUpdatedTools, resolver.mFiles );
+    mergeToolsMap( mNewTools, resolver.mNewTools, resolver.mFiles );
+    mergeToolsMap( mMissingTools, resolver.mMissingTools, resolver.mFiles );
+    mergeToolsMap( mMismatchValues, resolver.mMismatchValues, resolver.mFiles );
 
     for (String k : resolver.mGlobalMisses.keySet()) {
-      ToolGlobalMissingCounter counter = mGlobalMisses.get( k );
-      if (counter != null) {
-        counter.incrementSourceOccurs( resolver.mGlobalMisses.get( k ).getSourceOccurs() );
-        counter.incrementCandidateMiss( resolver.mGlobalMisses.get( k ).getCandidateMiss() );
-      } else {
-        counter = resolver.mGlobalMisses.get( k );
-      }
-
-      mGlobalMisses.put( k, counter );
+      ToolGlobalMissingCounter counter = getCounter( k );
+      counter.incrementSourceOccurs( resolver.mGlobalMisses.get( k ).getSourceOccurs() );
+      counter.incrementCandidateMiss( resolver.mGlobalMisses.get( k ).getCandidateMiss() );
     }
   }
 
-  private void mergeToolsMap( Map<String, Set<String>> thisMap, Map<String, Set<String>> resolverMap ) {
+  private void mergeToolsMap( Map<String, BitSet> thisMap, Map<String, BitSet> resolverMap, FileDictionary files ) {
     for (String k : resolverMap.keySet()) {
-      Set<String> set = thisMap.get( k );
-      if (set != null) {
-        set.addAll( resolverMap.get( k ) );
+      BitSet set = getFiles( k, thisMap );
+      BitSet other = resolverMap.get( k );
+      if (files == mFiles) {
+        set.or( other );
       } else {
-        set = resolverMap.get( k );
+        // the ids of another dictionary have to be translated by name
+        for (int id = other.nextSetBit( 0 ); id >= 0; id = other.nextSetBit( id + 1 )) {
+          set.set( mFiles.id( files.name( id ) ) );
+        }
       }
+    }
+  }
+
+  public void clear() {
+    mUpdatedTools.clear();
+    mNewTools.clear();
+    mMissingTools.clear();
+    mMismatchValues.clear();
+    mGlobalMisses.clear();
+  }
+
+  /**
+   * Writes the results of a resolver that has seen a single file. The file
+   * name is left out, it is given again by {@link #readContribution}.
+   */
+  public void writeContribution( DataOutput out ) throws IOException {
+    writeTools( out, mUpdatedTools );
+    writeTools( out, mNewTools );
+    writeTools( out, mMissingTools );
+    writeTools( out, mMismatchValues );
+    writeCounters( out );
+  }
+
+  public void readContribution( String fileName, DataInput in ) throws IOException {
+    setCurrentFile( fileName );
+    readTools( in, mUpdatedTools );
+    readTools( in, mNewTools );
+    readTools( in, mMissingTools );
+    readTools( in, mMismatchValues );
+    readCounters( in );
+  }
+
+  /**
+   * Writes all results of the resolver, with the files as ids of its file
+   * dictionary, which has to be written alongside by the caller.
+   */
+  public void writeResults( DataOutput out ) throws IOException {
+    writeFiles( out, mUpdatedTools );
+    writeFiles( out, mNewTools );
+    writeFiles( out, mMissingTools );
+    writeFiles( out, mMismatchValues );
+    writeCounters( out );
+  }
+
+  /**
+   * Reads results written by {@link #writeResults}, the file ids have to be
+   * the ids of this resolver's dictionary.
+   */
+  public void readResults( DataInput in ) throws IOException {
+    readFiles( in, mUpdatedTools );
+    readFiles( in, mNewTools );
+    readFiles( in, mMissingTools );
+    readFiles( in, mMismatchValues );
+    readCounters( in );
+  }
+
+  private void writeFiles( DataOutput out, Map<String, BitSet> toolsSet ) throws IOException {
+    out.writeInt( toolsSet.size() );
+    for (String tool : toolsSet.keySet()) {
+      writeTool( out, tool );
+      byte[] files = toolsSet.get( tool ).toByteArray();
+      out.writeInt( files.length );
+      out.write( files );
+    }
+  }
+
+  private void readFiles( DataInput in, Map<String, BitSet> toolsSet ) throws IOException {
+    int tools = in.readInt();
+    for (int i = 0; i < tools; i++) {
+      BitSet set = getFiles( readTool( in ), toolsSet );
+      byte[] files = new byte[in.readInt()];
+      in.readFully( files );
+      set.or( BitSet.valueOf( files ) );
+    }
+  }
 
-      thisMap.put( k, set );
+  private void writeCounters( DataOutput out ) throws IOException {
+    out.writeInt( mGlobalMisses.size() );
+    for (ToolGlobalMissingCounter counter : mGlobalMisses.values()) {
+      writeTool( out, counter.getTool() );
+      out.writeInt( counter.getSourceOccurs() );
+      out.writeInt( counter.getCandidateMiss() );
     }
   }
 
-  public List<Report> report() {
-    List<Report> reports = new ArrayList<Report>();
-    Report report = generateReport( String.format( "Found %s new tool(s):\n", mNewTools.keySet().size() ), mNewTools );
-    addReport( reports, report );
+  private void readCounters( DataInput in ) throws IOException {
+    int counters = in.readInt();
+    for (int i = 0; i < counters; i++) {
+      ToolGlobalMissingCounter counter = getCounter( readTool( in ) );
+      counter.incrementSourceOccurs( in.readInt() );
+      counter.incrementCandidateMiss( in.readInt() );
+    }
+  }
 
-    report = generateReport( String.format( "Found %s updated tool(s):\n", mUpdatedTools.keySet().size() ),
-        mUpdatedTools );
-    addReport( reports, report );
+  private void writeTools( DataOutput out, Map<String, BitSet> toolsSet ) throws IOException {
+    out.writeInt( toolsSet.size() );
+    for (String tool : toolsSet.keySet()) {
+      writeTool( out, tool );
+    }
+  }
 
-    report = generateReport( String.format( "Found %s missing tool(s):\n", mMissingTools.keySet().size() ),
-        mMissingTools );
-    addReport( reports, report );
+  private void readTools( DataInput in, Map<String, BitSet> toolsSet ) throws IOException {
+    int tools = in.readInt();
+    for (int i = 0; i < tools; i++) {
+      handleTool( readTool( in ), toolsSet );
+    }
+  }
 
-    report = generateReport( String.format( "Found %s tool(s) providing mismatching values:\n", mMismatchValues.keySet().size() ),
-        mMismatchValues );
-    if (mMismatchValues.keySet().size() > 0) {
-      report.setStatus( ControllerState.TOOL_VALUE_MISMATCH );
+  // tool names come from the toolname attribute and may be missing
+  private void writeTool( DataOutput out, String tool ) throws IOException {
+    out.writeBoolean( tool != null );
+    if (tool != null) {
+      out.writeUTF( tool );
     }
-    addReport( reports, report );
+  }
 
-    if (mGlobalMisses.keySet().size() > 0) {
-      report = new Report();
-      int global = 0;
-      String log = "Found %s tool(s) missing in all candidate files:\n";
-      for (String t : mGlobalMisses.keySet()) {
-        ToolGlobalMissingCounter counter = mGlobalMisses.get( t );
-        if (counter.getSourceOccurs() == counter.getCandidateMiss()) {
-          global += 1;
-          log += t + "\n";
-          report.setStatus( ControllerState.TOOL_MISSING_OUTPUT );
-        }
+  private String readTool( DataInput in ) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  public boolean hasValueMismatches() {
+    return !mMismatchValues.isEmpty();
+  }
+
+  /**
+   * Returns the names of the files each tool provided mismatching values in.
+   */
+  public Map<String, Set<String>> getValueMismatches() {
+    Map<String, Set<String>> mismatches = new HashMap<String, Set<String>>();
+    for (String tool : mMismatchValues.keySet()) {
+      BitSet files = mMismatchValues.get( tool );
+      Set<String> names = new HashSet<String>();
+      for (int id = files.nextSetBit( 0 ); id >= 0; id = files.nextSetBit( id + 1 )) {
+        names.add( mFiles.name( id ) );
       }
+      mismatches.put( tool, names );
+    }
+    return mismatches;
+  }
+
+  /**
+   * Returns all tools seen in the source files.
+   */
+  public Set<String> getTools() {
+    return mGlobalMisses.keySet();
+  }
+
+  public List<Integer> report( ReportWriter writer ) throws IOException {
+    return report( writer, true );
+  }
 
-      if (global > 0) {
-        log = String.format( log, global );
-        report.setLog( log );
-        addReport( reports, report );
+  /**
+   * Writes the report section by section and returns the status of each
+   * written section. Tools and files are sorted, so that the report does not
+   * depend on the order files were compared in. A tool can only be missing in
+   * all candidate files if all files were compared, otherwise that section
+   * is left out.
+   */
+  public List<Integer> report( ReportWriter writer, boolean allFiles ) throws IOException {
+    List<Integer> statuses = new ArrayList<Integer>();
+    writeSection( writer, ReportWriter.SECTION_NEW, mNewTools, ControllerState.OK, statuses );
+    writeSection( writer, ReportWriter.SECTION_UPDATED, mUpdatedTools, ControllerState.OK, statuses );
+    writeSection( writer, ReportWriter.SECTION_MISSING, mMissingTools, ControllerState.OK, statuses );
+    writeSection( writer, ReportWriter.SECTION_MISMATCH, mMismatchValues, ControllerState.TOOL_VALUE_MISMATCH,
+        statuses );
+
+    if (!allFiles) {
+      return statuses;
+    }
+
+    List<String> global = new ArrayList<String>();
+    for (String t : sorted( mGlobalMisses.keySet() )) {
+      ToolGlobalMissingCounter counter = mGlobalMisses.get( t );
+      if (counter.getSourceOccurs() == counter.getCandidateMiss()) {
+        global.add( t );
+      }
+    }
+
+    if (global.size() > 0) {
+      writer.startSection( ReportWriter.SECTION_GLOBAL_MISSING, global.size(), ControllerState.TOOL_MISSING_OUTPUT );
+      for (String t : global) {
+        writer.tool( t );
       }
+      writer.endSection();
+      statuses.add( ControllerState.TOOL_MISSING_OUTPUT );
     }
 
-    return reports;
+    return statuses;
   }
 
-  private void addReport( List<Report> list, Report r ) {
-    if (r != null) {
-      list.add( r );
+  private void writeSection( ReportWriter writer, String section, Map<String, BitSet> toolsSet, int status,
+      List<Integer> statuses ) throws IOException {
+    if (toolsSet.isEmpty()) {
+      return;
     }
+
+    writer.startSection( section, toolsSet.size(), status );
+    for (String t : sorted( toolsSet.keySet() )) {
+      writer.tool( t );
+      writeFiles( writer, toolsSet.get( t ) );
+    }
+    writer.endSection();
+    statuses.add( status );
   }
 
-  private Report generateReport( String lead, Map<String, Set<String>> toolsSet ) {
-    Report newTools = null;
-    if (toolsSet.keySet().size() > 0) {
-      newTools = new Report();
-      String log = lead;
-      for (String t : toolsSet.keySet()) {
-        log += t + "\n";
-        Set<String> set = toolsSet.get( t );
-        for (String f : set) {
-          log += "\t" + f + "\n";
-        }
+  // names are only looked up for the report
+  private void writeFiles( final ReportWriter writer, BitSet files ) throws IOException {
+    if (mFiles.getMemoryBudget() > 0) {
+      // the other half of the budget is the dictionary's
+      SortedRuns names = new SortedRuns( mFiles.getMemoryBudget() / 2 );
+      for (int id = files.nextSetBit( 0 ); id >= 0; id = files.nextSetBit( id + 1 )) {
+        names.add( mFiles.name( id ) );
       }
-      newTools.setLog( log );
-      newTools.setStatus( ControllerState.OK ); // should this be always ok?
+      names.visit( new SortedRuns.Visitor() {
+        public void visit( String name ) throws IOException {
+          writer.file( name );
+        }
+      } );
+      return;
     }
 
-    return newTools;
+    List<String> names = new ArrayList<String>( files.cardinality() );
+    for (int id = files.nextSetBit( 0 ); id >= 0; id = files.nextSetBit( id + 1 )) {
+      names.add( mFiles.name( id ) );
+    }
+    Collections.sort( names );
+    for (String name : names) {
+      writer.file( name );
+    }
+  }
+
+  // tool names may be null, they are sorted first
+  private List<String> sorted( Set<String> values ) {
+    List<String> list = new ArrayList<String>( values );
+    Collections.sort( list, new Comparator<String>() {
+      public int compare( String a, String b ) {
+        if (a == null || b == null) {
+          return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo( b );
+      }
+    } );
+    return list;
   }
 
   protected void missingTool( String tool ) {
@@ -148,21 +379,25 @@ public abstract class DiffResolver {
     counter.incrementCandidateMiss( 1 );
   }
 
-  protected void handleTool( String tool, Map<String, Set<String>> toolsSet ) {
-    Set<String> files = getFiles( tool, toolsSet );
-    files.add( mCurrentKey );
+  protected void handleTool( String tool, Map<String, BitSet> toolsSet ) {
+    getFiles( tool, toolsSet ).set( mCurrentId );
   }
 
-  protected Set<String> getFiles( String tool, Map<String, Set<String>> toolsSet ) {
-    Set<String> set = toolsSet.get( tool );
+  protected BitSet getFiles( String tool, Map<String, BitSet> toolsSet ) {
+    BitSet set = toolsSet.get( tool );
     if (set == null) {
-      set = new HashSet<String>();
+      set = new BitSet();
       toolsSet.put( tool, set );
     }
 
     return set;
   }
 
+  private void setCurrentFile( String fileName ) {
+    mCurrentKey = fileName;
+    mCurrentId = mFiles.id( fileName );
+  }
+
   protected ToolGlobalMissingCounter getCounter( String tool ) {
     ToolGlobalMissingCounter counter = mGlobalMisses.get( tool );
     if (counter == null) {
@@ -0,0 +1,287 @@
+package edu.harvard.hul.fdc.resolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.harvard.hul.fdc.LogWriter;
+
+/**
+ * Assigns each file name a small int id, so that the resolvers can keep the
+ * files of a tool as a bitset instead of a set of names. Resolvers that share
+ * a dictionary can be merged by or-ing their bitsets. Safe for use by
+ * several threads.
+ * <p>
+ * With a memory budget the names are moved to a spill file once they take up
+ * half of it. Only their offsets and a table of their hashes stay in memory
+ * then, a few dozen bytes per file, and a small cache of the names looked up
+ * last, since each file is looked up once per section.
+ */
+public class FileDictionary {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  // a rough estimate of a String, its map entry, boxed id and list slot
+  private static final int ENTRY_OVERHEAD = 112;
+
+  private static final int CACHED_NAMES = 4096;
+
+  // read without the lock, a reader may still use the map after the spill
+  private volatile ConcurrentHashMap<String, Integer> mIds;
+
+  // the ids of the names looked up last after the spill, by the hash of the name
+  private volatile AtomicReferenceArray<CachedId> mCache;
+
+  private List<String> mNames;
+
+  private long mMemoryBudget;
+
+  private long mEstimatedBytes;
+
+  private boolean mSpilled;
+
+  private File mSpillFile;
+
+  private RandomAccessFile mSpill;
+
+  private long[] mOffsets;
+
+  private int mSize;
+
+  // open addressing from the hash of a name to its id + 1, 0 is empty
+  private long[] mHashes;
+
+  private int[] mSlots;
+
+  private LogWriter mLogWriter;
+
+  public FileDictionary() {
+    mIds = new ConcurrentHashMap<String, Integer>();
+    mNames = new ArrayList<String>();
+  }
+
+  /**
+   * Sets the bytes the dictionary and the sorting of the report may take up,
+   * 0 keeps everything in memory.
+   */
+  public synchronized void setMemoryBudget( long bytes ) {
+    mMemoryBudget = bytes;
+  }
+
+  public long getMemoryBudget() {
+    return mMemoryBudget;
+  }
+
+  /**
+   * Sets the writer that failures to spill are reported to, without one they
+   * go to the standard error.
+   */
+  public synchronized void setLogWriter( LogWriter logWriter ) {
+    mLogWriter = logWriter;
+  }
+
+  public int id( String name ) {
+    ConcurrentHashMap<String, Integer> ids = mIds;
+    if (ids != null) {
+      Integer id = ids.get( name );
+      if (id != null) {
+        return id;
+      }
+    } else {
+      // the cache is set before the map is dropped
+      CachedId cached = mCache.get( cacheSlot( name ) );
+      if (cached != null && cached.mName.equals( name )) {
+        return cached.mId;
+      }
+    }
+
+    synchronized (this) {
+      if (mSpilled) {
+        int id = spilledId( name );
+        mCache.set( cacheSlot( name ), new CachedId( name, id ) );
+        return id;
+      }
+
+      Integer id = mIds.get( name );
+      if (id == null) {
+        id = mNames.size();
+        mNames.add( name );
+        mIds.put( name, id );
+        mEstimatedBytes += 2 * name.length() + ENTRY_OVERHEAD;
+        if (mMemoryBudget > 0 && mEstimatedBytes > mMemoryBudget / 2) {
+          spill();
+        }
+      }
+      return id;
+    }
+  }
+
+  public synchronized String name( int id ) {
+    if (!mSpilled) {
+      return mNames.get( id );
+    }
+
+    if (id < 0 || id >= mSize) {
+      throw new IndexOutOfBoundsException( "No file with id " + id );
+    }
+    try {
+      return readName( id );
+    } catch (IOException e) {
+      throw new IllegalStateException( "Could not read the spilled file names", e );
+    }
+  }
+
+  public synchronized int size() {
+    return mSpilled ? mSize : mNames.size();
+  }
+
+  /**
+   * Deletes the spill file, the dictionary cannot be used afterwards.
+   */
+  public synchronized void close() {
+    if (mSpill != null) {
+      try {
+        mSpill.close();
+      } catch (IOException e) {
+        // deleted below anyway
+      }
+      mSpillFile.delete();
+      mSpill = null;
+    }
+  }
+
+  private void spill() {
+    try {
+      mSpillFile = File.createTempFile( "fdc-files", ".spill" );
+      mSpillFile.deleteOnExit();
+      mSpill = new RandomAccessFile( mSpillFile, "rw" );
+    } catch (IOException e) {
+      // keeps the names in memory, over budget but correct
+      e.printStackTrace( getErrors() );
+      mMemoryBudget = 0;
+      return;
+    }
+
+    mOffsets = new long[Math.max( 1024, mNames.size() * 2 )];
+    mHashes = new long[Integer.highestOneBit( Math.max( 1024, mNames.size() * 4 ) )];
+    mSlots = new int[mHashes.length];
+    mSize = 0;
+    mSpilled = true;
+    for (String name : mNames) {
+      add( name );
+    }
+    mCache = new AtomicReferenceArray<CachedId>( CACHED_NAMES );
+    mNames = null;
+    // the ids stay the same, so readers that still hold the map get the right ones
+    mIds = null;
+  }
+
+  private PrintStream getErrors() {
+    return mLogWriter == null ? System.err : mLogWriter.getErrors();
+  }
+
+  private static int cacheSlot( String name ) {
+    return (int) hash( name ) & (CACHED_NAMES - 1);
+  }
+
+  private int spilledId( String name ) {
+    long hash = hash( name );
+    int mask = mSlots.length - 1;
+    for (int slot = (int) hash & mask; mSlots[slot] != 0; slot = (slot + 1) & mask) {
+      // equal hashes are checked against the name, however unlikely a collision is
+      if (mHashes[slot] == hash && name.equals( name( mSlots[slot] - 1 ) )) {
+        return mSlots[slot] - 1;
+      }
+    }
+    return add( name );
+  }
+
+  private int add( String name ) {
+    int id = mSize;
+    try {
+      long offset = mSpill.length();
+      mSpill.seek( offset );
+      byte[] bytes = name.getBytes( UTF8 );
+      mSpill.writeInt( bytes.length );
+      mSpill.write( bytes );
+
+      if (id == mOffsets.length) {
+        mOffsets = Arrays.copyOf( mOffsets, id * 2 );
+      }
+      mOffsets[id] = offset;
+    } catch (IOException e) {
+      throw new IllegalStateException( "Could not spill the file names", e );
+    }
+    mSize++;
+
+    if (mSize * 2 > mSlots.length) {
+      rehash();
+    }
+    insert( hash( name ), id );
+    return id;
+  }
+
+  private void insert( long hash, int id ) {
+    int mask = mSlots.length - 1;
+    int slot = (int) hash & mask;
+    while (mSlots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    mHashes[slot] = hash;
+    mSlots[slot] = id + 1;
+  }
+
+  private void rehash() {
+    long[] hashes = mHashes;
+    int[] slots = mSlots;
+    mHashes = new long[hashes.length * 2];
+    mSlots = new int[slots.length * 2];
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] != 0) {
+        insert( hashes[i], slots[i] - 1 );
+      }
+    }
+  }
+
+  private String readName( int id ) throws IOException {
+    mSpill.seek( mOffsets[id] );
+    byte[] bytes = new byte[mSpill.readInt()];
+    mSpill.readFully( bytes );
+    return new String( bytes, UTF8 );
+  }
+
+  /**
+   * A 64 bit FNV-1a hash with a final mix, so that the low bits used for the
+   * slots depend on all of the name.
+   */
+  private static long hash( String name ) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      hash ^= name.charAt( i );
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static class CachedId {
+
+    private final String mName;
+
+    private final int mId;
+
+    private CachedId( String name, int id ) {
+      mName = name;
+      mId = id;
+    }
+  }
+}
@@ -13,10 +13,9 @@ public class IdentificationResolver extends DiffResolver {
   @Override
   public void resolve( Element source, Element candidate ) {
     List<Element> sIdentities = source.elements( "identity" );
-    List<Element> cIdentities = candidate.elements();
 
     for (Element sI : sIdentities) {
-      findIdentityForResolution( sI, cIdentities );
+      findIdentityForResolution( sI, candidate );
     }
 
   }
@@ -31,27 +30,12 @@ public class IdentificationResolver extends DiffResolver {
     }
   }
 
-  private void findIdentityForResolution( Element sIdentity, List<Element> candidateIdentities ) {
-    boolean found = false;
-
-    if (candidateIdentities != null && candidateIdentities.size() > 0) {
-      for (Element cIdentity : candidateIdentities) {
-        String sFormat = sIdentity.attributeValue( "format" );
-        String cFormat = cIdentity.attributeValue( "format" );
-        String sMime = sIdentity.attributeValue( "mimetype" );
-        String cMime = cIdentity.attributeValue( "mimetype" );
-        String sTool = sIdentity.attributeValue( "toolname" );
-        String cTool = cIdentity.attributeValue( "toolname" );
-
-        if (sFormat.equals( cFormat ) && sMime.equals( cMime ) && sTool.equals( cTool )) {
-          found = true;
-          resolveIdentities( sIdentity, cIdentity );
-          break;
-        }
-      }
-    }
+  private void findIdentityForResolution( Element sIdentity, Element candidate ) {
+    Element cIdentity = mIndex.byIdentity( candidate, sIdentity );
 
-    if (!found) {
+    if (cIdentity != null) {
+      resolveIdentities( sIdentity, cIdentity );
+    } else {
       List<Element> elements = sIdentity.elements( "tool" );
       for (Element e : elements) {
         String tool = e.attributeValue( "toolname" );
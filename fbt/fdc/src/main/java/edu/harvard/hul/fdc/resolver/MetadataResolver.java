@@ -4,57 +4,59 @@ import java.util.List;
 
 import org.dom4j.Element;
 
+import edu.harvard.hul.fdc.LogWriter;
+
 public class MetadataResolver extends DiffResolver {
 
   @Override
   protected void resolve( Element source, Element candidate ) {
     List<Element> sMetadata = source.elements();
-    List<Element> cMetadata = candidate.elements();
 
     for (Element s : sMetadata) {
-      String sMetadataType = s.getName();
-      boolean found = false;
-      for (Element c : cMetadata) {
-        String cMetadataType = c.getName();
-        if (sMetadataType.equals( cMetadataType )) {
-          resolveMetadata( s, c );
-          found = true;
-          break;
-        }
+      Element c = mIndex.byName( candidate, s.getName() );
+      if (c != null) {
+        resolveMetadata( s, c );
+      } else {
+        missingMetadata( s );
       }
 
-      if (!found) {
-        // TODO create a value mismatch
-        // for all tools in the source tag.
-      }
+    }
+  }
+
+  @Override
+  protected void resolveMissing( Element source ) {
+    // the whole section is gone, so every tool of every metadata type is missing
+    List<Element> sMetadata = source.elements();
+    for (Element s : sMetadata) {
+      missingMetadata( s );
+    }
+  }
 
+  private void missingMetadata( Element source ) {
+    List<Element> sources = source.elements();
+    for (Element e : sources) {
+      missingTool( e.attributeValue( "toolname" ) );
     }
   }
 
   private void resolveMetadata( Element source, Element candidate ) {
 
     List<Element> sources = source.elements();
-    List<Element> candidates = candidate.elements();
 
     for (Element s : sources) {
-      String sNodeName = s.getName();
       String sTool = s.attributeValue( "toolname" );
       String sValue = s.getText();
 
-      boolean found = false;
+      // repeated elements of a tool match if any of them has the same value
+      List<Element> matches = mIndex.allByNameAndTool( candidate, s );
+      boolean found = matches != null;
       boolean equal = false;
-      for (Element c : candidates) {
-        String cNodeName = c.getName();
-        String cTool = c.attributeValue( "toolname" );
-        String cValue = c.getText();
-        if (sNodeName.equals( cNodeName ) && sTool.equals( cTool )) {
-          found = true;
-
-          if (sValue.equals( cValue )) {
+      if (found) {
+        for (Element c : matches) {
+          if (sValue.equals( c.getText() )) {
             equal = true;
             break;
           }
-
         }
       }
 
@@ -65,7 +67,9 @@ public class MetadataResolver extends DiffResolver {
           counter.incrementSourceOccurs( 1 );
         } else {
           handleTool( sTool, mMismatchValues );
-          System.out.println(mCurrentKey + ": " + s.asXML());
+          if (mLogWriter != null) {
+            mLogWriter.submitEvent( LogWriter.EVENT_MISMATCH, mCurrentKey, s.asXML() );
+          }
         }
 
       } else {
@@ -0,0 +1,166 @@
+package edu.harvard.hul.fdc.resolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more names than fit into a memory budget. The names are sorted in
+ * runs that fit, each run is written to a temporary file and the runs are
+ * merged back while the names are read.
+ */
+class SortedRuns {
+
+  // a rough estimate of a String and its list slot
+  private static final int ENTRY_OVERHEAD = 48;
+
+  private long mBudget;
+
+  private List<String> mRun;
+
+  private long mRunBytes;
+
+  private List<File> mFiles;
+
+  SortedRuns( long budget ) {
+    mBudget = budget;
+    mRun = new ArrayList<String>();
+    mFiles = new ArrayList<File>();
+  }
+
+  void add( String name ) throws IOException {
+    mRun.add( name );
+    mRunBytes += 2 * name.length() + ENTRY_OVERHEAD;
+    if (mRunBytes > mBudget) {
+      spill();
+    }
+  }
+
+  /**
+   * Passes the names in order to the visitor and deletes the runs.
+   */
+  void visit( Visitor visitor ) throws IOException {
+    Collections.sort( mRun );
+    if (mFiles.isEmpty()) {
+      for (String name : mRun) {
+        visitor.visit( name );
+      }
+      return;
+    }
+
+    // the last run stays in memory, it is merged as it is
+    PriorityQueue<Run> runs = new PriorityQueue<Run>( mFiles.size() + 1, new Comparator<Run>() {
+      public int compare( Run a, Run b ) {
+        return a.mHead.compareTo( b.mHead );
+      }
+    } );
+    List<Run> open = new ArrayList<Run>();
+    try {
+      for (File file : mFiles) {
+        Run run = new Run( file );
+        open.add( run );
+        if (run.next()) {
+          runs.add( run );
+        }
+      }
+      Run last = new Run( mRun );
+      if (last.next()) {
+        runs.add( last );
+      }
+
+      while (!runs.isEmpty()) {
+        Run run = runs.poll();
+        visitor.visit( run.mHead );
+        if (run.next()) {
+          runs.add( run );
+        }
+      }
+
+    } finally {
+      for (Run run : open) {
+        run.close();
+      }
+      for (File file : mFiles) {
+        file.delete();
+      }
+      mFiles.clear();
+    }
+  }
+
+  private void spill() throws IOException {
+    Collections.sort( mRun );
+    File file = File.createTempFile( "fdc-run", ".spill" );
+    file.deleteOnExit();
+    mFiles.add( file );
+
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+    try {
+      for (String name : mRun) {
+        out.writeUTF( name );
+      }
+    } finally {
+      out.close();
+    }
+    mRun.clear();
+    mRunBytes = 0;
+  }
+
+  interface Visitor {
+
+    void visit( String name ) throws IOException;
+  }
+
+  /**
+   * A sorted run, read from its file or from memory.
+   */
+  private static class Run {
+
+    private DataInputStream mIn;
+
+    private List<String> mNames;
+
+    private int mNext;
+
+    private String mHead;
+
+    private Run( File file ) throws IOException {
+      mIn = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+    }
+
+    private Run( List<String> names ) {
+      mNames = names;
+    }
+
+    private boolean next() throws IOException {
+      if (mNames != null) {
+        mHead = mNext < mNames.size() ? mNames.get( mNext++ ) : null;
+        return mHead != null;
+      }
+
+      try {
+        mHead = mIn.readUTF();
+        return true;
+      } catch (EOFException e) {
+        mHead = null;
+        return false;
+      }
+    }
+
+    private void close() throws IOException {
+      if (mIn != null) {
+        mIn.close();
+      }
+    }
+  }
+}
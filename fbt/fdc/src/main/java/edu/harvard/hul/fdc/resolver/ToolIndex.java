@@ -0,0 +1,128 @@
+package edu.harvard.hul.fdc.resolver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Element;
+
+/**
+ * Indexes the elements of a candidate document, so that the resolvers can
+ * look up the match of a source element instead of scanning all candidate
+ * elements for it. One index is built per compared pair and shared by the
+ * resolvers of all sections. The children of an element are hashed the first
+ * time they are looked up and stay in the index for the rest of the pair.
+ * Elements with the same key are kept in document order, the first one is the
+ * one the resolvers used to match.
+ */
+public class ToolIndex {
+
+  private static final char SEPARATOR = '\u0000';
+
+  private static final char BY_NAME = 'n';
+
+  private static final char BY_NAME_AND_TOOL = 't';
+
+  private static final char BY_IDENTITY = 'i';
+
+  // all indexed children of the document, by their parent, the kind of key and the key
+  private Map<String, List<Element>> mElements;
+
+  private Map<Element, Integer> mParents;
+
+  private Set<String> mIndexed;
+
+  public ToolIndex() {
+    mElements = new HashMap<String, List<Element>>();
+    mParents = new IdentityHashMap<Element, Integer>();
+    mIndexed = new HashSet<String>();
+  }
+
+  /**
+   * Returns the first child of the parent with the name and toolname of the
+   * source element, or null.
+   */
+  public Element byNameAndTool( Element parent, Element source ) {
+    return first( lookup( parent, BY_NAME_AND_TOOL, nameAndToolKey( source ) ) );
+  }
+
+  /**
+   * Returns all children of the parent with the name and toolname of the
+   * source element, or null.
+   */
+  public List<Element> allByNameAndTool( Element parent, Element source ) {
+    return lookup( parent, BY_NAME_AND_TOOL, nameAndToolKey( source ) );
+  }
+
+  public Element byName( Element parent, String name ) {
+    return first( lookup( parent, BY_NAME, name ) );
+  }
+
+  /**
+   * Returns the first child of the parent with the format, mimetype and
+   * toolname of the source identity, or null.
+   */
+  public Element byIdentity( Element parent, Element identity ) {
+    return first( lookup( parent, BY_IDENTITY, identityKey( identity ) ) );
+  }
+
+  public static String nameAndToolKey( Element e ) {
+    return key( e.getName(), e.attributeValue( "toolname" ) );
+  }
+
+  public static String identityKey( Element e ) {
+    return key( e.attributeValue( "format" ), e.attributeValue( "mimetype" ), e.attributeValue( "toolname" ) );
+  }
+
+  private Element first( List<Element> list ) {
+    return list == null ? null : list.get( 0 );
+  }
+
+  private List<Element> lookup( Element parent, char kind, String key ) {
+    Integer id = mParents.get( parent );
+    if (id == null) {
+      id = mParents.size();
+      mParents.put( parent, id );
+    }
+
+    String prefix = id.toString() + kind;
+    if (mIndexed.add( prefix )) {
+      List<Element> children = parent.elements();
+      for (Element e : children) {
+        add( prefix + key( e, kind ), e );
+      }
+    }
+    return mElements.get( prefix + key );
+  }
+
+  private static String key( Element e, char kind ) {
+    if (kind == BY_NAME) {
+      return e.getName();
+    } else if (kind == BY_NAME_AND_TOOL) {
+      return nameAndToolKey( e );
+    }
+    return identityKey( e );
+  }
+
+  private void add( String key, Element e ) {
+    List<Element> list = mElements.get( key );
+    if (list == null) {
+      list = new ArrayList<Element>( 1 );
+      mElements.put( key, list );
+    }
+    list.add( e );
+  }
+
+  private static String key( String... parts ) {
+    StringBuilder builder = new StringBuilder();
+    for (String part : parts) {
+      // null and empty must not end up with the same key
+      builder.append( part == null ? "\u0001" : part ).append( SEPARATOR );
+    }
+    return builder.toString();
+  }
+}
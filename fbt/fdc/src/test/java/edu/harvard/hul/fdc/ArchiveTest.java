@@ -0,0 +1,95 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.harvard.hul.fdc.archive.TestArchives;
+
+public class ArchiveTest {
+
+  private static final String XML = "<fits><fileinfo><size toolname=\"Jhove\">1</size></fileinfo></fits>";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void archivesPairLikeTheirFolder() throws Exception {
+    Map<String, String> source = files( "a.fits.xml", XML, "dir/b.fits.xml", XML, "only-source.fits.xml", XML );
+    Map<String, String> candidate = files( "a.fits.xml", XML.replace( ">1<", ">2<" ), "dir/b.fits.xml", XML,
+        "only-candidate.fits.xml", XML );
+    File sourceFolder = writeFolder( "source", source );
+    TestRun folders = TestRun.run( mFolder.getRoot(), "-s", sourceFolder.getPath(), "-c", writeFolder( "candidate",
+        candidate ).getPath(), "-k", "k" );
+    assertEquals( ControllerState.MULTIPLE_PROBLEMS, folders.getExitCode() );
+
+    for (String name : new String[] { "candidate.zip", "candidate.tar" }) {
+      assertSameRun( folders, sourceFolder, writeArchive( name, candidate ) );
+      // an archive of the folder itself, with all files in its top-level folder
+      assertSameRun( folders, sourceFolder, writeArchive( "root-" + name, prefix( "candidate/", candidate ) ) );
+    }
+    // archives on both sides, in differently named folders
+    assertSameRun( folders, writeArchive( "source.zip", prefix( "s/", source ) ), writeArchive( "c.tar", prefix(
+        "c/", candidate ) ) );
+  }
+
+  @Test
+  public void keepsSubfolderBothSidesHave() throws Exception {
+    Map<String, String> files = files( "sub/a.fits.xml", XML, "sub/b.fits.xml", XML );
+    File source = writeFolder( "source", files );
+    TestRun folders = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", writeFolder( "candidate", files )
+        .getPath(), "-k", "k" );
+    assertEquals( ControllerState.OK, folders.getExitCode() );
+
+    assertSameRun( folders, source, writeArchive( "sub.zip", files ) );
+    assertSameRun( folders, source, writeArchive( "c.tar", files ) );
+    assertSameRun( folders, writeArchive( "s.tar", files ), writeArchive( "c.zip", files ) );
+  }
+
+  private void assertSameRun( TestRun expected, File source, File candidate ) throws Exception {
+    TestRun run = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "-k", "k" );
+    assertEquals( candidate.getName(), expected.getExitCode(), run.getExitCode() );
+    assertEquals( candidate.getName(), expected.getReport(), run.getReport() );
+    assertEquals( candidate.getName(), expected.getLog(), run.getLog() );
+  }
+
+  private File writeFolder( String name, Map<String, String> files ) throws Exception {
+    File folder = mFolder.newFolder( name );
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      TestRun.write( new File( folder, file.getKey() ), file.getValue() );
+    }
+    return folder;
+  }
+
+  private File writeArchive( String name, Map<String, String> files ) throws Exception {
+    File file = new File( mFolder.getRoot(), name );
+    if (name.endsWith( ".zip" )) {
+      TestArchives.writeZip( file, files );
+    } else {
+      TestArchives.writeTar( file, files );
+    }
+    return file;
+  }
+
+  private static Map<String, String> files( String... pathsAndContents ) {
+    Map<String, String> files = new LinkedHashMap<String, String>();
+    for (int i = 0; i < pathsAndContents.length; i += 2) {
+      files.put( pathsAndContents[i], pathsAndContents[i + 1] );
+    }
+    return files;
+  }
+
+  private static Map<String, String> prefix( String folder, Map<String, String> files ) {
+    Map<String, String> prefixed = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      prefixed.put( folder + file.getKey(), file.getValue() );
+    }
+    return prefixed;
+  }
+}
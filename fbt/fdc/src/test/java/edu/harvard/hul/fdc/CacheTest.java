@@ -0,0 +1,60 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void cachedRunLogsAndReportsLikeUncachedRun() throws Exception {
+    File corpus = mFolder.newFolder( "corpus" );
+    TestRun.generate( corpus, 200 );
+    String source = new File( corpus, "source" ).getPath();
+    String candidate = new File( corpus, "candidate" ).getPath();
+    String cache = mFolder.newFolder( "cache" ).getPath();
+
+    TestRun uncached = TestRun.run( mFolder.getRoot(), "-s", source, "-c", candidate );
+    TestRun miss = TestRun.run( mFolder.getRoot(), "-s", source, "-c", candidate, "--cache", cache );
+    TestRun hit = TestRun.run( mFolder.getRoot(), "-s", source, "-c", candidate, "--cache", cache );
+    TestRun parallelHit = TestRun.run( mFolder.getRoot(), "-s", source, "-c", candidate, "--cache", cache,
+        "--threads", "4" );
+
+    assertTrue( new File( cache ).list().length > 0 );
+    assertTrue( uncached.getLog().size() > 20 );
+    for (TestRun cached : new TestRun[] { miss, hit, parallelHit }) {
+      assertEquals( uncached.getExitCode(), cached.getExitCode() );
+      assertEquals( uncached.getReport(), cached.getReport() );
+      assertEquals( uncached.getLog(), cached.getLog() );
+    }
+  }
+
+  @Test
+  public void cachedEventsNameTheComparedFile() throws Exception {
+    File source = mFolder.newFolder( "source" );
+    File candidate = mFolder.newFolder( "candidate" );
+    String cache = mFolder.newFolder( "cache" ).getPath();
+    // the same pair under two paths shares its cache entry
+    for (String name : new String[] { "a.fits.xml", "b.fits.xml" }) {
+      TestRun.write( new File( source, name ), "<fits><metadata><text><charset toolname=\"Jhove\">UTF-8</charset>"
+          + "</text></metadata></fits>" );
+      TestRun.write( new File( candidate, name ), "<fits><metadata><text><charset toolname=\"Jhove\">ASCII</charset>"
+          + "</text></metadata></fits>" );
+    }
+
+    TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "--cache", cache );
+    TestRun hit = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "--cache", cache );
+    for (String name : new String[] { "a.fits.xml", "b.fits.xml" }) {
+      String mismatch = name + ": <charset toolname=\"Jhove\">UTF-8</charset>";
+      assertTrue( hit.getLog().toString(), hit.getLog().contains( mismatch ) );
+    }
+  }
+}
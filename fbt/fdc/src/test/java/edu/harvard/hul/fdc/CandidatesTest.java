@@ -0,0 +1,54 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CandidatesTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void reportsEachCandidateLikeASingleRun() throws Exception {
+    for (String mode : new String[] { FitsXMLComparator.ENGINE_DOM4J, FitsXMLComparator.ENGINE_STAX }) {
+      assertLikeSingleRuns( mode );
+    }
+  }
+
+  private void assertLikeSingleRuns( String mode ) throws Exception {
+    File corpus = mFolder.newFolder( "corpus-" + mode );
+    TestRun.generate( corpus, 200 );
+    File source = new File( corpus, "source" );
+    File changed = new File( corpus, "candidate" );
+    // a second candidate that is the same as the source, but for a missing file
+    File same = new File( corpus, "same" );
+    FileUtils.copyDirectory( source, same );
+    File missing = new File( same, "dir3" ).listFiles()[0];
+    assertTrue( missing.delete() );
+
+    File changedReport = new File( corpus, "changed.txt" );
+    File sameReport = new File( corpus, "same.txt" );
+    TestRun several = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", changed.getPath(), "-c", same
+        .getPath(), "-k", "changed", "-k", "same", "--report", changedReport.getPath(), "--report", sameReport
+        .getPath(), "--mode", mode, "--no-fast-path" );
+
+    TestRun changedRun = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", changed.getPath(), "-k",
+        "changed", "--mode", mode, "--no-fast-path" );
+    TestRun sameRun = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", same.getPath(), "-k", "same",
+        "--mode", mode, "--no-fast-path" );
+    assertEquals( changedRun.getReport(), FileUtils.readFileToString( changedReport, "UTF-8" ) );
+    assertEquals( sameRun.getReport(), FileUtils.readFileToString( sameReport, "UTF-8" ) );
+
+    assertEquals( ControllerState.FILE_MISSING_CANDIDATE, sameRun.getExitCode() );
+    assertTrue( several.getLog().contains( "Exit code of changed: " + changedRun.getExitCode() ) );
+    assertTrue( several.getLog().contains( "Exit code of same: " + sameRun.getExitCode() ) );
+    assertEquals( ControllerState.MULTIPLE_PROBLEMS, several.getExitCode() );
+  }
+}
@@ -0,0 +1,70 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EngineTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void staxReportsLikeDom4J() throws Exception {
+    File corpus = mFolder.newFolder( "corpus" );
+    TestRun.generate( corpus, 200 );
+    assertSameResults( new File( corpus, "source" ), new File( corpus, "candidate" ) );
+  }
+
+  @Test
+  public void staxHandlesSectionsLikeDom4J() throws Exception {
+    File source = mFolder.newFolder( "source" );
+    File candidate = mFolder.newFolder( "candidate" );
+    String identification = "<identification><identity format=\"Plain text\" mimetype=\"text/plain\">"
+        + "<tool toolname=\"Droid\" toolversion=\"6.1\"/></identity></identification>";
+    String fileinfo = "<fileinfo><size toolname=\"Jhove\">1</size></fileinfo>";
+    String metadata = "<metadata><text><charset toolname=\"Jhove\">UTF-8</charset></text></metadata>";
+
+    // sections in another order, a missing section and sections no resolver compares
+    TestRun.write( new File( source, "order.fits.xml" ), "<fits>" + identification + fileinfo + metadata + "</fits>" );
+    TestRun.write( new File( candidate, "order.fits.xml" ), "<fits><!-- comment -->" + metadata + fileinfo
+        + identification + "</fits>" );
+    TestRun.write( new File( source, "missing.fits.xml" ), "<fits>" + identification + fileinfo + metadata
+        + "</fits>" );
+    TestRun.write( new File( candidate, "missing.fits.xml" ), "<fits>" + identification + "<filestatus/>"
+        + metadata.replace( "UTF-8", "ASCII" ) + "</fits>" );
+    TestRun.write( new File( source, "nested.fits.xml" ), "<fits><filestatus><fileinfo/></filestatus>" + fileinfo
+        + "</fits>" );
+    TestRun.write( new File( candidate, "nested.fits.xml" ), "<fits>" + fileinfo.replace( ">1<", ">2<" )
+        + "<toolOutput>" + fileinfo + "</toolOutput></fits>" );
+    // a repeated section is compared with the first candidate section of its name
+    String repeated = "<fits>" + fileinfo + fileinfo.replace( "Jhove\">1", "Exif\">2" ) + "</fits>";
+    TestRun.write( new File( source, "repeated.fits.xml" ), repeated );
+    TestRun.write( new File( candidate, "repeated.fits.xml" ), repeated );
+    // comments and processing instructions within a section
+    TestRun.write( new File( source, "comments.fits.xml" ), "<fits>" + fileinfo.replace( ">1<", "><!-- c -->1<?pi x?><" )
+        + "</fits>" );
+    TestRun.write( new File( candidate, "comments.fits.xml" ), "<fits>" + fileinfo.replace( ">1<", ">2<!-- c --><" )
+        + "</fits>" );
+
+    TestRun stax = assertSameResults( source, candidate );
+    assertTrue( stax.getReport(), stax.getReport().contains( "missing tool(s)" ) );
+    assertTrue( stax.getReport(), stax.getReport().contains( "Exif" ) );
+  }
+
+  private TestRun assertSameResults( File source, File candidate ) throws Exception {
+    TestRun dom4j = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "--no-fast-path",
+        "--mode", "dom4j" );
+    TestRun stax = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "--no-fast-path",
+        "--mode", "stax" );
+    assertEquals( dom4j.getExitCode(), stax.getExitCode() );
+    assertEquals( dom4j.getReport(), stax.getReport() );
+    assertEquals( dom4j.getLog(), stax.getLog() );
+    return stax;
+  }
+}
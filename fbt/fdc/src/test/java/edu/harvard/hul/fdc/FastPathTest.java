@@ -0,0 +1,58 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastPathTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void fastPathReportsLikeFullResolve() throws Exception {
+    File corpus = mFolder.newFolder( "corpus" );
+    TestRun.generate( corpus, 200 );
+    assertSameResults( new File( corpus, "source" ), new File( corpus, "candidate" ) );
+  }
+
+  @Test
+  public void ambiguousPairsAreResolvedInFull() throws Exception {
+    File source = mFolder.newFolder( "source" );
+    File candidate = mFolder.newFolder( "candidate" );
+    String[] sections = { "<fileinfo><size toolname=\"Jhove\">1</size><size toolname=\"Jhove\">2</size></fileinfo>",
+        "<fileinfo><size>1</size></fileinfo>",
+        "<metadata><text><charset toolname=\"Jhove\">UTF-8</charset></text><text>"
+            + "<charset toolname=\"Jhove\">ASCII</charset></text></metadata>",
+        "<identification><identity format=\"a\" mimetype=\"b\"><tool toolname=\"Droid\"/></identity>"
+            + "</identification>" };
+    for (int i = 0; i < sections.length; i++) {
+      TestRun.write( new File( source, "f" + i + ".fits.xml" ), "<fits timestamp=\"10:00\">" + sections[i]
+          + "</fits>" );
+      TestRun.write( new File( candidate, "f" + i + ".fits.xml" ), "<fits timestamp=\"11:00\">" + sections[i]
+          + "</fits>" );
+    }
+
+    TestRun fast = assertSameResults( source, candidate );
+    assertTrue( fast.getReport(), fast.getReport().contains( "mismatching values" ) );
+  }
+
+  private TestRun assertSameResults( File source, File candidate ) throws Exception {
+    String s = source.getPath();
+    String c = candidate.getPath();
+    TestRun full = TestRun.run( mFolder.getRoot(), "-s", s, "-c", c, "--no-fast-path" );
+    // the pairs are checked from their files, or from their bytes when read ahead
+    for (TestRun fast : new TestRun[] { TestRun.run( mFolder.getRoot(), "-s", s, "-c", c ),
+        TestRun.run( mFolder.getRoot(), "-s", s, "-c", c, "--read-ahead", "4" ) }) {
+      assertEquals( full.getExitCode(), fast.getExitCode() );
+      assertEquals( full.getReport(), fast.getReport() );
+      assertEquals( full.getLog(), fast.getLog() );
+    }
+    return full;
+  }
+}
@@ -0,0 +1,56 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocateTest {
+
+  private static final String XML = "<fits><fileinfo><size toolname=\"Jhove\">1</size></fileinfo></fits>";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void findsFirstFolderThatDiffers() throws Exception {
+    File source = writeOutput( "source", XML );
+    // the outputs of successive commits, the fourth one changed the size and the third has none
+    File[] folders = new File[] { writeOutput( "c1", XML ), writeOutput( "c2", XML ), mFolder.newFolder( "c3" ),
+        writeOutput( "c4", XML.replace( ">1<", ">2<" ) ), writeOutput( "c5", XML.replace( ">1<", ">2<" ) ) };
+    String[] args = new String[] { "locate", "-s", source.getPath(), folders[0].getPath(), folders[1].getPath(),
+        folders[2].getPath(), folders[3].getPath(), folders[4].getPath() };
+
+    TestRun locate = TestRun.run( mFolder.getRoot(), args );
+    assertTrue( locate.getLog().toString(), locate.getLog().contains( "Skipping " + folders[2].getPath()
+        + ", it cannot be compared" ) );
+    assertTrue( locate.getLog().toString(), locate.getLog().contains( "First folder that differs from the source: "
+        + folders[3].getPath() + ", after " + folders[1].getPath() ) );
+
+    // the folder found is compared in full, like a run of its own
+    TestRun single = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", folders[3].getPath(), "-k", "c4" );
+    assertEquals( ControllerState.TOOL_VALUE_MISMATCH, single.getExitCode() );
+    assertEquals( single.getExitCode(), locate.getExitCode() );
+    assertEquals( single.getReport(), locate.getReport() );
+  }
+
+  @Test
+  public void exitsWithOKIfNoFolderDiffers() throws Exception {
+    File source = writeOutput( "source", XML );
+    TestRun locate = TestRun.run( mFolder.getRoot(), "locate", "-s", source.getPath(), writeOutput( "c1", XML )
+        .getPath(), writeOutput( "c2", XML ).getPath() );
+    assertEquals( ControllerState.OK, locate.getExitCode() );
+    assertTrue( locate.getLog().toString(), locate.getLog().contains( "No folder differs from the source" ) );
+  }
+
+  private File writeOutput( String name, String size ) throws Exception {
+    File folder = mFolder.newFolder( name );
+    TestRun.write( new File( folder, "a.fits.xml" ), XML );
+    TestRun.write( new File( folder, "dir/b.fits.xml" ), size );
+    return folder;
+  }
+}
@@ -0,0 +1,53 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogWriterTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void ndjsonEscapesLikeTheJSONReport() throws Exception {
+    File file = new File( mFolder.getRoot(), "log.ndjson" );
+    LogWriter log = new LogWriter( new PrintStream( new ByteArrayOutputStream() ) );
+    log.configure( file, LogWriter.FORMAT_NDJSON, 0 );
+    log.start( "key" );
+    log.submitEvent( LogWriter.EVENT_MISMATCH, "dir/\"f\".fits.xml", "<a>\n\t\\</a>" );
+    log.flush( "key" );
+
+    List<String> lines = FileUtils.readLines( file, "UTF-8" );
+    assertEquals( 2, lines.size() );
+    assertTrue( lines.get( 1 ), lines.get( 1 ).endsWith( ",\"type\":\"mismatch\",\"file\":\"dir/\\\"f\\\".fits.xml\""
+        + ",\"message\":\"<a>\\n\\t\\\\</a>\"}" ) );
+  }
+
+  @Test
+  public void buffersReleaseTheirEventsInOrder() throws Exception {
+    File file = new File( mFolder.getRoot(), "log.txt" );
+    LogWriter log = new LogWriter( new PrintStream( new ByteArrayOutputStream() ) );
+    log.configure( file, LogWriter.FORMAT_TEXT, 0 );
+    LogWriter.Buffer first = log.buffer();
+    LogWriter.Buffer second = log.forCandidate( "b" ).buffer();
+    first.submitEvent( LogWriter.EVENT_MISMATCH, "f1", "one" );
+    second.submitEvent( LogWriter.EVENT_MISMATCH, "f2", "two" );
+    second.release();
+    first.release();
+    log.flush( "key" );
+
+    List<String> lines = FileUtils.readLines( file, "UTF-8" );
+    assertEquals( "[b] f2: two", lines.get( lines.size() - 2 ) );
+    assertEquals( "f1: one", lines.get( lines.size() - 1 ) );
+  }
+}
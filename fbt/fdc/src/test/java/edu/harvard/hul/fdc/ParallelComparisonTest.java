@@ -0,0 +1,65 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelComparisonTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void parallelRunLogsAndReportsLikeSequentialRun() throws Exception {
+    File corpus = mFolder.newFolder( "corpus" );
+    TestRun.generate( corpus, 300 );
+    String source = new File( corpus, "source" ).getPath();
+    String candidate = new File( corpus, "candidate" ).getPath();
+
+    TestRun sequential = TestRun.run( mFolder.getRoot(), "-s", source, "-c", candidate );
+    assertTrue( countMismatches( sequential ) > 10 );
+    for (String executor : new String[] { "fixed", "forkjoin" }) {
+      TestRun parallel = TestRun.run( mFolder.getRoot(), "-s", source, "-c", candidate, "--threads", "4",
+          "--executor", executor );
+      assertEquals( sequential.getExitCode(), parallel.getExitCode() );
+      assertEquals( sequential.getReport(), parallel.getReport() );
+      assertEquals( sequential.getLog(), parallel.getLog() );
+    }
+  }
+
+  @Test
+  public void toolsWithoutNameAreReported() throws Exception {
+    File source = mFolder.newFolder( "source" );
+    File candidate = mFolder.newFolder( "candidate" );
+    for (int i = 0; i < 20; i++) {
+      TestRun.write( new File( source, "f" + i + ".fits.xml" ), "<fits><fileinfo>"
+          + "<size toolname=\"Jhove\">1</size><md5checksum>abc</md5checksum></fileinfo></fits>" );
+      TestRun.write( new File( candidate, "f" + i + ".fits.xml" ), "<fits><fileinfo>"
+          + "<size toolname=\"Jhove\">1</size><md5checksum>" + (i % 2 == 0 ? "abc" : "def")
+          + "</md5checksum></fileinfo></fits>" );
+    }
+
+    TestRun sequential = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath() );
+    TestRun parallel = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(),
+        "--threads", "4" );
+    assertEquals( ControllerState.TOOL_VALUE_MISMATCH, sequential.getExitCode() );
+    assertTrue( sequential.getReport(), sequential.getReport().contains( "\nnull\n" ) );
+    assertEquals( sequential.getReport(), parallel.getReport() );
+    assertEquals( sequential.getLog(), parallel.getLog() );
+  }
+
+  private int countMismatches( TestRun run ) {
+    int mismatches = 0;
+    for (String line : run.getLog()) {
+      if (line.startsWith( "dir" )) {
+        mismatches++;
+      }
+    }
+    return mismatches;
+  }
+}
@@ -0,0 +1,60 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void mergedShardsReportAndLogLikeSingleRun() throws Exception {
+    File corpus = mFolder.newFolder( "corpus" );
+    TestRun.generate( corpus, 200 );
+    File source = new File( corpus, "source" );
+    File candidate = new File( corpus, "candidate" );
+    String xml = "<fits><fileinfo><size toolname=\"Jhove\">1</size></fileinfo></fits>";
+    for (String dir : new String[] { "dir0", "dir5", "dir9" }) {
+      TestRun.write( new File( source, dir + "/only-source.fits.xml" ), xml );
+      TestRun.write( new File( candidate, dir + "/only-candidate.fits.xml" ), xml );
+    }
+
+    TestRun single = TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "-k", "k" );
+    List<String> merge = new ArrayList<String>();
+    merge.add( "merge" );
+    merge.add( "-k" );
+    merge.add( "k" );
+    for (int shard = 1; shard <= 3; shard++) {
+      String partial = new File( mFolder.getRoot(), "shard" + shard + ".bin" ).getPath();
+      TestRun.run( mFolder.getRoot(), "-s", source.getPath(), "-c", candidate.getPath(), "-k", "k", "--shard", shard
+          + "/3", "--partial", partial );
+      merge.add( partial );
+    }
+    TestRun merged = TestRun.run( mFolder.getRoot(), merge.toArray( new String[merge.size()] ) );
+
+    assertEquals( single.getExitCode(), merged.getExitCode() );
+    assertEquals( single.getReport(), merged.getReport() );
+    List<String> missing = missingFiles( single );
+    assertEquals( 6, missing.size() );
+    assertEquals( missing, missingFiles( merged ) );
+  }
+
+  private List<String> missingFiles( TestRun run ) {
+    List<String> missing = new ArrayList<String>();
+    for (String line : run.getLog()) {
+      if (line.startsWith( "Missing " )) {
+        missing.add( line );
+      }
+    }
+    return missing;
+  }
+}
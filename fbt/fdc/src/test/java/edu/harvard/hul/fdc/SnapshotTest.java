@@ -0,0 +1,64 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotTest {
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void snapshotComparesLikeItsFolder() throws Exception {
+    File corpus = mFolder.newFolder( "corpus" );
+    TestRun.generate( corpus, 200 );
+    File source = new File( corpus, "source" );
+    File candidate = new File( corpus, "candidate" );
+    // namespaces, CDATA, entities and repeated names for the string table of the snapshot
+    String xml = "<fits xmlns=\"http://hul.harvard.edu/ois/xml/ns/fits/fits_output\" xmlns:x=\"urn:x\">"
+        + "<identification><identity format=\"Plain text\" mimetype=\"text/plain\"><tool toolname=\"Jhove\" "
+        + "toolversion=\"1.5\"/></identity></identification><fileinfo><size toolname=\"Jhove\">1</size>"
+        + "<x:note toolname=\"Exif\" x:kind=\"a &amp; b\"><![CDATA[<not markup>]]></x:note></fileinfo>"
+        + "<metadata><text><charset toolname=\"Jhove\">US-ASCII</charset><charset toolname=\"Tika\">UTF-8"
+        + "</charset></text></metadata></fits>";
+    TestRun.write( new File( source, "dir0/namespaces.fits.xml" ), xml );
+    TestRun.write( new File( candidate, "dir0/namespaces.fits.xml" ), xml.replace( "&lt;not markup&gt;", "other" )
+        .replace( "<![CDATA[<not markup>]]>", "other" ).replace( "US-ASCII", "UTF-8" ) );
+    TestRun.write( new File( source, "dir1/only-source.fits.xml" ), xml );
+
+    File snapshot = new File( mFolder.getRoot(), "source.snapshot" );
+    TestRun written = TestRun.run( mFolder.getRoot(), "snapshot", "-s", source.getPath(), snapshot.getPath() );
+    assertEquals( ControllerState.OK, written.getExitCode() );
+    assertTrue( Snapshot.isSnapshot( snapshot ) );
+
+    for (String mode : new String[] { FitsXMLComparator.ENGINE_DOM4J, FitsXMLComparator.ENGINE_STAX }) {
+      String[][] runs = { { "--mode", mode, "--no-fast-path" }, { "--mode", mode, "--threads", "2" } };
+      for (String[] options : runs) {
+        TestRun folder = TestRun.run( mFolder.getRoot(), args( source, candidate, options ) );
+        TestRun snapshotRun = TestRun.run( mFolder.getRoot(), args( snapshot, candidate, options ) );
+        assertEquals( folder.getExitCode(), snapshotRun.getExitCode() );
+        assertEquals( folder.getReport(), snapshotRun.getReport() );
+        assertEquals( folder.getLog(), snapshotRun.getLog() );
+        assertTrue( snapshotRun.getLog().toString(), snapshotRun.getLog().toString().contains( "namespaces.fits.xml" ) );
+      }
+    }
+  }
+
+  private static String[] args( File source, File candidate, String... options ) {
+    String[] args = new String[6 + options.length];
+    args[0] = "-s";
+    args[1] = source.getPath();
+    args[2] = "-c";
+    args[3] = candidate.getPath();
+    args[4] = "-k";
+    args[5] = "k";
+    System.arraycopy( options, 0, args, 6, options.length );
+    return args;
+  }
+}
@@ -0,0 +1,58 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StratifiedSamplerTest {
+
+  private static final String IDENTIFICATION = "<identification><identity format=\"Plain text\" "
+      + "mimetype=\"text/plain\"><tool toolname=\"Jhove\"/></identity></identification>";
+
+  private static final String TOOL_OUTPUT = "<toolOutput><tool name=\"Raw\"><identity format=\"Raw\" "
+      + "mimetype=\"raw/raw\"/></tool></toolOutput>";
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void readsStratumFromIdentificationOnly() throws Exception {
+    File source = mFolder.newFolder( "source" );
+    List<String> paths = Arrays.asList( "plain.fits.xml", "raw-first.fits.xml", "raw-only.fits.xml",
+        "empty.fits.xml" );
+    TestRun.write( new File( source, paths.get( 0 ) ), "<fits>" + IDENTIFICATION + "</fits>" );
+    TestRun.write( new File( source, paths.get( 1 ) ), "<fits>" + TOOL_OUTPUT
+        + "<fileinfo xmlns:x=\"urn:x\"><size toolname=\"Jhove\" x:a=\"b\">1</size></fileinfo>" + IDENTIFICATION
+        + "</fits>" );
+    TestRun.write( new File( source, paths.get( 2 ) ), "<fits><identification/>" + TOOL_OUTPUT + "</fits>" );
+    TestRun.write( new File( source, paths.get( 3 ) ), "<fits>" + TOOL_OUTPUT + "</fits>" );
+
+    assertStrata( new StratifiedSampler(), source, paths );
+
+    File file = new File( mFolder.getRoot(), "source.snapshot" );
+    Snapshot.write( source, paths, file, new FitsXMLComparator() );
+    Snapshot snapshot = Snapshot.open( file );
+    try {
+      StratifiedSampler sampler = new StratifiedSampler();
+      sampler.setSnapshot( snapshot );
+      assertStrata( sampler, source, paths );
+    } finally {
+      snapshot.close();
+    }
+  }
+
+  private void assertStrata( StratifiedSampler sampler, File source, List<String> paths ) {
+    assertEquals( paths.size(), sampler.sample( source, paths, paths.size(), 1 ).size() );
+    assertEquals( 2, sampler.getStrata() );
+    assertEquals( "Plain text (text/plain)", sampler.getStratum( paths.get( 0 ) ) );
+    assertEquals( "Plain text (text/plain)", sampler.getStratum( paths.get( 1 ) ) );
+    assertEquals( "unknown", sampler.getStratum( paths.get( 2 ) ) );
+    assertEquals( "unknown", sampler.getStratum( paths.get( 3 ) ) );
+  }
+}
@@ -0,0 +1,106 @@
+package edu.harvard.hul.fdc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import edu.harvard.hul.fdc.cli.CLI;
+import edu.harvard.hul.fdc.generator.CorpusGenerator;
+
+/**
+ * Runs the comparator in process, the same as {@link App} does, and keeps
+ * its exit code, log and report for the tests to compare.
+ */
+class TestRun {
+
+  private int mExitCode;
+
+  private List<String> mLog;
+
+  private String mReport;
+
+  private String mConsole;
+
+  /**
+   * Runs with the arguments, writing the log and the report to new files in
+   * the folder. If the arguments name the reports, e.g. one per candidate,
+   * they are left to the caller.
+   */
+  static TestRun run( File folder, String... args ) throws IOException {
+    File log = File.createTempFile( "log", ".txt", folder );
+    List<String> input = new ArrayList<String>( Arrays.asList( args ) );
+    Collections.addAll( input, "--log", log.getPath() );
+    File report = null;
+    if (!input.contains( "--report" )) {
+      report = File.createTempFile( "report", ".txt", folder );
+      Collections.addAll( input, "--report", report.getPath() );
+    }
+
+    ByteArrayOutputStream console = new ByteArrayOutputStream();
+    Controller controller = new Controller( new CLI(), new ControllerState(), new FitsXMLComparator(),
+        new LogWriter( new PrintStream( console, true, "UTF-8" ) ) );
+    controller.setInput( input.toArray( new String[input.size()] ) );
+    controller.run();
+
+    TestRun run = new TestRun();
+    run.mExitCode = controller.getState().getExitCode();
+    run.mLog = new ArrayList<String>();
+    for (String line : FileUtils.readLines( log, "UTF-8" )) {
+      // the header and the paths of the output files differ from run to run
+      if (!line.startsWith( "###" ) && !line.startsWith( "Comparing Base with" ) && !line.startsWith( "Writing " )) {
+        run.mLog.add( line );
+      }
+    }
+    run.mReport = report == null ? null : FileUtils.readFileToString( report, "UTF-8" );
+    run.mConsole = console.toString( "UTF-8" );
+    return run;
+  }
+
+  /**
+   * Generates a corpus with many changes into the source and candidate
+   * folders within the folder.
+   */
+  static void generate( File folder, int files ) throws IOException {
+    CorpusGenerator generator = new CorpusGenerator();
+    generator.setFiles( files );
+    generator.setDepth( 1 );
+    generator.setFanOut( 10 );
+    generator.setMetadataElements( 10 );
+    generator.setNewToolRate( 0.1 );
+    generator.setUpdatedToolRate( 0.1 );
+    generator.setMissingToolRate( 0.1 );
+    generator.setMismatchRate( 0.2 );
+    generator.generate( folder );
+  }
+
+  static void write( File file, String content ) throws IOException {
+    FileUtils.writeStringToFile( file, content, "UTF-8" );
+  }
+
+  int getExitCode() {
+    return mExitCode;
+  }
+
+  /**
+   * Returns the lines of the log, without the lines that differ between
+   * runs of the same comparison.
+   */
+  List<String> getLog() {
+    return mLog;
+  }
+
+  String getReport() {
+    return mReport;
+  }
+
+  String getConsole() {
+    return mConsole;
+  }
+}
@@ -0,0 +1,78 @@
+package edu.harvard.hul.fdc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UnchangedOutputCheckTest {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private static final String IDENTIFICATION = "<identification><identity format=\"Plain text\" mimetype=\"text/plain\">"
+      + "<tool toolname=\"Droid\" toolversion=\"6.1\"/><tool toolname=\"Jhove\" toolversion=\"1.5\"/></identity>"
+      + "</identification>";
+
+  private UnchangedOutputCheck mCheck = new UnchangedOutputCheck();
+
+  @Test
+  public void timestampsAreIgnored() throws Exception {
+    String fileinfo = "<fileinfo><size toolname=\"Jhove\">1</size></fileinfo>";
+    Map<String, List<String>> tools = mCheck.check( fits( "10:00", IDENTIFICATION + fileinfo ), fits( "11:00",
+        IDENTIFICATION + fileinfo ) );
+    assertNotNull( tools );
+    assertEquals( Arrays.asList( "Droid", "Jhove" ), tools.get( "identification" ) );
+    assertEquals( Arrays.asList( "Jhove" ), tools.get( "fileinfo" ) );
+  }
+
+  @Test
+  public void changedValuesAreCompared() throws Exception {
+    assertNull( mCheck.check( fits( "10:00", "<fileinfo><size toolname=\"Jhove\">1</size></fileinfo>" ), fits(
+        "11:00", "<fileinfo><size toolname=\"Jhove\">2</size></fileinfo>" ) ) );
+  }
+
+  @Test
+  public void filesTheResolversMatchAmbiguouslyAreCompared() throws Exception {
+    String[] sections = {
+        // a tool without a name
+        "<fileinfo><size>1</size></fileinfo>",
+        "<metadata><text><charset>UTF-8</charset></text></metadata>",
+        "<identification><identity format=\"a\" mimetype=\"b\"><tool toolversion=\"1\"/></identity></identification>",
+        // an identity tool without a version, or with two
+        "<identification><identity format=\"a\" mimetype=\"b\"><tool toolname=\"Droid\"/></identity></identification>",
+        "<identification><identity format=\"a\" mimetype=\"b\"><tool toolname=\"Droid\" toolversion=\"1\"/>"
+            + "<tool toolname=\"Droid\" toolversion=\"2\"/></identity></identification>",
+        // repeated keys
+        "<fileinfo><size toolname=\"Jhove\">1</size><size toolname=\"Jhove\">2</size></fileinfo>",
+        "<metadata><text><charset toolname=\"Jhove\">UTF-8</charset></text><text/></metadata>",
+        "<identification><identity format=\"a\" mimetype=\"b\"><tool toolname=\"Droid\" toolversion=\"1\"/>"
+            + "</identity><identity format=\"a\" mimetype=\"b\"/></identification>",
+        "<fileinfo><size toolname=\"Jhove\">1</size></fileinfo><fileinfo/>" };
+
+    for (String section : sections) {
+      byte[] source = fits( "10:00", section );
+      assertNull( section, mCheck.check( source, fits( "11:00", section ) ) );
+      assertNull( section, mCheck.check( source, source ) );
+      assertNull( section, mCheck.digest( source, new HashMap<String, List<String>>() ) );
+    }
+  }
+
+  @Test
+  public void repeatedMetadataOfAToolIsResolvedByTheFastPath() throws Exception {
+    // a repeated element of a metadata type matches if any candidate element has its value
+    String metadata = "<metadata><text><charset toolname=\"Jhove\">UTF-8</charset>"
+        + "<charset toolname=\"Jhove\">ASCII</charset></text></metadata>";
+    assertNotNull( mCheck.check( fits( "10:00", metadata ), fits( "11:00", metadata ) ) );
+  }
+
+  private byte[] fits( String timestamp, String sections ) {
+    return ("<fits timestamp=\"" + timestamp + "\">" + sections + "</fits>").getBytes( UTF8 );
+  }
+}
@@ -0,0 +1,95 @@
+package edu.harvard.hul.fdc.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TarArchiveTest {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void readsAllHeaderFormats() throws Exception {
+    String longName = "a/" + repeat( "long", 40 ) + ".fits.xml";
+    TestArchives tar = new TestArchives();
+    tar.add( "plain.fits.xml", "plain" );
+    tar.add( "prefixed.fits.xml", "dir/sub", "prefixed".getBytes( UTF8 ), '0', false );
+    tar.addLongName( longName ).add( longName.substring( 0, 99 ), "long" );
+    tar.addPaxPath( "pax/path.fits.xml" ).add( "pax/pa", "pax" );
+    tar.add( "large.fits.xml", "", "base-256".getBytes( UTF8 ), '0', true );
+    tar.add( "folder/", "", new byte[0], '5', false );
+    tar.add( "link.fits.xml", "", new byte[0], '2', false );
+    tar.add( "notes.txt", "not compared" );
+    File file = mFolder.newFile( "output.tar" );
+    tar.writeTar( file, true, false );
+
+    assertEntries( file, "plain.fits.xml", "plain", "dir/sub/prefixed.fits.xml", "prefixed", longName, "long",
+        "pax/path.fits.xml", "pax", "large.fits.xml", "base-256" );
+  }
+
+  @Test
+  public void readsCompressedArchivesWithoutEndBlocks() throws Exception {
+    TestArchives tar = new TestArchives();
+    tar.add( "a.fits.xml", "a" ).add( "b.fits.xml", repeat( "b", 700 ) );
+    File file = mFolder.newFile( "output.tgz" );
+    tar.writeTar( file, false, true );
+
+    assertEntries( file, "a.fits.xml", "a", "b.fits.xml", repeat( "b", 700 ) );
+  }
+
+  @Test
+  public void isOnlyStreamed() throws Exception {
+    File file = mFolder.newFile( "output.tar" );
+    new TestArchives().add( "a.fits.xml", "a" ).writeTar( file, true, false );
+    Archive archive = Archive.open( file );
+    assertFalse( archive instanceof RandomAccessArchive );
+  }
+
+  /**
+   * Checks the paths of the archive and the content read for each, given as
+   * path and content in turns.
+   */
+  private void assertEntries( File file, String... expected ) throws Exception {
+    Archive archive = Archive.open( file );
+    try {
+      List<String> paths = new ArrayList<String>();
+      for (int i = 0; i < expected.length; i += 2) {
+        paths.add( expected[i] );
+      }
+      assertEquals( paths, archive.getPaths() );
+
+      Archive.Entries entries = archive.entries();
+      try {
+        for (int i = 0; i < expected.length; i += 2) {
+          assertEquals( expected[i], entries.next() );
+          assertArrayEquals( expected[i + 1].getBytes( UTF8 ), entries.read() );
+        }
+        assertNull( entries.next() );
+      } finally {
+        entries.close();
+      }
+    } finally {
+      archive.close();
+    }
+  }
+
+  private static String repeat( String value, int times ) {
+    char[] chars = new char[times];
+    Arrays.fill( chars, 'x' );
+    return new String( chars ).replace( "x", value );
+  }
+}
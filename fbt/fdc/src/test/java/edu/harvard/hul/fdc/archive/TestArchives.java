@@ -0,0 +1,126 @@
+package edu.harvard.hul.fdc.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes zip and tar archives for the tests, the tar entries header by
+ * header, so that each header format can be tested.
+ */
+public class TestArchives {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private ByteArrayOutputStream mTar;
+
+  public TestArchives() {
+    mTar = new ByteArrayOutputStream();
+  }
+
+  /**
+   * Writes the files, by name, to a zip archive.
+   */
+  public static void writeZip( File file, Map<String, String> files ) throws IOException {
+    ZipOutputStream out = new ZipOutputStream( new FileOutputStream( file ) );
+    try {
+      for (Map.Entry<String, String> entry : files.entrySet()) {
+        out.putNextEntry( new ZipEntry( entry.getKey() ) );
+        out.write( entry.getValue().getBytes( UTF8 ) );
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the files, by name, to a tar archive with plain headers.
+   */
+  public static void writeTar( File file, Map<String, String> files ) throws IOException {
+    TestArchives tar = new TestArchives();
+    for (Map.Entry<String, String> entry : files.entrySet()) {
+      tar.add( entry.getKey(), "", entry.getValue().getBytes( UTF8 ), '0', false );
+    }
+    tar.writeTar( file, true, false );
+  }
+
+  /**
+   * Adds an entry with a ustar header, its name split into the prefix and
+   * the name field, and its size in octal or base-256.
+   */
+  public TestArchives add( String name, String prefix, byte[] data, char type, boolean base256 ) {
+    byte[] header = new byte[512];
+    put( header, 0, name );
+    put( header, 100, "0000644" );
+    if (base256) {
+      header[124] = (byte) 0x80;
+      long size = data.length;
+      for (int i = 135; i > 124; i--) {
+        header[i] = (byte) size;
+        size >>>= 8;
+      }
+    } else {
+      put( header, 124, String.format( "%011o", data.length ) );
+    }
+    header[156] = (byte) type;
+    put( header, 257, "ustar" );
+    put( header, 263, "00" );
+    put( header, 345, prefix );
+    mTar.write( header, 0, header.length );
+    mTar.write( data, 0, data.length );
+    mTar.write( new byte[(512 - data.length % 512) % 512], 0, (512 - data.length % 512) % 512 );
+    return this;
+  }
+
+  public TestArchives add( String name, String content ) {
+    return add( name, "", content.getBytes( UTF8 ), '0', false );
+  }
+
+  /**
+   * Adds a GNU long name entry for the next entry.
+   */
+  public TestArchives addLongName( String name ) {
+    return add( "././@LongLink", "", (name + "\0").getBytes( UTF8 ), 'L', false );
+  }
+
+  /**
+   * Adds a pax header with the path of the next entry.
+   */
+  public TestArchives addPaxPath( String path ) {
+    String record = " path=" + path + "\n";
+    // the length counts its own digits
+    int length = record.length();
+    while (String.valueOf( length ).length() + record.length() != length) {
+      length++;
+    }
+    return add( "PaxHeaders/entry", "", (length + record).getBytes( UTF8 ), 'x', false );
+  }
+
+  public void writeTar( File file, boolean endBlocks, boolean gzip ) throws IOException {
+    OutputStream out = new FileOutputStream( file );
+    if (gzip) {
+      out = new GZIPOutputStream( out );
+    }
+    try {
+      mTar.writeTo( out );
+      if (endBlocks) {
+        out.write( new byte[1024] );
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void put( byte[] header, int offset, String value ) {
+    byte[] bytes = value.getBytes( UTF8 );
+    System.arraycopy( bytes, 0, header, offset, bytes.length );
+  }
+}
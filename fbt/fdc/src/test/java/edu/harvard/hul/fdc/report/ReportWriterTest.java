@@ -0,0 +1,38 @@
+package edu.harvard.hul.fdc.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class ReportWriterTest {
+
+  @Test
+  public void csvWritesToolsWithoutNameOrFiles() throws Exception {
+    StringWriter out = new StringWriter();
+    ReportWriter writer = ReportWriter.create( ReportWriter.FORMAT_CSV, out );
+    writer.begin( "key" );
+    writer.startSection( ReportWriter.SECTION_GLOBAL_MISSING, 3, 6 );
+    writer.tool( null );
+    writer.tool( "Jhove" );
+    writer.tool( "a,b" );
+    writer.endSection();
+    writer.startSection( ReportWriter.SECTION_MISSING, 1, 6 );
+    writer.tool( null );
+    writer.file( "f.fits.xml" );
+    writer.endSection();
+    writer.end();
+
+    assertEquals( "section,status,tool,file\n" + "global-missing,6,,\n" + "global-missing,6,Jhove,\n"
+        + "global-missing,6,\"a,b\",\n" + "missing,6,,f.fits.xml\n", out.toString() );
+  }
+
+  @Test
+  public void jsonEscapesStrings() throws Exception {
+    StringBuilder json = new StringBuilder();
+    JSONReportWriter.quote( json, "a\"b\\c\nd\u0001" );
+    JSONReportWriter.quote( json, null );
+    assertEquals( "\"a\\\"b\\\\c\\nd\\u0001\"null", json.toString() );
+  }
+}
@@ -0,0 +1,85 @@
+package edu.harvard.hul.fdc.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+import edu.harvard.hul.fdc.report.ReportWriter;
+
+public class DiffResolverTest {
+
+  private static final String SOURCE = "<fileinfo><size toolname=\"Jhove\">1</size><size toolname=\"Exiftool\">1</size>"
+      + "<md5checksum toolname=\"OIS\">a</md5checksum></fileinfo>";
+
+  private static final String[] CANDIDATES = {
+      "<fileinfo><size toolname=\"Jhove\">2</size><size toolname=\"Exiftool\">1</size>"
+          + "<md5checksum toolname=\"OIS\">a</md5checksum></fileinfo>",
+      "<fileinfo><size toolname=\"Jhove\">1</size><md5checksum toolname=\"OIS\">a</md5checksum></fileinfo>",
+      "<fileinfo><size toolname=\"Jhove\">1</size><size toolname=\"Exiftool\">1</size>"
+          + "<md5checksum toolname=\"OIS\">a</md5checksum><size toolname=\"Tika\">1</size></fileinfo>", SOURCE };
+
+  @Test
+  public void mergingSharedDictionariesEqualsOneResolver() throws Exception {
+    FileDictionary files = new FileDictionary();
+    FileInfoResolver merged = new FileInfoResolver();
+    merged.setFileDictionary( files );
+    for (int i = 0; i < CANDIDATES.length; i++) {
+      FileInfoResolver fork = new FileInfoResolver();
+      fork.setFileDictionary( files );
+      resolve( fork, i );
+      merged.merge( fork );
+    }
+
+    String report = report( single() );
+    assertTrue( report, report.contains( "Exiftool\n\tf1.fits.xml" ) );
+    assertEquals( report, report( merged ) );
+  }
+
+  @Test
+  public void mergingSeparateDictionariesEqualsOneResolver() throws Exception {
+    FileInfoResolver merged = new FileInfoResolver();
+    // resolved in reverse, so that the ids of the two dictionaries differ
+    for (int i = CANDIDATES.length - 1; i >= 0; i--) {
+      FileInfoResolver other = new FileInfoResolver();
+      resolve( other, i );
+      resolve( other, (i + 1) % CANDIDATES.length );
+      merged.merge( other );
+    }
+
+    FileInfoResolver twice = single();
+    for (int i = 0; i < CANDIDATES.length; i++) {
+      resolve( twice, i );
+    }
+    assertEquals( report( twice ), report( merged ) );
+  }
+
+  private FileInfoResolver single() throws Exception {
+    FileInfoResolver resolver = new FileInfoResolver();
+    for (int i = 0; i < CANDIDATES.length; i++) {
+      resolve( resolver, i );
+    }
+    return resolver;
+  }
+
+  private void resolve( DiffResolver resolver, int i ) throws Exception {
+    resolver.resolve( "f" + i + ".fits.xml", element( SOURCE ), element( CANDIDATES[i] ) );
+  }
+
+  private String report( DiffResolver resolver ) throws Exception {
+    StringWriter out = new StringWriter();
+    ReportWriter writer = ReportWriter.create( ReportWriter.FORMAT_TEXT, out );
+    writer.begin( "key" );
+    resolver.report( writer, true );
+    writer.end();
+    return out.toString();
+  }
+
+  private Element element( String xml ) throws Exception {
+    return DocumentHelper.parseText( xml ).getRootElement();
+  }
+}
@@ -0,0 +1,84 @@
+package edu.harvard.hul.fdc.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class FileDictionaryTest {
+
+  private static final int FILES = 20000;
+
+  @Test
+  public void spilledDictionaryKeepsTheIds() {
+    FileDictionary files = new FileDictionary();
+    files.setMemoryBudget( 1024 * 1024 );
+    try {
+      for (int i = 0; i < FILES; i++) {
+        assertEquals( i, files.id( name( i ) ) );
+      }
+      // looked up again from the cache, the spill file and both
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < FILES; i++) {
+          assertEquals( i, files.id( name( i ) ) );
+          assertEquals( name( i ), files.name( i ) );
+        }
+      }
+      assertEquals( FILES, files.size() );
+    } finally {
+      files.close();
+    }
+  }
+
+  @Test
+  public void threadsGetTheSameIdsWhileTheDictionarySpills() throws Exception {
+    for (int run = 0; run < 5; run++) {
+      final FileDictionary files = new FileDictionary();
+      files.setMemoryBudget( 1024 * 1024 );
+      ExecutorService executor = Executors.newFixedThreadPool( 4 );
+      try {
+        List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+        for (int t = 0; t < 4; t++) {
+          final int offset = t * 1000;
+          results.add( executor.submit( new Callable<int[]>() {
+            public int[] call() {
+              int[] ids = new int[FILES];
+              for (int i = 0; i < FILES; i++) {
+                int file = (i + offset) % FILES;
+                ids[file] = files.id( name( file ) );
+                // the names already seen are looked up lock-free while others are added
+                files.id( name( file / 2 ) );
+              }
+              return ids;
+            }
+          } ) );
+        }
+
+        int[] first = results.get( 0 ).get();
+        for (Future<int[]> result : results) {
+          int[] ids = result.get();
+          for (int i = 0; i < FILES; i++) {
+            assertEquals( first[i], ids[i] );
+            assertEquals( name( i ), files.name( ids[i] ) );
+          }
+        }
+        assertEquals( FILES, files.size() );
+        assertTrue( files.getMemoryBudget() > 0 );
+      } finally {
+        executor.shutdown();
+        files.close();
+      }
+    }
+  }
+
+  private static String name( int i ) {
+    return "dir" + (i % 50) + "/file" + i + ".fits.xml";
+  }
+}
@@ -0,0 +1,40 @@
+package edu.harvard.hul.fdc.resolver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+import edu.harvard.hul.fdc.report.ReportWriter;
+
+public class MetadataResolverTest {
+
+  private static final String SOURCE = "<metadata><image><imageWidth toolname=\"Jhove\">10</imageWidth>"
+      + "<imageHeight toolname=\"Exiftool\">20</imageHeight></image></metadata>";
+
+  @Test
+  public void missingMetadataTypeReportsItsToolsMissing() throws Exception {
+    String withoutType = report( SOURCE, "<metadata><document/></metadata>" );
+    assertEquals( report( SOURCE, null ), withoutType );
+    assertEquals( "Found 2 missing tool(s):\nExiftool\n\tf.fits.xml\nJhove\n\tf.fits.xml\n\n"
+        + "Found 2 tool(s) missing in all candidate files:\nExiftool\nJhove\n\n", withoutType );
+  }
+
+  private String report( String source, String candidate ) throws Exception {
+    MetadataResolver resolver = new MetadataResolver();
+    resolver.resolve( "f.fits.xml", element( source ), candidate == null ? null : element( candidate ) );
+    StringWriter out = new StringWriter();
+    ReportWriter writer = ReportWriter.create( ReportWriter.FORMAT_TEXT, out );
+    writer.begin( "key" );
+    resolver.report( writer, true );
+    writer.end();
+    return out.toString();
+  }
+
+  private Element element( String xml ) throws Exception {
+    return DocumentHelper.parseText( xml ).getRootElement();
+  }
+}
@@ -0,0 +1,48 @@
+package edu.harvard.hul.fdc.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+public class ToolIndexTest {
+
+  @Test
+  public void looksUpTheFirstChildOfTheParent() throws Exception {
+    Element root = DocumentHelper.parseText( "<fits><fileinfo><size toolname=\"a\">1</size>"
+        + "<size toolname=\"a\">2</size><size>3</size><size toolname=\"\">4</size></fileinfo>"
+        + "<metadata><text><size toolname=\"a\">5</size></text></metadata></fits>" ).getRootElement();
+    Element fileinfo = root.element( "fileinfo" );
+    Element text = root.element( "metadata" ).element( "text" );
+    ToolIndex index = new ToolIndex();
+
+    assertEquals( "1", index.byNameAndTool( fileinfo, element( "<size toolname=\"a\"/>" ) ).getText() );
+    assertEquals( 2, index.allByNameAndTool( fileinfo, element( "<size toolname=\"a\"/>" ) ).size() );
+    // a missing toolname is not the same as an empty one
+    assertEquals( "3", index.byNameAndTool( fileinfo, element( "<size/>" ) ).getText() );
+    assertEquals( "4", index.byNameAndTool( fileinfo, element( "<size toolname=\"\"/>" ) ).getText() );
+    assertNull( index.byNameAndTool( fileinfo, element( "<size toolname=\"b\"/>" ) ) );
+
+    // the same index serves the other sections of the document
+    assertEquals( "5", index.byNameAndTool( text, element( "<size toolname=\"a\"/>" ) ).getText() );
+    assertSame( text, index.byName( root.element( "metadata" ), "text" ) );
+  }
+
+  @Test
+  public void looksUpIdentitiesByFormatMimetypeAndTool() throws Exception {
+    Element identification = element( "<identification><identity format=\"a\" mimetype=\"b\" toolname=\"FITS\"/>"
+        + "<identity format=\"a\" mimetype=\"c\" toolname=\"FITS\"/></identification>" );
+    ToolIndex index = new ToolIndex();
+    Element second = (Element) identification.elements().get( 1 );
+    assertSame( second, index.byIdentity( identification, element( "<identity format=\"a\" mimetype=\"c\" "
+        + "toolname=\"FITS\"/>" ) ) );
+    assertNull( index.byIdentity( identification, element( "<identity format=\"a\" mimetype=\"c\"/>" ) ) );
+  }
+
+  private Element element( String xml ) throws Exception {
+    return DocumentHelper.parseText( xml ).getRootElement();
+  }
+}